@@ -0,0 +1,777 @@
+// ArrayBinarySearchTree class
+//
+// CONSTRUCTION: with no initializer, or with a Balance mode
+//
+// ******************PUBLIC OPERATIONS*********************
+// void insert( x )                 --> Insert x
+// void remove( x )                 --> Remove x
+// boolean contains( x )            --> Return true if x is present
+// Comparable findMin( )            --> Return smallest item
+// Comparable findMax( )            --> Return largest item
+// boolean isEmpty( )               --> Return true if empty; else false
+// void makeEmpty( )                --> Remove all items and release the storage
+// void printTree( )                --> Print tree in sorted order
+// int nodeCount()                  --> Return the total number of nodes in the tree
+// int size( )                      --> Return the number of items, in O(1)
+// int height( )                    --> Return the height of the tree, in O(1)
+// boolean isFull()                 --> Return true if it's a full tree; else false
+// boolean compareStructure()       --> Return true if two trees have the same structure; else false
+// boolean equals()                 --> Return true if two trees are identical; else false
+// ArrayBinarySearchTree copy()     --> Return a copy of the tree
+// ArrayBinarySearchTree mirror()   --> Return a mirror image of the tree
+// boolean isMirror()               --> Return true if two trees are mirror images; else false
+// ArrayBinarySearchTree rotateRight( x ) --> Return a copy rotated right at x
+// ArrayBinarySearchTree rotateLeft( x )  --> Return a copy rotated left at x
+// List printLevels( )              --> Print and return the items level by level
+// Iterator iterator( )             --> Return a lazy in-order iterator
+// ******************ERRORS********************************
+// Throws UnderflowException as appropriate
+// Throws IllegalArgumentException for the SPLAY and SEMI_SPLAY balance modes
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements a binary search tree whose nodes live in parallel arrays instead
+ * of separate objects. A node is an int handle indexing elements, left, right
+ * and height; handles of removed nodes are kept on a free list and reused.
+ * Compared with BinarySearchTree this saves the per-node object header and
+ * gives the collector four arrays to scan instead of millions of nodes.
+ * Note that all "matching" is based on the compareTo method.
+ */
+public class ArrayBinarySearchTree<AnyType extends Comparable<? super AnyType>> implements Iterable<AnyType>
+{
+    /**
+     * Construct the tree.
+     */
+    public ArrayBinarySearchTree( )
+    {
+        this( BinarySearchTree.Balance.NONE );
+    }
+
+    /**
+     * Construct the tree with the given balancing strategy.
+     * @param balance the strategy applied by insert and remove.
+     * @throws IllegalArgumentException if balance is SPLAY or SEMI_SPLAY, which this tree does not offer.
+     */
+    public ArrayBinarySearchTree( BinarySearchTree.Balance balance )
+    {
+        if( balance == BinarySearchTree.Balance.SPLAY || balance == BinarySearchTree.Balance.SEMI_SPLAY )
+            throw new IllegalArgumentException( "Unsupported balance: " + balance );
+        this.balance = balance;
+        makeEmpty( );
+    }
+
+    /**
+     * Insert into the tree; duplicates are ignored.
+     * @param x the item to insert.
+     */
+    public void insert( AnyType x )
+    {
+        int depth = 0;
+        int p = root;
+        while( p != NIL )
+        {
+            int compareResult = x.compareTo( element( p ) );
+
+            if( compareResult == 0 )
+                return;  // Duplicate; do nothing
+            push( depth++, p, compareResult < 0 );
+            p = compareResult < 0 ? left[ p ] : right[ p ];
+        }
+        size++;
+        modCount++;
+        root = fixPath( depth, allocate( x ) );
+    }
+
+    /**
+     * Remove from the tree. Nothing is done if x is not found.
+     * @param x the item to remove.
+     */
+    public void remove( AnyType x )
+    {
+        int depth = 0;
+        int p = root;
+        while( p != NIL )
+        {
+            int compareResult = x.compareTo( element( p ) );
+
+            if( compareResult == 0 )
+                break;
+            push( depth++, p, compareResult < 0 );
+            p = compareResult < 0 ? left[ p ] : right[ p ];
+        }
+        if( p == NIL )
+            return;   // Item not found; do nothing
+
+        if( left[ p ] != NIL && right[ p ] != NIL ) // Two children
+        {
+            // Replace with the smallest item of the right subtree, then unlink that node
+            int target = p;
+            push( depth++, p, false );
+            p = right[ p ];
+            while( left[ p ] != NIL )
+            {
+                push( depth++, p, true );
+                p = left[ p ];
+            }
+            elements[ target ] = elements[ p ];
+        }
+        int child = left[ p ] != NIL ? left[ p ] : right[ p ];
+        release( p );
+        size--;
+        modCount++;
+        root = fixPath( depth, child );
+    }
+
+    /**
+     * Find the smallest item in the tree.
+     * @return smallest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMin( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        int t = root;
+        while( left[ t ] != NIL )
+            t = left[ t ];
+        return element( t );
+    }
+
+    /**
+     * Find the largest item in the tree.
+     * @return the largest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMax( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        int t = root;
+        while( right[ t ] != NIL )
+            t = right[ t ];
+        return element( t );
+    }
+
+    /**
+     * Find an item in the tree.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( AnyType x )
+    {
+        int t = root;
+        while( t != NIL )
+        {
+            int compareResult = x.compareTo( element( t ) );
+
+            if( compareResult < 0 )
+                t = left[ t ];
+            else if( compareResult > 0 )
+                t = right[ t ];
+            else
+                return true;    // Match
+        }
+        return false;
+    }
+
+    /**
+     * Make the tree logically empty and release its storage.
+     */
+    public void makeEmpty( )
+    {
+        elements = new Object[ INITIAL_CAPACITY ];
+        left = new int[ INITIAL_CAPACITY ];
+        right = new int[ INITIAL_CAPACITY ];
+        height = new int[ INITIAL_CAPACITY ];
+        root = NIL;
+        freeHead = NIL;
+        used = 0;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Test if the tree is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return root == NIL;
+    }
+
+    /**
+     * Print the tree contents in sorted order.
+     */
+    public void printTree( )
+    {
+        if( isEmpty( ) )
+            System.out.println( "Empty tree" );
+        else
+            for( AnyType x : this )
+                System.out.println( x );
+    }
+
+    /**
+     * Returns the count of nodes; same as size().
+     */
+    public int nodeCount( )
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of items in the tree in constant time.
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * Returns the height of the tree in constant time.
+     * @return the number of edges on the longest root-to-leaf path, or -1 if empty.
+     */
+    public int height( )
+    {
+        return height( root );
+    }
+
+    /**
+     * Returns true if the tree is full.  A full tree has every node
+     as either a leaf or a parent with two children.
+     */
+    public boolean isFull( )
+    {
+        IntStack stack = new IntStack( );
+        if( root != NIL )
+            stack.push( root );
+        while( !stack.isEmpty( ) )
+        {
+            int t = stack.pop( );
+            if( ( left[ t ] == NIL ) != ( right[ t ] == NIL ) ) return false;
+            if( left[ t ] != NIL ) {
+                stack.push( left[ t ] );
+                stack.push( right[ t ] );
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Compares the structure of current tree to another tree and returns
+     true if they match.
+     * @param t, the other tree to compare to
+     */
+    public boolean compareStructure( ArrayBinarySearchTree<AnyType> t )
+    {
+        return matches( t, false, false );
+    }
+
+    /**
+     *  Compares the current tree to another tree and returns true
+     if they are identical.
+     * @param t, the other tree to compare to
+     */
+    public boolean equals( ArrayBinarySearchTree<AnyType> t )
+    {
+        return matches( t, true, false );
+    }
+
+    /**
+     *  Returns true if the tree is a mirror of the passed tree.
+     */
+    public boolean isMirror( ArrayBinarySearchTree<AnyType> t2 )
+    {
+        return matches( t2, true, true );
+    }
+
+    /**
+     *  Creates and returns a new tree that is a copy of the original tree.
+     *  The node arrays are copied wholesale, free slots included.
+     */
+    public ArrayBinarySearchTree<AnyType> copy( )
+    {
+        ArrayBinarySearchTree<AnyType> res = new ArrayBinarySearchTree<>( balance );
+        res.elements = elements.clone( );
+        res.left = left.clone( );
+        res.right = right.clone( );
+        res.height = height.clone( );
+        res.root = root;
+        res.freeHead = freeHead;
+        res.used = used;
+        res.size = size;
+        return res;
+    }
+
+    /**
+     *  Creates and returns a new tree that is a mirror of the original tree.
+     *  Every handle keeps its slot, so mirroring is a copy with the child arrays swapped.
+     */
+    public ArrayBinarySearchTree<AnyType> mirror( )
+    {
+        ArrayBinarySearchTree<AnyType> res = copy( );
+        int[] swap = res.left;
+        res.left = res.right;
+        res.right = swap;
+
+        // The free list is threaded through left; move it back from the swapped array
+        for( int f = freeHead; f != NIL; f = left[ f ] )
+            res.left[ f ] = left[ f ];
+        return res;
+    }
+
+    /**
+     *  Returns a copy of the tree with a single right rotation applied to the node
+     *  having the passed value. This tree is not changed.
+     */
+    public ArrayBinarySearchTree<AnyType> rotateRight( AnyType val )
+    {
+        return rotate( val, true );
+    }
+
+    /**
+     *  Returns a copy of the tree with a single left rotation applied to the node
+     *  having the passed value. This tree is not changed.
+     */
+    public ArrayBinarySearchTree<AnyType> rotateLeft( AnyType val )
+    {
+        return rotate( val, false );
+    }
+
+    /**
+     * Print the tree level-by-level.
+     */
+    public List<List<AnyType>> printLevels( )
+    {
+        List<List<AnyType>> levels = new ArrayList<>( );
+        if( isEmpty( ) ) {
+            levels.add( new ArrayList<AnyType>( ) );
+            System.out.println( "Empty tree" );
+            return levels;
+        }
+        ArrayDeque<Integer> queue = new ArrayDeque<>( );
+        queue.add( root );
+        while( !queue.isEmpty( ) )
+        {
+            List<AnyType> row = new ArrayList<>( );
+            for( int i = queue.size( ); i > 0; i-- )
+            {
+                int t = queue.poll( );
+                row.add( element( t ) );
+                if( left[ t ] != NIL ) queue.add( left[ t ] );
+                if( right[ t ] != NIL ) queue.add( right[ t ] );
+            }
+            levels.add( row );
+        }
+        System.out.println( "Tree print level by level is: " );
+        for( List<AnyType> list : levels ) {
+            System.out.println( );
+            for( AnyType val : list ) {
+                System.out.print( val + " " );
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Obtains an in-order iterator over the items. The iterator fails fast if
+     * the tree is modified while it is in use.
+     */
+    public Iterator<AnyType> iterator( )
+    {
+        return new Iterator<AnyType>( )
+        {
+            private final IntStack stack = pushLeft( new IntStack( ), root );
+            private final int expectedModCount = modCount;
+
+            public boolean hasNext( )
+            {
+                return !stack.isEmpty( );
+            }
+
+            public AnyType next( )
+            {
+                if( modCount != expectedModCount )
+                    throw new ConcurrentModificationException( );
+                if( stack.isEmpty( ) )
+                    throw new NoSuchElementException( );
+                int t = stack.pop( );
+                pushLeft( stack, right[ t ] );
+                return element( t );
+            }
+        };
+    }
+
+    /**
+     * Internal method to push a node and its chain of left descendants.
+     */
+    private IntStack pushLeft( IntStack stack, int t )
+    {
+        for( ; t != NIL; t = left[ t ] )
+            stack.push( t );
+        return stack;
+    }
+
+    /**
+     * Internal method to copy the tree and rotate the copy at the node having val.
+     * @param val the value hold by the node, which needs to be rotated.
+     * @param toRight true for a right rotation.
+     */
+    private ArrayBinarySearchTree<AnyType> rotate( AnyType val, boolean toRight )
+    {
+        ArrayBinarySearchTree<AnyType> res = copy( );
+        int depth = 0;
+        int p = res.root;
+        while( p != NIL )
+        {
+            int compareResult = val.compareTo( res.element( p ) );
+
+            if( compareResult == 0 )
+                break;
+            res.push( depth++, p, compareResult < 0 );
+            p = compareResult < 0 ? res.left[ p ] : res.right[ p ];
+        }
+        if( p == NIL ) {
+            System.out.println( "Node holds passed value is not found. Tree is not changed." );
+        } else if( ( toRight ? res.left[ p ] : res.right[ p ] ) == NIL ) {
+            System.out.println( ( toRight ? "Left" : "Right" ) + " subtree is null. Can't be rotated. Tree is not changed." );
+        } else {
+            p = toRight ? res.rotateRight( p ) : res.rotateLeft( p );
+            // Refresh heights only, so that the rotation is not undone by rebalancing
+            while( depth > 0 )
+            {
+                int t = res.path[ --depth ];
+                if( res.pathLeft[ depth ] )
+                    res.left[ t ] = p;
+                else
+                    res.right[ t ] = p;
+                res.update( t );
+                p = t;
+            }
+            res.root = p;
+        }
+        return res;
+    }
+
+    /**
+     * Internal method to walk two trees in lockstep, comparing shape and optionally elements.
+     * @param other the tree to compare to.
+     * @param elements true to also require equal elements.
+     * @param mirrored true to pair each left child with the other tree's right child.
+     */
+    private boolean matches( ArrayBinarySearchTree<AnyType> other, boolean elements, boolean mirrored )
+    {
+        if( root == NIL || other.root == NIL ) return root == other.root;
+        int[] otherLeft = mirrored ? other.right : other.left;
+        int[] otherRight = mirrored ? other.left : other.right;
+        IntStack stack = new IntStack( );
+        stack.push( root );
+        stack.push( other.root );
+        while( !stack.isEmpty( ) )
+        {
+            int t2 = stack.pop( );
+            int t = stack.pop( );
+            if( elements && element( t ).compareTo( other.element( t2 ) ) != 0 ) return false;
+            if( ( left[ t ] == NIL ) != ( otherLeft[ t2 ] == NIL ) || ( right[ t ] == NIL ) != ( otherRight[ t2 ] == NIL ) )
+                return false;
+            if( left[ t ] != NIL ) {
+                stack.push( left[ t ] );
+                stack.push( otherLeft[ t2 ] );
+            }
+            if( right[ t ] != NIL ) {
+                stack.push( right[ t ] );
+                stack.push( otherRight[ t2 ] );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Internal method to take a node slot from the free list, or from the end of the arrays.
+     * @param x the element of the new leaf.
+     * @return the handle of the new leaf.
+     */
+    private int allocate( AnyType x )
+    {
+        int t;
+        if( freeHead != NIL )
+        {
+            t = freeHead;
+            freeHead = left[ t ];
+        }
+        else
+        {
+            if( used == elements.length )
+            {
+                int capacity = elements.length * 2;
+                elements = Arrays.copyOf( elements, capacity );
+                left = Arrays.copyOf( left, capacity );
+                right = Arrays.copyOf( right, capacity );
+                height = Arrays.copyOf( height, capacity );
+            }
+            t = used++;
+        }
+        elements[ t ] = x;
+        left[ t ] = NIL;
+        right[ t ] = NIL;
+        height[ t ] = 0;
+        return t;
+    }
+
+    /**
+     * Internal method to return a node slot to the free list.
+     * @param t the handle of the unlinked node.
+     */
+    private void release( int t )
+    {
+        elements[ t ] = null;   // Don't keep the removed item reachable
+        left[ t ] = freeHead;
+        right[ t ] = NIL;
+        freeHead = t;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private AnyType element( int t )
+    {
+        return (AnyType) elements[ t ];
+    }
+
+    /**
+     * Internal method to record a step of a root-to-node descent.
+     * @param depth the position of the step on the path.
+     * @param t the node passed through.
+     * @param wentLeft true if the descent continued into the left child.
+     */
+    private void push( int depth, int t, boolean wentLeft )
+    {
+        if( depth == path.length )
+        {
+            path = Arrays.copyOf( path, depth * 2 );
+            pathLeft = Arrays.copyOf( pathLeft, depth * 2 );
+        }
+        path[ depth ] = t;
+        pathLeft[ depth ] = wentLeft;
+    }
+
+    /**
+     * Internal method to walk a recorded descent back up, hanging the new child
+     * under each step and rebalancing it.
+     * @param depth the number of recorded steps.
+     * @param child the new subtree below the last step.
+     * @return the new root of the whole path.
+     */
+    private int fixPath( int depth, int child )
+    {
+        while( depth > 0 )
+        {
+            int t = path[ --depth ];
+            if( pathLeft[ depth ] )
+                left[ t ] = child;
+            else
+                right[ t ] = child;
+            child = balance( t );
+        }
+        return child;
+    }
+
+    /**
+     * Internal method to compute height of a subtree.
+     * @param t the node that roots the subtree.
+     */
+    private int height( int t )
+    {
+        return t == NIL ? -1 : height[ t ];
+    }
+
+    /**
+     * Internal method to recompute the cached height of a node from its children.
+     * @param t the node to refresh.
+     */
+    private void update( int t )
+    {
+        height[ t ] = Math.max( height( left[ t ] ), height( right[ t ] ) ) + 1;
+    }
+
+    /**
+     * Internal method to restore the height and, in AVL mode, the balance of a subtree
+     * whose children are already balanced.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    private int balance( int t )
+    {
+        if( balance == BinarySearchTree.Balance.AVL )
+        {
+            if( height( left[ t ] ) - height( right[ t ] ) > ALLOWED_IMBALANCE )
+            {
+                if( height( left[ left[ t ] ] ) < height( right[ left[ t ] ] ) )
+                    left[ t ] = rotateLeft( left[ t ] );
+                return rotateRight( t );
+            }
+            if( height( right[ t ] ) - height( left[ t ] ) > ALLOWED_IMBALANCE )
+            {
+                if( height( right[ right[ t ] ] ) < height( left[ right[ t ] ] ) )
+                    right[ t ] = rotateRight( right[ t ] );
+                return rotateLeft( t );
+            }
+        }
+
+        update( t );
+        return t;
+    }
+
+    /**
+     * Internal method to rotate a node with its left child, updating both heights.
+     * @param k2 the node to rotate; must have a left child.
+     * @return the new root of the subtree.
+     */
+    private int rotateRight( int k2 )
+    {
+        int k1 = left[ k2 ];
+        left[ k2 ] = right[ k1 ];
+        right[ k1 ] = k2;
+        update( k2 );
+        update( k1 );
+        return k1;
+    }
+
+    /**
+     * Internal method to rotate a node with its right child, updating both heights.
+     * @param k1 the node to rotate; must have a right child.
+     * @return the new root of the subtree.
+     */
+    private int rotateLeft( int k1 )
+    {
+        int k2 = right[ k1 ];
+        right[ k1 ] = left[ k2 ];
+        left[ k2 ] = k1;
+        update( k1 );
+        update( k2 );
+        return k2;
+    }
+
+    // Growable stack of node handles
+    private static class IntStack
+    {
+        void push( int t )
+        {
+            if( top == items.length )
+                items = Arrays.copyOf( items, top * 2 );
+            items[ top++ ] = t;
+        }
+
+        int pop( )
+        {
+            return items[ --top ];
+        }
+
+        boolean isEmpty( )
+        {
+            return top == 0;
+        }
+
+        private int[] items = new int[ 32 ];
+        private int top;
+    }
+
+    private static final int NIL = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int ALLOWED_IMBALANCE = 1;
+
+    // Node storage, indexed by handle; free slots are chained through left
+    private Object[] elements;
+    private int[] left;
+    private int[] right;
+    private int[] height;
+
+    /** The handle of the tree root, or NIL. */
+    private int root;
+
+    /** The head of the free list, or NIL. */
+    private int freeHead;
+
+    /** The number of slots ever handed out; slots past it are untouched. */
+    private int used;
+
+    /** The number of items in the tree. */
+    private int size;
+
+    /** The number of structural modifications, for fail-fast traversals. */
+    private int modCount;
+
+    /** The balancing strategy applied by insert and remove. */
+    private final BinarySearchTree.Balance balance;
+
+    /** Scratch stack of the nodes and directions of the current root-to-node descent. */
+    private int[] path = new int[ 32 ];
+    private boolean[] pathLeft = new boolean[ 32 ];
+
+
+    // Test program; checks every operation against BinarySearchTree<Integer>
+    public static void main( String [ ] args )
+    {
+        java.io.PrintStream out = System.out;
+        for( BinarySearchTree.Balance balance : new BinarySearchTree.Balance[ ] { BinarySearchTree.Balance.NONE, BinarySearchTree.Balance.AVL } )
+        {
+            ArrayBinarySearchTree<Integer> t = new ArrayBinarySearchTree<>( balance );
+            BinarySearchTree<Integer> expected = new BinarySearchTree<>( balance );
+            java.util.Random random = new java.util.Random( 42 );
+            boolean res = true;
+            for( int i = 0; i < 20000; i++ )
+            {
+                int x = random.nextInt( 5000 );
+                if( random.nextInt( 3 ) == 0 ) {
+                    t.remove( x );
+                    expected.remove( x );
+                } else {
+                    t.insert( x );
+                    expected.insert( x );
+                }
+                res &= t.contains( x ) == expected.contains( x );
+            }
+            res &= t.used <= 5000;    // Removed slots get reused, so at most one slot per key
+            res &= t.size( ) == expected.size( ) && t.height( ) == expected.height( );
+            res &= t.isFull( ) == expected.isFull( );
+            res &= t.findMin( ).equals( expected.findMin( ) ) && t.findMax( ).equals( expected.findMax( ) );
+
+            // Compare shapes through the level lists, with printing silenced
+            System.setOut( new java.io.PrintStream( java.io.OutputStream.nullOutputStream( ) ) );
+            res &= t.printLevels( ).equals( expected.printLevels( ) );
+            int r = t.root;
+            Integer val = t.element( t.left[ r ] != NIL ? t.left[ r ] : r );
+            res &= t.rotateRight( val ).printLevels( ).equals( expected.copy( ).rotateRight( val ).printLevels( ) );
+            res &= t.rotateLeft( val ).printLevels( ).equals( expected.copy( ).rotateLeft( val ).printLevels( ) );
+            res &= t.mirror( ).printLevels( ).equals( expected.mirror( ).printLevels( ) );
+            System.setOut( out );
+
+            ArrayBinarySearchTree<Integer> c = t.copy( );
+            ArrayBinarySearchTree<Integer> m = t.mirror( );
+            res &= t.equals( c ) && t.compareStructure( c ) && t.isMirror( m ) && !t.equals( m );
+            m.insert( 10000 );
+            m.remove( val );
+            res &= m.contains( 10000 ) && !m.contains( val ) && t.contains( val );
+            List<Integer> items = new ArrayList<>( );
+            t.forEach( items::add );
+            List<Integer> expectedItems = new ArrayList<>( );
+            expected.forEach( expectedItems::add );
+            res &= items.equals( expectedItems );
+            t.makeEmpty( );
+            res &= t.isEmpty( ) && t.size( ) == 0 && t.isFull( );
+
+            System.out.println( "Test result for ArrayBinarySearchTree (" + balance + "): " );
+            System.out.println( "The expected answer is: " + true );
+            System.out.println( "The result got is: " + res );
+            if( !res ) {
+                System.out.println( "ArrayBinarySearchTree error!" );
+            }
+            System.out.println( "\n\n\n" );
+        }
+    }
+}
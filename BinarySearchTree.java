@@ -3,11 +3,18 @@
  */
 // BinarySearchTree class
 //
-// CONSTRUCTION: with no initializer
+// CONSTRUCTION: with no initializer, or with a Balance mode and optional Features
 //
 // ******************PUBLIC OPERATIONS*********************
 // void insert( x )                 --> Insert x
 // void remove( x )                 --> Remove x
+// void insertAll( c )              --> Insert every item of c in one pass
+// void removeAll( c )              --> Remove every item of c in one pass
+// void union( t )                  --> Add every item of tree t
+// void intersect( t )              --> Keep only the items also in tree t
+// void difference( t )             --> Remove every item of tree t
+// BinarySearchTree split( x )      --> Move the items >= x into a new tree
+// BinarySearchTree join( l, x, r ) --> Join two trees around x
 // boolean contains( x )            --> Return true if x is present
 // Comparable findMin( )            --> Return smallest item
 // Comparable findMax( )            --> Return largest item
@@ -15,47 +22,362 @@
 // void makeEmpty( )                --> Remove all items
 // void printTree( )                --> Print tree in sorted order
 // int nodeCount()                  --> Return the total number of nodes in the tree
+// int size( )                      --> Return the number of items, in O(1)
+// int height( )                    --> Return the height of the tree, in O(1)
+// int rank( x )                    --> Return the number of items smaller than x
+// Comparable select( k )           --> Return the item of rank k (0-based)
+// int countInRange( lo, hi )       --> Return the number of items in [lo, hi]
+// int count( x )                   --> Return how many times x occurs
+// nodeCount, rank, select, countInRange( ..., m ) --> Count DISTINCT items or all OCCURRENCES
+// Iterable items( m )              --> Return a lazy view of the DISTINCT items or all OCCURRENCES
+// Comparable floor( x )           --> Return the largest item <= x, or null
+// Comparable ceiling( x )         --> Return the smallest item >= x, or null
+// Comparable lower( x )           --> Return the largest item < x, or null
+// Comparable higher( x )          --> Return the smallest item > x, or null
+// Iterable subSet( lo, hi )        --> Return a lazy view of the items in a range
+// Iterable headSet( hi )           --> Return a lazy view of the items below hi
+// Iterable tailSet( lo )           --> Return a lazy view of the items above lo
+// BinarySearchTree fromSorted( c ) --> Build a balanced tree from sorted items in O(n)
+// BinarySearchTree bulkLoad( it )  --> Build a balanced tree from a sorted iterator in O(n)
+// void rebuild( )                  --> Rebalance the tree in place in O(n)
+// void save( path, codec )         --> Write the items to a binary tree file
+// BinarySearchTree load( path, codec, balance ) --> Build a balanced tree from a file in O(n)
+// Iterator iterator( )             --> Return a lazy in-order iterator
+// Spliterator spliterator( )       --> Return a splittable in-order traversal
+// Stream stream( )                 --> Return a sequential stream of the items
+// Stream parallelStream( )         --> Return a parallel stream of the items
+// BinarySearchTree copy( )        --> Return a copy; O(1) for a PERSISTENT tree
+// FrozenBinarySearchTree freeze( ) --> Return an immutable array-laid-out copy for fast lookups
+// void setParallelThreshold( k )  --> Fork whole-tree operations at subtrees of k items
+// void setMetrics( m )             --> Record contains/insert/remove into m; null to stop
+// void setLookupCache( n, e )      --> Answer repeated lookups from a cache of n items; 0 to stop
+// LookupCache getLookupCache( )    --> Return the cache, for its hit and miss counts
 // boolean isFull()                 --> Return true if it's a full tree; else false
 // boolean compareStructure()       --> Return true if two trees have the same structure; else false
 // boolean equals()                 --> Return true if two trees are identical; else false
 // ******************ERRORS********************************
 // Throws UnderflowException as appropriate
+// Throws UnsupportedOperationException for set operations and save on a MULTISET tree
+// Throws IllegalArgumentException when a SPLAY or SEMI_SPLAY tree is made PERSISTENT
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Implements an unbalanced binary search tree.
+ * Implements a binary search tree, unbalanced by default, AVL-balanced when
+ * constructed with Balance.AVL, or self-adjusting with Balance.SPLAY and
+ * Balance.SEMI_SPLAY, which move every item that is looked up toward the root.
+ * A tree constructed with Feature.PERSISTENT never modifies a node once it is
+ * reachable: updates copy the root-to-node path they change and share the rest,
+ * so copy() is a constant-time snapshot.
+ * A tree constructed with Feature.MULTISET counts duplicates instead of
+ * dropping them: each node holds an item and its number of occurrences.
  * Note that all "matching" is based on the compareTo method.
  * @author Mark Allen Weiss
  */
-public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
+public class BinarySearchTree<AnyType extends Comparable<? super AnyType>> implements Iterable<AnyType>
 {
+    /**
+     * Balancing strategies applied by insert and remove.
+     */
+    public enum Balance
+    {
+        NONE,       // Plain binary search tree; shape depends on insertion order
+        AVL,        // Height-balanced; insert and remove stay O(log n)
+        SPLAY,      // Splay tree: each access rotates its node to the root; O(log n) amortized
+        SEMI_SPLAY  // Semi-splay tree: each access roughly halves the depth of its node
+    }
+
+    /**
+     * Optional behaviours chosen at construction.
+     */
+    public enum Feature
+    {
+        PERSISTENT, // Path-copying updates; copy() shares every node and is O(1)
+        MULTISET    // insert and remove add and take away occurrences of an item
+    }
+
+    /**
+     * What the counting queries count in a MULTISET tree. In any other tree
+     * every item occurs once, so both give the same answers.
+     */
+    public enum Multiplicity
+    {
+        DISTINCT,   // Each item once
+        OCCURRENCES // Each item as many times as it was inserted
+    }
+
     /**
      * Construct the tree.
      */
     public BinarySearchTree( )
     {
+        this( Balance.NONE );
+    }
+
+    /**
+     * Construct the tree with the given balancing strategy and features.
+     * A SPLAY or SEMI_SPLAY tree restructures itself on contains, find, findMin
+     * and findMax as well as on updates, so even lookups need exclusive access.
+     * @param balance the strategy applied by insert and remove.
+     * @param features the optional behaviours of the tree.
+     * @throws IllegalArgumentException if a splaying tree is asked to be PERSISTENT,
+     *         whose snapshots must not change when read.
+     */
+    public BinarySearchTree( Balance balance, Feature... features )
+    {
+        this.balance = balance;
+        this.features = features.clone( );
+        persistent = Arrays.asList( features ).contains( Feature.PERSISTENT );
+        multiset = Arrays.asList( features ).contains( Feature.MULTISET );
+        splaying = balance == Balance.SPLAY || balance == Balance.SEMI_SPLAY;
+        if( splaying && persistent )
+            throw new IllegalArgumentException( balance + " trees cannot be " + Feature.PERSISTENT );
         root = null;
     }
 
     /**
-     * Insert into the tree; duplicates are ignored.
+     * Build a perfectly balanced tree from items in ascending order, in linear time.
+     * @param items the items, sorted ascending; equal neighbours are collapsed.
+     * @return a new tree holding the items.
+     * @throws IllegalArgumentException if the items are not sorted.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> BinarySearchTree<AnyType> fromSorted( Collection<? extends AnyType> items )
+    {
+        return bulkLoad( items.iterator( ), items.size( ), Balance.NONE );
+    }
+
+    /**
+     * Build a perfectly balanced tree from items in ascending order, in linear time.
+     * @param items an iterator over the items, sorted ascending; equal neighbours are collapsed.
+     * @return a new tree holding the items.
+     * @throws IllegalArgumentException if the items are not sorted.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> BinarySearchTree<AnyType> bulkLoad( Iterator<? extends AnyType> items )
+    {
+        return bulkLoad( items, 16, Balance.NONE );
+    }
+
+    /**
+     * Build a perfectly balanced tree from items in ascending order, in linear time.
+     * @param items an iterator over the items, sorted ascending; equal neighbours are collapsed.
+     * @param balance the strategy the new tree applies to later updates.
+     * @return a new tree holding the items.
+     * @throws IllegalArgumentException if the items are not sorted.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> BinarySearchTree<AnyType> bulkLoad( Iterator<? extends AnyType> items, Balance balance )
+    {
+        return bulkLoad( items, 16, balance );
+    }
+
+    /**
+     * Build a perfectly balanced tree from a file written by save, in linear time.
+     * The file is memory-mapped and its items are decoded straight into nodes, in
+     * order, without an intermediate list. To query a file without building a
+     * tree at all, use MappedBinarySearchTree.open.
+     * @param path the file.
+     * @param codec the encoding the file was written with.
+     * @param balance the strategy the new tree applies to later updates.
+     * @param features the optional behaviours of the new tree.
+     * @return a new tree holding the items of the file.
+     * @throws IOException if the file cannot be read or is not a tree file for this codec.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> BinarySearchTree<AnyType> load( Path path,
+            KeyCodec<AnyType> codec, Balance balance, Feature... features ) throws IOException
+    {
+        try( MappedBinarySearchTree<AnyType> file = MappedBinarySearchTree.open( path, codec ) )
+        {
+            if( file.size( ) > Integer.MAX_VALUE )
+                throw new IOException( "Too many items for a tree: " + file.size( ) );
+            BinarySearchTree<AnyType> res = new BinarySearchTree<>( balance, features );
+            res.size = (int) file.size( );
+            res.root = res.build( file.iterator( ), res.size );
+            return res;
+        }
+    }
+
+    /**
+     * Write the items to a file in ascending order, in the binary tree format.
+     * @param path the file to create or replace.
+     * @param codec the encoding of the items.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save( Path path, KeyCodec<AnyType> codec ) throws IOException
+    {
+        if( multiset )
+            throw new UnsupportedOperationException( "The tree file format does not record counts" );
+        MappedBinarySearchTree.write( path, this, size, codec );
+    }
+
+    /**
+     * Insert into the tree; duplicates are ignored, or counted in a MULTISET tree.
      * @param x the item to insert.
      */
     public void insert( AnyType x )
     {
-        root = insert( x, root );
+        if( cache != null )
+            cache.invalidate( x );
+        if( metrics == null )
+            root = insert( x, root );
+        else
+        {
+            long start = System.nanoTime( );
+            root = insert( x, root );
+            metrics.record( TreeMetrics.Operation.INSERT, probes, System.nanoTime( ) - start );
+        }
     }
 
     /**
-     * Remove from the tree. Nothing is done if x is not found.
+     * Remove from the tree. Nothing is done if x is not found. A MULTISET tree
+     * removes one occurrence.
      * @param x the item to remove.
      */
     public void remove( AnyType x )
     {
-        root = remove( x, root );
+        if( cache != null )
+            cache.invalidate( x );
+        if( metrics == null )
+            root = remove( x, root );
+        else
+        {
+            long start = System.nanoTime( );
+            root = remove( x, root );
+            metrics.record( TreeMetrics.Operation.REMOVE, probes, System.nanoTime( ) - start );
+        }
+    }
+
+    /**
+     * Insert a batch of items; duplicates are ignored. The batch is sorted and
+     * merged into the tree in a single top-down pass, which only visits the
+     * subtrees that some item of the batch falls into.
+     * @param items the items to insert.
+     */
+    public void insertAll( Collection<? extends AnyType> items )
+    {
+        if( cache != null )
+            cache.clear( );
+        if( multiset )
+        {
+            for( AnyType x : items )
+                insert( x );    // Every occurrence counts; the merge would collapse them
+            return;
+        }
+        root = merge( root, sortedBatch( items ), true );
+    }
+
+    /**
+     * Remove a batch of items; items that are not found are ignored. The batch is
+     * sorted and merged into the tree in a single top-down pass.
+     * @param items the items to remove.
+     */
+    public void removeAll( Collection<? extends AnyType> items )
+    {
+        if( cache != null )
+            cache.clear( );
+        if( multiset )
+        {
+            for( AnyType x : items )
+                remove( x );
+            return;
+        }
+        root = merge( root, sortedBatch( items ), false );
+    }
+
+    /**
+     * Add every item of another tree to this one. For trees of sizes m <= n this
+     * takes O(m log(n/m + 1)) time, and large disjoint subtrees are merged in
+     * parallel. The other tree is not changed; to keep this one as well, call
+     * union on a copy( ), which is O(1) for a persistent tree.
+     * @param other the tree whose items are added.
+     */
+    public void union( BinarySearchTree<AnyType> other )
+    {
+        combine( SetOperation.UNION, other );
+    }
+
+    /**
+     * Remove every item that another tree does not hold, in O(m log(n/m + 1)).
+     * @param other the tree whose items are kept; it is not changed.
+     */
+    public void intersect( BinarySearchTree<AnyType> other )
+    {
+        combine( SetOperation.INTERSECT, other );
+    }
+
+    /**
+     * Remove every item that another tree holds, in O(m log(n/m + 1)).
+     * @param other the tree whose items are removed; it is not changed.
+     */
+    public void difference( BinarySearchTree<AnyType> other )
+    {
+        combine( SetOperation.DIFFERENCE, other );
+    }
+
+    /**
+     * Move every item not smaller than x into a new tree, in time proportional
+     * to the height.
+     * @param x the item to split at; need not be present.
+     * @return a tree with the same balance and features, holding the items >= x.
+     */
+    public BinarySearchTree<AnyType> split( AnyType x )
+    {
+        Split<AnyType> s = split( root, x );
+        BinarySearchTree<AnyType> res = emptyCopy( );
+        res.root = s.match == null ? s.right : join( null, s.match, s.right );
+        res.size = size( res.root );
+        root = s.left;
+        size = size( root );
+        modCount++;
+        if( cache != null )
+            cache.clear( );
+        return res;
+    }
+
+    /**
+     * Build a tree from the items of two trees and one item between them, in time
+     * proportional to the difference of their heights. The nodes of both trees
+     * are moved into the new tree, so both are left empty.
+     * @param left a tree whose items are all smaller than x.
+     * @param x the middle item.
+     * @param right a tree whose items are all larger than x, of the same kind as left.
+     * @return the joined tree.
+     * @throws IllegalArgumentException if the items are out of order or the trees differ in balance or features.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> BinarySearchTree<AnyType> join(
+            BinarySearchTree<AnyType> left, AnyType x, BinarySearchTree<AnyType> right )
+    {
+        if( left.balance != right.balance || left.persistent != right.persistent || left.multiset != right.multiset )
+            throw new IllegalArgumentException( "Trees differ in balance or features" );
+        if( !left.isEmpty( ) && left.findMax( ).compareTo( x ) >= 0 || !right.isEmpty( ) && right.findMin( ).compareTo( x ) <= 0 )
+            throw new IllegalArgumentException( "Items are not in order around: " + x );
+
+        BinarySearchTree<AnyType> res = left.emptyCopy( );
+        res.root = res.join( left.root, new BinaryNode<>( x ), right.root );
+        res.size = left.size + right.size + 1;
+        left.makeEmpty( );
+        right.makeEmpty( );
+        return res;
     }
 
     /**
@@ -66,6 +388,8 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
     {
         if( isEmpty( ) )
             throw new UnderflowException( );
+        if( splaying )
+            return splayEnd( true ).element;
         return findMin( root ).element;
     }
 
@@ -77,6 +401,8 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
     {
         if( isEmpty( ) )
             throw new UnderflowException( );
+        if( splaying )
+            return splayEnd( false ).element;
         return findMax( root ).element;
     }
 
@@ -87,7 +413,53 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
      */
     public boolean contains( AnyType x )
     {
-        return contains( x, root );
+        if( metrics == null )
+        {
+            if( cache != null )
+                return lookup( x ) != ABSENT;
+            return splaying ? access( x ) != null : contains( x, root );
+        }
+        long start = System.nanoTime( );
+        if( cache != null )
+        {
+            boolean found = lookup( x ) != ABSENT;
+            metrics.record( TreeMetrics.Operation.CONTAINS, probes, System.nanoTime( ) - start );
+            return found;
+        }
+        int compared = splaying ? ( access( x ) != null ? probes : ~probes ) : probe( x, root );
+        metrics.record( TreeMetrics.Operation.CONTAINS, compared < 0 ? ~compared : compared, System.nanoTime( ) - start );
+        return compared >= 0;
+    }
+
+    /**
+     * Find the item of the tree equal to x, in one descent. Lets
+     * BinarySearchTreeMap, whose entries compare by key, look up a value.
+     * @param x the item to search for.
+     * @return the item in the tree, or null if not found.
+     */
+    @SuppressWarnings( "unchecked" )
+    AnyType find( AnyType x )
+    {
+        if( cache == null )
+            return locate( x );
+        Object found = lookup( x );
+        return found == ABSENT ? null : (AnyType) found;
+    }
+
+    /**
+     * Insert x unless an equal item is present, in one descent.
+     * @param x the item to insert.
+     * @return the equal item already in the tree, or x if it was inserted.
+     */
+    AnyType intern( AnyType x )
+    {
+        int before = size;
+        insert( x );
+        if( size != before )
+            return x;
+        AnyType existing = duplicate;
+        duplicate = null;
+        return existing;
     }
 
     /**
@@ -96,6 +468,10 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
     public void makeEmpty( )
     {
         root = null;
+        size = 0;
+        modCount++;
+        if( cache != null )
+            cache.clear( );
     }
 
     /**
@@ -120,299 +496,1535 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
 
 
     /**
-     * Recursively traverses the tree and returns the count of nodes.
+     * Returns the count of nodes; same as size().
      */
     public int nodeCount() {
-        return nodeCount(root);
+        return size();
     }
 
     /**
-     * Returns true if the tree is full.  A full tree has every node
-     as either a leaf or a parent with two children.
+     * Returns the number of items in the tree in constant time.
+     * @return the number of items.
      */
-    public boolean isFull( )
+    public int size( )
     {
-        return isFull(root);
+        return size;
     }
 
     /**
-     *  Compares the structure of current tree to another tree and returns
-     true if they match.
-     * @param t, the other tree to compare to
+     * Returns the height of the tree in constant time.
+     * @return the number of edges on the longest root-to-leaf path, or -1 if empty.
      */
-    public boolean compareStructure(BinarySearchTree<AnyType> t)
+    public int height( )
     {
-        return compareStructure(root, t.root);
+        return height( root );
     }
 
     /**
-     *  Compares the current tree to another tree and returns true
-     if they are identical.
-     * @param t, the other tree to compare to
+     * Set the subtree size from which isFull, copy, mirror, equals, isMirror,
+     * compareStructure and the set operations split their work into fork-join
+     * tasks. A node forks only when both of its subtrees hold at least this many
+     * items, so small or degenerate trees stay on one thread; a walk that passes
+     * a node too lopsided to fork keeps looking for such nodes below it. Tasks
+     * run in the caller's ForkJoinPool, or in the common pool if the caller is
+     * not in one.
+     * @param threshold the smallest subtree worth a task; Integer.MAX_VALUE never forks.
+     * @throws IllegalArgumentException if threshold is less than 1.
      */
-    public boolean equals(BinarySearchTree<AnyType> t)
+    public void setParallelThreshold( int threshold )
     {
-        return equals(root, t.root);
+        if( threshold < 1 )
+            throw new IllegalArgumentException( "Parallel threshold must be positive: " + threshold );
+        parallelThreshold = threshold;
     }
 
     /**
-     *  Creates and returns a new tree that is a copy of the original tree.
+     * Record the count, comparisons, search depth and latency of every contains,
+     * insert and remove into the given metrics, which other trees may share.
+     * Without metrics, which is the default, each of these operations pays only
+     * a null check. Trees derived from this one do not inherit the metrics.
+     * @param metrics the metrics to record into, or null to stop recording.
      */
-    public BinarySearchTree<AnyType> copy()
+    public void setMetrics( TreeMetrics metrics )
     {
-        BinarySearchTree<AnyType> res = new BinarySearchTree<AnyType>();
-        res.root = copy(root, res.root);
-        return res;
+        this.metrics = metrics;
     }
 
     /**
-     *  Creates and returns a new tree that is a mirror of the original tree.
+     * Returns the metrics this tree records into, or null if it records none.
      */
-    public BinarySearchTree<AnyType> mirror()
+    public TreeMetrics getMetrics( )
     {
-        BinarySearchTree<AnyType> res = new BinarySearchTree<AnyType>();
-        res.root = mirror(root, res.root);
-        return res;
+        return metrics;
     }
 
     /**
-     *  Returns true if the tree is a mirror of the passed tree.
+     * Put a bounded cache in front of contains, so that a hot item is answered
+     * by one hash lookup instead of a descent that compares against every node
+     * on its path. The cache remembers misses as well as hits. Insert and remove
+     * drop their item from the cache, and operations that change many items at
+     * once clear it; rebalancing moves nodes but not items, so it leaves the
+     * cache alone. A lookup answered by the cache does not splay.
+     * The items must have equals and hashCode consistent with compareTo.
+     * Hits and misses are counted by the cache and, if set, by the metrics.
+     * Trees derived from this one do not inherit the cache.
+     * @param capacity the most items cached, or 0 to remove the cache.
+     * @param eviction how the cache chooses an item to drop when full.
+     * @throws IllegalArgumentException if capacity is negative.
      */
-    public boolean isMirror(BinarySearchTree<AnyType> t2)
+    public void setLookupCache( int capacity, LookupCache.Eviction eviction )
     {
-        return isMirror(root, t2.root);
+        if( capacity < 0 )
+            throw new IllegalArgumentException( "Capacity must not be negative: " + capacity );
+        cache = capacity == 0 ? null : new LookupCache<>( capacity, eviction );
     }
 
     /**
-     *  Performs a single right rotation on the node having the passed value.
+     * Returns the lookup cache of this tree, or null if it has none.
      */
-    public BinarySearchTree<AnyType> rotateRight(AnyType val)
+    public LookupCache<AnyType, ?> getLookupCache( )
     {
-        BinarySearchTree<AnyType> t = new BinarySearchTree<AnyType>();
-        t.root = rotateRight(root, val);
-        return t;
+        return cache;
     }
 
     /**
-     *  Performs a single left rotation on the node having the passed value.
+     * Returns true if the tree is full.  A full tree has every node
+     as either a leaf or a parent with two children.
      */
-    public BinarySearchTree<AnyType> rotateLeft(AnyType val)
+    public boolean isFull( )
     {
-        BinarySearchTree<AnyType> t = new BinarySearchTree<AnyType>();
-        t.root = rotateLeft(root, val);
-        return t;
+        return isFull(root);
     }
 
     /**
-     * Print the tree level-by-level.
+     * Count the items smaller than x, in time proportional to the height.
+     * @param x the item to rank; need not be present.
+     * @return the number of items smaller than x.
      */
-    public List<List<AnyType>> printLevels( )
+    public int rank( AnyType x )
     {
-        List<List<AnyType>> levels = new ArrayList<>();
-        if( isEmpty( ) ) {
-            levels.add(new ArrayList<AnyType>());
-            System.out.println( "Empty tree" );
-        }
-        else {
-            printLevels( root, levels, 0 );
-            System.out.println("Tree print level by level is: ");
-            for(List<AnyType> list : levels) {
-                System.out.println();
-                for(AnyType val : list) {
-                    System.out.print(val + " ");
-                }
-            }
-        }
-        return levels;
+        return rank( x, root, false, false );
     }
 
     /**
-     * Internal method to insert into a subtree.
-     * @param x the item to insert.
-     * @param t the node that roots the subtree.
-     * @return the new root of the subtree.
+     * Find the item of the given rank, in time proportional to the height.
+     * @param k the rank, 0 for the smallest item.
+     * @return the item with exactly k smaller items.
+     * @throws IndexOutOfBoundsException if k is not in [0, size()).
      */
-    private BinaryNode<AnyType> insert( AnyType x, BinaryNode<AnyType> t )
+    public AnyType select( int k )
     {
-        if( t == null )
-            return new BinaryNode<>( x, null, null );
-
-        int compareResult = x.compareTo( t.element );
-
-        if( compareResult < 0 )
-            t.left = insert( x, t.left );
-        else if( compareResult > 0 )
-            t.right = insert( x, t.right );
-        else
-            ;  // Duplicate; do nothing
-        return t;
+        if( k < 0 || k >= size( ) )
+            throw new IndexOutOfBoundsException( "k: " + k + ", size: " + size( ) );
+        return select( k, root, false ).element;
     }
 
     /**
-     * Internal method to remove from a subtree.
-     * @param x the item to remove.
-     * @param t the node that roots the subtree.
-     * @return the new root of the subtree.
+     * Count the items in the closed range [lo, hi], in time proportional to the height.
+     * @param lo the lower bound, inclusive.
+     * @param hi the upper bound, inclusive.
+     * @return the number of items x with lo <= x <= hi.
      */
-    private BinaryNode<AnyType> remove( AnyType x, BinaryNode<AnyType> t )
+    public int countInRange( AnyType lo, AnyType hi )
     {
-        if( t == null )
-            return t;   // Item not found; do nothing
-
-        int compareResult = x.compareTo( t.element );
+        if( lo.compareTo( hi ) > 0 )
+            return 0;
+        return rank( hi, root, true, false ) - rank( lo, root, false, false );
+    }
 
-        if( compareResult < 0 )
-            t.left = remove( x, t.left );
-        else if( compareResult > 0 )
-            t.right = remove( x, t.right );
-        else if( t.left != null && t.right != null ) // Two children
+    /**
+     * Find how many times an item occurs, in time proportional to the height.
+     * @param x the item to search for.
+     * @return the number of occurrences; 0 if not found, at most 1 unless the tree is a MULTISET.
+     */
+    public int count( AnyType x )
+    {
+        BinaryNode<AnyType> t = root;
+        while( t != null )
         {
-            t.element = findMin( t.right ).element;
-            t.right = remove( t.element, t.right );
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult < 0 )
+                t = t.left;
+            else if( compareResult > 0 )
+                t = t.right;
+            else
+                return t.count;    // Match
         }
-        else
-            t = ( t.left != null ) ? t.left : t.right;
-        return t;
+        return 0;
     }
 
     /**
-     * Internal method to find the smallest item in a subtree.
-     * @param t the node that roots the subtree.
-     * @return node containing the smallest item.
+     * Returns the number of distinct items or of occurrences, in constant time.
+     * @param m what to count.
      */
-    private BinaryNode<AnyType> findMin( BinaryNode<AnyType> t )
+    public int nodeCount( Multiplicity m )
     {
-        if( t == null )
-            return null;
-        else if( t.left == null )
-            return t;
-        return findMin( t.left );
+        return m == Multiplicity.DISTINCT ? size : total( root );
     }
 
     /**
-     * Internal method to find the largest item in a subtree.
-     * @param t the node that roots the subtree.
-     * @return node containing the largest item.
+     * Count the distinct items or occurrences smaller than x, in time proportional to the height.
+     * @param x the item to rank; need not be present.
+     * @param m what to count.
      */
-    private BinaryNode<AnyType> findMax( BinaryNode<AnyType> t )
+    public int rank( AnyType x, Multiplicity m )
     {
-        if( t != null )
-            while( t.right != null )
-                t = t.right;
-
-        return t;
+        return rank( x, root, false, m == Multiplicity.OCCURRENCES );
     }
 
     /**
-     * Internal method to find an item in a subtree.
-     * @param x is item to search for.
-     * @param t the node that roots the subtree.
-     * @return node containing the matched item.
+     * Find the item at position k of the distinct items, or of all occurrences in
+     * ascending order, in time proportional to the height.
+     * @param k the position, 0 for the smallest item.
+     * @param m what to count.
+     * @throws IndexOutOfBoundsException if k is not in [0, nodeCount( m )).
      */
-    private boolean contains( AnyType x, BinaryNode<AnyType> t )
+    public AnyType select( int k, Multiplicity m )
     {
-        if( t == null )
-            return false;
-
-        int compareResult = x.compareTo( t.element );
-
-        if( compareResult < 0 )
-            return contains( x, t.left );
-        else if( compareResult > 0 )
-            return contains( x, t.right );
-        else
-            return true;    // Match
+        if( k < 0 || k >= nodeCount( m ) )
+            throw new IndexOutOfBoundsException( "k: " + k + ", count: " + nodeCount( m ) );
+        return select( k, root, m == Multiplicity.OCCURRENCES ).element;
     }
 
     /**
-     * Internal method to print a subtree in sorted order.
-     * @param t the node that roots the subtree.
+     * Count the distinct items or occurrences in the closed range [lo, hi], in time
+     * proportional to the height.
+     * @param lo the lower bound, inclusive.
+     * @param hi the upper bound, inclusive.
+     * @param m what to count.
      */
-    private void printTree( BinaryNode<AnyType> t )
+    public int countInRange( AnyType lo, AnyType hi, Multiplicity m )
     {
-        if( t != null )
-        {
-            printTree( t.left );
-            System.out.println( t.element );
-            printTree( t.right );
-        }
+        if( lo.compareTo( hi ) > 0 )
+            return 0;
+        boolean occurrences = m == Multiplicity.OCCURRENCES;
+        return rank( hi, root, true, occurrences ) - rank( lo, root, false, occurrences );
     }
 
     /**
-     * Internal method to compute height of a subtree.
-     * @param t the node that roots the subtree.
+     * Obtains a lazy in-order view of the distinct items, or of every occurrence,
+     * each item repeated as many times as it occurs. Its iterators support remove,
+     * which takes away one occurrence, and fail fast like iterator( ).
+     * @param m what to visit.
      */
-    private int height( BinaryNode<AnyType> t )
+    public Iterable<AnyType> items( Multiplicity m )
     {
-        if( t == null )
-            return -1;
-        else
-            return 1 + Math.max( height( t.left ), height( t.right ) );
+        boolean occurrences = m == Multiplicity.OCCURRENCES;
+        return ( ) -> new TreeIterator( null, false, null, false, occurrences );
     }
 
     /**
-     * Internal method to recursively traverses the tree and returns the count of nodes.
-     * @param t the node that roots the subtree.
+     * Find the largest item less than or equal to x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
      */
-    private int nodeCount( BinaryNode<AnyType> t )
+    public AnyType floor( AnyType x )
     {
-        int count = 0;
-        if(t == null) return count;
-        return 1 + nodeCount(t.left) + nodeCount(t.right);
+        return nearest( x, root, true, true );
     }
 
     /**
-     * Internal method to check whether a tree is full or not. Returns true if the tree is full.  A full tree has every node
-     as either a leaf or a parent with two children.
-     * @param t the node that roots the subtree.
+     * Find the smallest item greater than or equal to x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
      */
-    private boolean isFull( BinaryNode<AnyType> t )
+    public AnyType ceiling( AnyType x )
     {
-        if(t == null || (t.left == null && t.right == null)) return true;
-        if(t.left != null && t.right != null) {
-            return isFull(t.left) && isFull(t.right);
-        }
-        return false;
+        return nearest( x, root, false, true );
     }
 
     /**
-     * Internal method to compare the structure of current tree to another tree and returns
-     true if they match.
-     * @param t the node that roots the subtree of current tree.
-     * @param t2 the node that roots the subtree of the other tree comparing to.
+     * Find the largest item strictly less than x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
      */
-    private boolean compareStructure( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
+    public AnyType lower( AnyType x )
     {
-        if(t == null && t2 == null) return true;
-        if(t == null || t2 == null) return false;
-        return compareStructure(t.left, t2.left) && compareStructure(t.right, t2.right);
+        return nearest( x, root, true, false );
     }
 
     /**
-     * Internal method to compares the current tree to another tree and returns true
-     if they are identical.
-     * @param t the node that roots the subtree of current tree.
-     * @param t2 the node that roots the subtree of the other tree comparing to.
+     * Find the smallest item strictly greater than x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
      */
-    private boolean equals( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
+    public AnyType higher( AnyType x )
     {
-        if(t == null && t2 == null) return true;
-        if(t == null || t2 == null || t.element.compareTo(t2.element) != 0) return false;
-        return compareStructure(t.left, t2.left) && compareStructure(t.right, t2.right);
+        return nearest( x, root, false, false );
     }
 
     /**
-     * Internal method to creates and returns a new tree that is a copy of the original tree.
-     * @param t the node that roots the subtree of current tree.
+     * Obtains a lazy view of the items between lo and hi. Iterating it skips
+     * subtrees outside the range, so a scan costs O(height + k) for k items.
+     * @param lo the lower bound.
+     * @param loInclusive true if lo itself is in range.
+     * @param hi the upper bound.
+     * @param hiInclusive true if hi itself is in range.
+     * @throws IllegalArgumentException if lo is greater than hi.
+     */
+    public Iterable<AnyType> subSet( AnyType lo, boolean loInclusive, AnyType hi, boolean hiInclusive )
+    {
+        if( lo.compareTo( hi ) > 0 )
+            throw new IllegalArgumentException( "lo > hi" );
+        return ( ) -> new TreeIterator( lo, loInclusive, hi, hiInclusive );
+    }
+
+    /**
+     * Obtains a lazy view of the items below hi.
+     * @param hi the upper bound.
+     * @param inclusive true if hi itself is in range.
+     */
+    public Iterable<AnyType> headSet( AnyType hi, boolean inclusive )
+    {
+        return ( ) -> new TreeIterator( null, false, hi, inclusive );
+    }
+
+    /**
+     * Obtains a lazy view of the items above lo.
+     * @param lo the lower bound.
+     * @param inclusive true if lo itself is in range.
+     */
+    public Iterable<AnyType> tailSet( AnyType lo, boolean inclusive )
+    {
+        return ( ) -> new TreeIterator( lo, inclusive, null, false );
+    }
+
+    /**
+     *  Compares the structure of current tree to another tree and returns
+     true if they match.
+     * @param t, the other tree to compare to
+     */
+    public boolean compareStructure(BinarySearchTree<AnyType> t)
+    {
+        return compareStructure(root, t.root);
+    }
+
+    /**
+     *  Compares the current tree to another tree and returns true
+     if they are identical.
+     * @param t, the other tree to compare to
+     */
+    public boolean equals(BinarySearchTree<AnyType> t)
+    {
+        return equals(root, t.root);
+    }
+
+    /**
+     *  Creates and returns a new tree that is a copy of the original tree.
+     *  A persistent tree shares its nodes with the copy, in constant time; the
+     *  copy is an immutable version that may be handed to other threads and read
+     *  without locking while this tree keeps changing.
+     */
+    public BinarySearchTree<AnyType> copy()
+    {
+        BinarySearchTree<AnyType> res = emptyCopy( );
+        res.root = persistent ? root : copy(root, res.root);
+        res.size = size;
+        return res;
+    }
+
+    /**
+     * Returns an immutable copy of the distinct items laid out in one array in
+     * Eytzinger order, which answers lookups faster than the node tree. Later
+     * changes to this tree do not affect it.
+     */
+    public FrozenBinarySearchTree<AnyType> freeze( )
+    {
+        Object[ ] sorted = new Object[ size ];
+        int i = 0;
+        for( AnyType x : this )
+            sorted[ i++ ] = x;
+        return new FrozenBinarySearchTree<>( sorted );
+    }
+
+    /**
+     *  Creates and returns a new tree that is a mirror of the original tree.
+     */
+    public BinarySearchTree<AnyType> mirror()
+    {
+        BinarySearchTree<AnyType> res = emptyCopy( );
+        res.root = mirror(root, res.root);
+        res.size = size;
+        return res;
+    }
+
+    /**
+     *  Returns true if the tree is a mirror of the passed tree.
+     */
+    public boolean isMirror(BinarySearchTree<AnyType> t2)
+    {
+        return isMirror(root, t2.root);
+    }
+
+    /**
+     *  Performs a single right rotation on the node having the passed value, in
+     *  a copy of the tree. This tree is not changed.
+     */
+    public BinarySearchTree<AnyType> rotateRight(AnyType val)
+    {
+        BinarySearchTree<AnyType> t = unbalancedCopy();
+        t.root = t.rotateRight(t.root, val);
+        return t;
+    }
+
+    /**
+     *  Performs a single left rotation on the node having the passed value, in
+     *  a copy of the tree. This tree is not changed.
+     */
+    public BinarySearchTree<AnyType> rotateLeft(AnyType val)
+    {
+        BinarySearchTree<AnyType> t = unbalancedCopy();
+        t.root = t.rotateLeft(t.root, val);
+        return t;
+    }
+
+    /**
+     * Internal method to copy the tree for a rotation, unbalanced so that
+     * later updates do not undo it. A persistent tree shares its nodes.
+     */
+    private BinarySearchTree<AnyType> unbalancedCopy()
+    {
+        BinarySearchTree<AnyType> res = new BinarySearchTree<AnyType>(Balance.NONE, features);
+        res.root = persistent ? root : copy(root, res.root);
+        res.size = size;
+        return res;
+    }
+
+    /**
+     * Print the tree level-by-level.
+     */
+    public List<List<AnyType>> printLevels( )
+    {
+        List<List<AnyType>> levels = new ArrayList<>();
+        if( isEmpty( ) ) {
+            levels.add(new ArrayList<AnyType>());
+            System.out.println( "Empty tree" );
+        }
+        else {
+            printLevels( root, levels, 0 );
+            System.out.println("Tree print level by level is: ");
+            for(List<AnyType> list : levels) {
+                System.out.println();
+                for(AnyType val : list) {
+                    System.out.print(val + " ");
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Rebalance the tree in place, without allocating nodes, so that its height
+     * becomes floor(log2(size)). Uses the Day-Stout-Warren method: right rotations
+     * flatten the tree into a sorted chain, then rounds of left rotations fold it
+     * back into a complete tree.
+     * A persistent tree cannot rotate shared nodes, so it is rebuilt from new nodes instead.
+     */
+    public void rebuild( )
+    {
+        if( persistent )
+        {
+            List<BinaryNode<AnyType>> nodes = new ArrayList<>( size );
+            Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>( );
+            for( pushLeft( stack, root ); !stack.isEmpty( ); )
+            {
+                BinaryNode<AnyType> t = stack.pop( );
+                nodes.add( t );
+                pushLeft( stack, t.right );
+            }
+            root = copyBalanced( nodes, 0, size - 1 );
+            modCount++;
+            return;
+        }
+
+        BinaryNode<AnyType> pseudoRoot = new BinaryNode<>( null, null, root );
+
+        // Flatten into a chain of right children
+        BinaryNode<AnyType> tail = pseudoRoot;
+        for( BinaryNode<AnyType> rest = tail.right; rest != null; )
+        {
+            if( rest.left != null )
+            {
+                rest = rotateRight( rest );
+                tail.right = rest;
+            }
+            else
+            {
+                tail = rest;
+                rest = rest.right;
+            }
+        }
+
+        // Fold the chain; the first pass places the leaves of the incomplete bottom level
+        int n = size;
+        int complete = Integer.highestOneBit( n + 1 ) - 1;
+        compress( pseudoRoot, n - complete );
+        for( n = complete; n > 1; )
+        {
+            n /= 2;
+            compress( pseudoRoot, n );
+        }
+
+        root = pseudoRoot.right;
+        refresh( root );
+        modCount++;
+    }
+
+    /**
+     * Obtains an in-order iterator over the items. The iterator supports remove
+     * and fails fast if the tree is otherwise modified while it is in use.
+     * @return an iterator that yields the items in ascending order.
+     */
+    public Iterator<AnyType> iterator( )
+    {
+        return new TreeIterator( );
+    }
+
+    /**
+     * Obtains a spliterator over the items in ascending order. It knows the exact
+     * size of every part and splits at the middle item, found by subtree sizes,
+     * so even a degenerate tree splits into halves.
+     * @return a SORTED, DISTINCT and SIZED spliterator.
+     */
+    public Spliterator<AnyType> spliterator( )
+    {
+        return new TreeSpliterator( );
+    }
+
+    /**
+     * Obtains a sequential stream of the items in ascending order.
+     */
+    public Stream<AnyType> stream( )
+    {
+        return StreamSupport.stream( spliterator( ), false );
+    }
+
+    /**
+     * Obtains a parallel stream of the items in ascending order.
+     */
+    public Stream<AnyType> parallelStream( )
+    {
+        return StreamSupport.stream( spliterator( ), true );
+    }
+
+    /**
+     * Internal method to drain sorted items into a balanced tree.
+     * @param items an iterator over the items, sorted ascending.
+     * @param expectedSize a hint for the number of items.
+     * @param balance the strategy of the new tree.
+     */
+    private static <AnyType extends Comparable<? super AnyType>> BinarySearchTree<AnyType> bulkLoad(
+            Iterator<? extends AnyType> items, int expectedSize, Balance balance )
+    {
+        ArrayList<AnyType> sorted = new ArrayList<>( expectedSize );
+        while( items.hasNext( ) )
+        {
+            AnyType x = items.next( );
+            if( !sorted.isEmpty( ) )
+            {
+                int compareResult = x.compareTo( sorted.get( sorted.size( ) - 1 ) );
+                if( compareResult < 0 )
+                    throw new IllegalArgumentException( "Items are not sorted: " + x );
+                if( compareResult == 0 )
+                    continue;   // Duplicate; do nothing
+            }
+            sorted.add( x );
+        }
+
+        BinarySearchTree<AnyType> res = new BinarySearchTree<>( balance );
+        res.root = res.build( sorted, 0, sorted.size( ) - 1 );
+        res.size = sorted.size( );
+        return res;
+    }
+
+    /**
+     * Internal method to build a perfectly balanced subtree from a sorted range.
+     * Recursion depth is logarithmic in the range length.
+     * @param sorted the items in ascending order.
+     * @param low the index of the first item of the range.
+     * @param high the index of the last item of the range.
+     * @return the root of the new subtree.
+     */
+    private BinaryNode<AnyType> build( List<? extends AnyType> sorted, int low, int high )
+    {
+        if( low > high )
+            return null;
+        int mid = ( low + high ) >>> 1;
+        BinaryNode<AnyType> t = new BinaryNode<>( sorted.get( mid ),
+                build( sorted, low, mid - 1 ), build( sorted, mid + 1, high ) );
+        update( t );
+        return t;
+    }
+
+    /**
+     * Internal method to build a perfectly balanced subtree of new nodes holding
+     * the elements and counts of a range of nodes.
+     * @param nodes the nodes in ascending order; they are not changed.
+     * @param low the index of the first node of the range.
+     * @param high the index of the last node of the range.
+     * @return the root of the new subtree.
+     */
+    private BinaryNode<AnyType> copyBalanced( List<BinaryNode<AnyType>> nodes, int low, int high )
+    {
+        if( low > high )
+            return null;
+        int mid = ( low + high ) >>> 1;
+        BinaryNode<AnyType> t = new BinaryNode<>( nodes.get( mid ).element,
+                copyBalanced( nodes, low, mid - 1 ), copyBalanced( nodes, mid + 1, high ) );
+        t.count = nodes.get( mid ).count;
+        update( t );
+        return t;
+    }
+
+    /**
+     * Internal method to build a perfectly balanced subtree from the next n items
+     * of an ascending sequence, consuming them in order.
+     * @param items the items; exactly n are taken.
+     * @param n the number of items in the subtree.
+     * @return the root of the new subtree.
+     */
+    private BinaryNode<AnyType> build( Iterator<? extends AnyType> items, int n )
+    {
+        if( n == 0 )
+            return null;
+        int leftCount = ( n - 1 ) / 2;
+        BinaryNode<AnyType> left = build( items, leftCount );
+        BinaryNode<AnyType> t = new BinaryNode<>( items.next( ), left, null );
+        t.right = build( items, n - 1 - leftCount );
+        update( t );
+        return t;
+    }
+
+    /**
+     * Internal method to left-rotate every other node along a right chain.
+     * @param t the node whose right child starts the chain.
+     * @param count the number of rotations.
+     */
+    private void compress( BinaryNode<AnyType> t, int count )
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            t.right = rotateLeft( t.right );
+            t = t.right;
+        }
+    }
+
+    /**
+     * Internal method to recompute the height and size of every node of a subtree,
+     * children before parents.
+     * @param t the node that roots the subtree.
+     */
+    private void refresh( BinaryNode<AnyType> t )
+    {
+        Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>();
+        BinaryNode<AnyType> last = null;
+        while( t != null || !stack.isEmpty( ) )
+        {
+            if( t != null )
+            {
+                stack.push( t );
+                t = t.left;
+            }
+            else
+            {
+                BinaryNode<AnyType> top = stack.peek( );
+                if( top.right != null && top.right != last )
+                    t = top.right;
+                else
+                {
+                    update( top );
+                    last = stack.pop( );
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to insert into a subtree.
+     * @param x the item to insert.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    private BinaryNode<AnyType> insert( AnyType x, BinaryNode<AnyType> t )
+    {
+        int depth = 0;
+        BinaryNode<AnyType> p = t;
+        while( p != null )
+        {
+            int compareResult = x.compareTo( p.element );
+
+            if( compareResult == 0 )
+            {
+                probes = depth + 1;
+                if( multiset )
+                {
+                    p = mutable( p );
+                    p.count++;
+                    update( p );
+                    modCount++;
+                    return splaying ? splay( depth, p ) : fixPath( depth, p );
+                }
+                duplicate = p.element;
+                if( splaying )
+                    return splay( depth, p );
+                clearPath( depth );
+                return t;  // Duplicate; do nothing
+            }
+            push( depth++, p, compareResult < 0 );
+            p = compareResult < 0 ? p.left : p.right;
+        }
+        probes = depth;
+        size++;
+        modCount++;
+        BinaryNode<AnyType> n = new BinaryNode<>( x, null, null );
+        return splaying ? splay( depth, n ) : fixPath( depth, n );
+    }
+
+    /**
+     * Internal method to remove from a subtree.
+     * @param x the item to remove.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    private BinaryNode<AnyType> remove( AnyType x, BinaryNode<AnyType> t )
+    {
+        int depth = 0;
+        BinaryNode<AnyType> p = t;
+        while( p != null )
+        {
+            int compareResult = x.compareTo( p.element );
+
+            if( compareResult == 0 )
+                break;
+            push( depth++, p, compareResult < 0 );
+            p = compareResult < 0 ? p.left : p.right;
+        }
+        probes = p == null ? depth : depth + 1;
+        if( p == null )
+        {
+            if( splaying )
+                return splayParent( depth, null );
+            clearPath( depth );
+            return t;   // Item not found; do nothing
+        }
+        if( p.count > 1 )   // Only in a MULTISET tree; one occurrence goes
+        {
+            p = mutable( p );
+            p.count--;
+            update( p );
+            modCount++;
+            return splaying ? splay( depth, p ) : fixPath( depth, p );
+        }
+
+        if( p.left != null && p.right != null ) // Two children
+        {
+            // Replace with the smallest item of the right subtree, then unlink that node
+            int target = depth;
+            push( depth++, p, false );
+            p = p.right;
+            while( p.left != null )
+            {
+                push( depth++, p, true );
+                p = p.left;
+            }
+            size--;
+            modCount++;
+            if( splaying )
+            {
+                path[ target ].element = p.element;
+                path[ target ].count = p.count;
+                return splayParent( depth, p.right );
+            }
+            return fixPath( depth, p.right, target, p );
+        }
+        size--;
+        modCount++;
+        BinaryNode<AnyType> child = ( p.left != null ) ? p.left : p.right;
+        return splaying ? splayParent( depth, child ) : fixPath( depth, child );
+    }
+
+    /**
+     * Internal method to sort a batch of items and drop its duplicates.
+     * @param items the batch.
+     * @return the distinct items in ascending order.
+     */
+    private List<AnyType> sortedBatch( Collection<? extends AnyType> items )
+    {
+        List<AnyType> batch = new ArrayList<>( items );
+        batch.sort( null );
+        int kept = 0;
+        for( int i = 0; i < batch.size( ); i++ )
+            if( kept == 0 || batch.get( i ).compareTo( batch.get( kept - 1 ) ) != 0 )
+                batch.set( kept++, batch.get( i ) );
+        return batch.subList( 0, kept );
+    }
+
+    /**
+     * Internal method to merge a sorted batch into a subtree, top-down. Each node
+     * splits its part of the batch around its element and passes the two halves
+     * to its children; the node is then joined back over the merged children.
+     * A part that reaches an empty subtree is built into a balanced subtree at once.
+     * Uses an explicit stack, since an unbalanced tree may be arbitrarily deep.
+     * @param t the node that roots the subtree.
+     * @param batch the items, sorted ascending without duplicates.
+     * @param insert true to insert the items, false to remove them.
+     * @return the new root of the subtree.
+     */
+    private BinaryNode<AnyType> merge( BinaryNode<AnyType> t, List<AnyType> batch, boolean insert )
+    {
+        int oldSize = size;
+        Deque<MergeStep<AnyType>> steps = new ArrayDeque<>();
+        List<BinaryNode<AnyType>> merged = new ArrayList<>();   // Results of finished steps, may hold null
+        steps.push( new MergeStep<>( t, 0, batch.size( ) - 1 ) );
+        while( !steps.isEmpty( ) )
+        {
+            MergeStep<AnyType> step = steps.peek( );
+            if( step.split < 0 && ( step.low > step.high || step.node == null ) )
+            {
+                steps.pop( );
+                if( step.node != null || !insert )
+                    merged.add( step.node );  // Nothing to merge, or nothing to remove
+                else
+                {
+                    merged.add( build( batch, step.low, step.high ) );
+                    size += step.high - step.low + 1;
+                }
+            }
+            else if( step.split < 0 )
+            {
+                // First visit: split the batch around the element and merge the children
+                step.split = search( batch, step.low, step.high, step.node.element );
+                step.found = step.split <= step.high && batch.get( step.split ).compareTo( step.node.element ) == 0;
+                steps.push( new MergeStep<>( step.node.right, step.found ? step.split + 1 : step.split, step.high ) );
+                steps.push( new MergeStep<>( step.node.left, step.low, step.split - 1 ) );
+            }
+            else
+            {
+                steps.pop( );
+                BinaryNode<AnyType> right = merged.remove( merged.size( ) - 1 );
+                BinaryNode<AnyType> left = merged.remove( merged.size( ) - 1 );
+                if( step.found && !insert )
+                {
+                    merged.add( join( left, right ) );
+                    size--;
+                }
+                else if( size( left ) + size( right ) + 1 == step.node.size )
+                    merged.add( step.node );  // Same size, so nothing changed below; don't touch it
+                else
+                    merged.add( join( left, mutable( step.node ), right ) );
+            }
+        }
+        if( size != oldSize )
+            modCount++;
+        return merged.get( 0 );
+    }
+
+    /**
+     * Internal method to find where x belongs in a sorted range.
+     * @return the position of the first item of batch[low..high] not smaller than x, or high + 1.
+     */
+    private int search( List<AnyType> batch, int low, int high, AnyType x )
+    {
+        high++;
+        while( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if( batch.get( mid ).compareTo( x ) < 0 )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Internal method to join two subtrees around a middle node, where the items of
+     * l are smaller than k's and the items of r larger. In AVL mode the subtrees may
+     * differ in height by any amount: k is hung on the inner spine of the taller one,
+     * level with the shorter one, and the spine is rebalanced on the way back up.
+     * @param l the left subtree.
+     * @param k the middle node, already mutable; its children are replaced.
+     * @param r the right subtree.
+     * @return the root of the joined subtree.
+     */
+    private BinaryNode<AnyType> join( BinaryNode<AnyType> l, BinaryNode<AnyType> k, BinaryNode<AnyType> r )
+    {
+        int depth = 0;
+        if( balance == Balance.AVL )
+        {
+            for( ; height( l ) - height( r ) > ALLOWED_IMBALANCE; l = l.right )
+                push( depth++, l, false );
+            for( ; height( r ) - height( l ) > ALLOWED_IMBALANCE; r = r.left )
+                push( depth++, r, true );
+        }
+        k.left = l;
+        k.right = r;
+        update( k );
+        return fixPath( depth, k );
+    }
+
+    /**
+     * Internal method to join two subtrees, where the items of l are smaller than
+     * the items of r. The smallest node of r becomes the middle node.
+     * @param l the left subtree.
+     * @param r the right subtree.
+     * @return the root of the joined subtree.
+     */
+    private BinaryNode<AnyType> join( BinaryNode<AnyType> l, BinaryNode<AnyType> r )
+    {
+        if( l == null )
+            return r;
+        if( r == null )
+            return l;
+        int depth = 0;
+        BinaryNode<AnyType> min = r;
+        for( ; min.left != null; min = min.left )
+            push( depth++, min, true );
+        r = fixPath( depth, min.right );
+        return join( l, mutable( min ), r );
+    }
+
+    /**
+     * Internal method to split a subtree around x. Nodes passed on the way down
+     * are joined back, bottom-up, into the part they belong to; in AVL mode the
+     * joins telescope to time proportional to the height.
+     * @param t the node that roots the subtree.
+     * @param x the item to split at.
+     * @return the items smaller than x, the node holding x if any, and the items larger than x.
+     */
+    private Split<AnyType> split( BinaryNode<AnyType> t, AnyType x )
+    {
+        Split<AnyType> s = new Split<>( );
+        Deque<BinaryNode<AnyType>> descent = new ArrayDeque<>();
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult == 0 )
+            {
+                s.left = t.left;
+                s.right = t.right;
+                s.match = mutable( t );
+                break;
+            }
+            descent.push( t );
+            t = compareResult < 0 ? t.left : t.right;
+        }
+        while( !descent.isEmpty( ) )
+        {
+            t = descent.pop( );
+            if( x.compareTo( t.element ) < 0 )
+                s.right = join( s.right, mutable( t ), t.right );
+            else
+                s.left = join( t.left, mutable( t ), s.left );
+        }
+        return s;
+    }
+
+    /**
+     * Internal method to apply a set operation with another tree to this tree.
+     * @param op the operation.
+     * @param other the other tree; it is not changed.
+     */
+    private void combine( SetOperation op, BinarySearchTree<AnyType> other )
+    {
+        if( multiset || other.multiset )
+            throw new UnsupportedOperationException( "Set operations are not defined for MULTISET trees" );
+        if( other == this )
+        {
+            if( op == SetOperation.DIFFERENCE )
+                makeEmpty( );
+            return;
+        }
+        // The recursion follows the other tree, so it must be balanced; a
+        // private balanced copy may then be shared outright
+        boolean owned = other.balance != Balance.AVL;
+        BinaryNode<AnyType> t2 = owned ? build( other.stream( ).collect( Collectors.toList( ) ), 0, other.size - 1 ) : other.root;
+        root = combine( op, root, t2, owned || persistent && other.persistent );
+        size = size( root );
+        modCount++;
+        if( cache != null )
+            cache.clear( );
+    }
+
+    /**
+     * Internal method to apply a set operation to two subtrees: this tree's
+     * subtree is split around the other's root, the halves are combined with the
+     * other's children, and the results are joined back. Large halves are
+     * combined in parallel, each task working in a tree object of its own so
+     * that their scratch paths are separate.
+     * @param op the operation.
+     * @param t1 the subtree of this tree; its nodes may be reused.
+     * @param t2 the subtree of the other tree; its nodes are never changed.
+     * @param share true if subtrees of t2 may become part of this tree as they are.
+     * @return the root of the combined subtree.
+     */
+    private BinaryNode<AnyType> combine( SetOperation op, BinaryNode<AnyType> t1, BinaryNode<AnyType> t2, boolean share )
+    {
+        if( t1 == null || t2 == null )
+        {
+            if( t2 == null )
+                return op == SetOperation.INTERSECT ? null : t1;
+            if( op != SetOperation.UNION )
+                return null;
+            return share ? t2 : duplicate( t2, null, false );
+        }
+
+        boolean parallel = Math.min( size( t1 ), size( t2 ) ) >= parallelThreshold;
+        Split<AnyType> s = split( t1, t2.element );
+        BinaryNode<AnyType> left;
+        BinaryNode<AnyType> right;
+        if( parallel )
+        {
+            SetTask task = emptyCopy( ).new SetTask( op, s.left, t2.left, share );
+            task.fork( );
+            right = combine( op, s.right, t2.right, share );
+            left = task.join( );
+        }
+        else
+        {
+            left = combine( op, s.left, t2.left, share );
+            right = combine( op, s.right, t2.right, share );
+        }
+
+        if( op == SetOperation.UNION )
+            return join( left, s.match != null ? s.match : new BinaryNode<>( t2.element ), right );
+        if( op == SetOperation.INTERSECT && s.match != null )
+            return join( left, s.match, right );
+        return join( left, right );
+    }
+
+    /**
+     * Internal method to create an empty tree with the balance, features and
+     * settings of this one.
+     */
+    private BinarySearchTree<AnyType> emptyCopy( )
+    {
+        BinarySearchTree<AnyType> res = new BinarySearchTree<>( balance, features );
+        res.parallelThreshold = parallelThreshold;
+        return res;
+    }
+
+    /**
+     * Internal method to decide whether a whole-tree operation should fork at a node.
+     * @return true if both subtrees of t reach the parallel threshold.
+     */
+    private boolean forks( BinaryNode<AnyType> t )
+    {
+        return t != null && Math.min( size( t.left ), size( t.right ) ) >= parallelThreshold;
+    }
+
+    /**
+     * Internal method to record a step of a root-to-node descent.
+     * @param depth the position of the step on the path.
+     * @param t the node passed through.
+     * @param wentLeft true if the descent continued into t.left.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void push( int depth, BinaryNode<AnyType> t, boolean wentLeft )
+    {
+        if( path == null || depth == path.length )
+        {
+            int capacity = path == null ? 32 : path.length * 2;
+            path = path == null ? (BinaryNode<AnyType>[ ]) new BinaryNode<?>[ capacity ] : Arrays.copyOf( path, capacity );
+            pathLeft = pathLeft == null ? new boolean[ capacity ] : Arrays.copyOf( pathLeft, capacity );
+        }
+        path[ depth ] = t;
+        pathLeft[ depth ] = wentLeft;
+    }
+
+    /**
+     * Internal method to walk a recorded descent back up, hanging the new child
+     * under each step and rebalancing it.
+     * @param depth the number of recorded steps.
+     * @param child the new subtree below the last step.
+     * @return the new root of the whole path.
+     */
+    private BinaryNode<AnyType> fixPath( int depth, BinaryNode<AnyType> child )
+    {
+        return fixPath( depth, child, -1, null );
+    }
+
+    /**
+     * Internal method to walk a recorded descent back up like fixPath( depth, child ),
+     * also giving one step the element and count of another node.
+     * @param depth the number of recorded steps.
+     * @param child the new subtree below the last step.
+     * @param target the position of the step whose element is replaced, or -1.
+     * @param replacement the node whose element and count that step takes.
+     * @return the new root of the whole path.
+     */
+    private BinaryNode<AnyType> fixPath( int depth, BinaryNode<AnyType> child, int target, BinaryNode<AnyType> replacement )
+    {
+        while( depth > 0 )
+        {
+            BinaryNode<AnyType> t = mutable( path[ --depth ] );
+            path[ depth ] = null;   // Don't keep removed nodes reachable
+            if( depth == target )
+            {
+                t.element = replacement.element;
+                t.count = replacement.count;
+            }
+            if( pathLeft[ depth ] )
+                t.left = child;
+            else
+                t.right = child;
+            child = balance( t );
+        }
+        return child;
+    }
+
+    /**
+     * Internal method to find the smallest item in a subtree.
+     * @param t the node that roots the subtree.
+     * @return node containing the smallest item.
+     */
+    private BinaryNode<AnyType> findMin( BinaryNode<AnyType> t )
+    {
+        if( t != null )
+            while( t.left != null )
+                t = t.left;
+
+        return t;
+    }
+
+    /**
+     * Internal method to find the largest item in a subtree.
+     * @param t the node that roots the subtree.
+     * @return node containing the largest item.
+     */
+    private BinaryNode<AnyType> findMax( BinaryNode<AnyType> t )
+    {
+        if( t != null )
+            while( t.right != null )
+                t = t.right;
+
+        return t;
+    }
+
+    /**
+     * Internal method to answer a lookup from the cache, or else from the tree,
+     * caching the answer. Sets probes to the comparisons made, 0 on a hit.
+     * @return the item equal to x, or ABSENT.
+     */
+    private Object lookup( AnyType x )
+    {
+        Object found = cache.get( x );
+        if( metrics != null )
+            metrics.recordCacheLookup( found != null );
+        if( found != null )
+        {
+            probes = 0;
+            return found;
+        }
+        AnyType t = locate( x );
+        found = t == null ? ABSENT : t;
+        cache.put( x, found );
+        return found;
+    }
+
+    /**
+     * Internal method to find the item equal to x in one descent, splaying
+     * if the tree does. Sets probes to the comparisons made.
+     * @return the item in the tree, or null if not found.
+     */
+    private AnyType locate( AnyType x )
+    {
+        if( splaying )
+        {
+            BinaryNode<AnyType> t = access( x );
+            return t == null ? null : t.element;
+        }
+        int compared = 0;
+        BinaryNode<AnyType> t = root;
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+            compared++;
+
+            if( compareResult < 0 )
+                t = t.left;
+            else if( compareResult > 0 )
+                t = t.right;
+            else
+                break;      // Match
+        }
+        probes = compared;
+        return t == null ? null : t.element;
+    }
+
+    /**
+     * Internal method to find an item in a subtree.
+     * @param x is item to search for.
+     * @param t the node that roots the subtree.
+     * @return node containing the matched item.
+     */
+    private boolean contains( AnyType x, BinaryNode<AnyType> t )
+    {
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult < 0 )
+                t = t.left;
+            else if( compareResult > 0 )
+                t = t.right;
+            else
+                return true;    // Match
+        }
+        return false;
+    }
+
+    /**
+     * Internal method to find an item in a subtree, counting the comparisons.
+     * @param x is item to search for.
+     * @param t the node that roots the subtree.
+     * @return the number of comparisons made if found, or its bitwise complement if not.
+     */
+    private int probe( AnyType x, BinaryNode<AnyType> t )
+    {
+        int compared = 0;
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+            compared++;
+
+            if( compareResult < 0 )
+                t = t.left;
+            else if( compareResult > 0 )
+                t = t.right;
+            else
+                return compared;    // Match
+        }
+        return ~compared;
+    }
+
+    /**
+     * Internal method to count the items of a subtree smaller than x.
+     * @param x the item to rank.
+     * @param t the node that roots the subtree.
+     * @param inclusive true to also count an item equal to x.
+     * @param occurrences true to count occurrences rather than distinct items.
+     */
+    private int rank( AnyType x, BinaryNode<AnyType> t, boolean inclusive, boolean occurrences )
+    {
+        int rank = 0;
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult < 0 )
+                t = t.left;
+            else if( compareResult > 0 )
+            {
+                rank += weight( t.left, occurrences ) + ( occurrences ? t.count : 1 );
+                t = t.right;
+            }
+            else
+                return rank + weight( t.left, occurrences ) + ( !inclusive ? 0 : occurrences ? t.count : 1 );
+        }
+        return rank;
+    }
+
+    /**
+     * Internal method to find the item of a subtree closest to x on one side.
+     * @param x the item to search for.
+     * @param t the node that roots the subtree.
+     * @param below true for the largest item under x, false for the smallest item over x.
+     * @param inclusive true to accept an item equal to x.
+     * @return the matching item or null if there is none.
+     */
+    private AnyType nearest( AnyType x, BinaryNode<AnyType> t, boolean below, boolean inclusive )
+    {
+        AnyType best = null;
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult == 0 && inclusive )
+                return t.element;
+            if( below ? compareResult > 0 : compareResult < 0 )
+            {
+                best = t.element;   // Candidate; look for a closer one on the inner side
+                t = below ? t.right : t.left;
+            }
+            else
+                t = below ? t.left : t.right;
+        }
+        return best;
+    }
+
+    /**
+     * Internal method to find the node of a given rank in a subtree.
+     * @param k the rank within the subtree; must be in [0, weight( t, occurrences )).
+     * @param t the node that roots the subtree.
+     * @param occurrences true to count occurrences rather than distinct items.
+     */
+    private BinaryNode<AnyType> select( int k, BinaryNode<AnyType> t, boolean occurrences )
+    {
+        while( true )
+        {
+            int leftSize = weight( t.left, occurrences );
+            int own = occurrences ? t.count : 1;
+
+            if( k < leftSize )
+                t = t.left;
+            else if( k >= leftSize + own )
+            {
+                k -= leftSize + own;
+                t = t.right;
+            }
+            else
+                return t;
+        }
+    }
+
+    /**
+     * Internal method to print a subtree in sorted order.
+     * @param t the node that roots the subtree.
+     */
+    private void printTree( BinaryNode<AnyType> t )
+    {
+        Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>();
+        while( t != null || !stack.isEmpty( ) )
+        {
+            if( t != null )
+            {
+                stack.push( t );
+                t = t.left;
+            }
+            else
+            {
+                t = stack.pop( );
+                System.out.println( t.element );
+                t = t.right;
+            }
+        }
+    }
+
+    /**
+     * Internal method to compute height of a subtree.
+     * @param t the node that roots the subtree.
+     */
+    private int height( BinaryNode<AnyType> t )
+    {
+        return t == null ? -1 : t.height;
+    }
+
+    /**
+     * Internal method to restore the height and, in AVL mode, the balance of a subtree
+     * whose children are already balanced.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    private BinaryNode<AnyType> balance( BinaryNode<AnyType> t )
+    {
+        if( t == null )
+            return t;
+
+        if( balance == Balance.AVL )
+        {
+            if( height( t.left ) - height( t.right ) > ALLOWED_IMBALANCE )
+            {
+                if( height( t.left.left ) < height( t.left.right ) )
+                    t.left = rotateLeft( mutable( t.left ) );
+                return rotateRight( t );
+            }
+            if( height( t.right ) - height( t.left ) > ALLOWED_IMBALANCE )
+            {
+                if( height( t.right.right ) < height( t.right.left ) )
+                    t.right = rotateRight( mutable( t.right ) );
+                return rotateLeft( t );
+            }
+        }
+
+        update( t );
+        return t;
+    }
+
+    /**
+     * Internal method to return the number of nodes in a subtree.
+     * @param t the node that roots the subtree.
+     */
+    private int size( BinaryNode<AnyType> t )
+    {
+        return t == null ? 0 : t.size;
+    }
+
+    /**
+     * Internal method to return the number of occurrences in a subtree.
+     * @param t the node that roots the subtree.
+     */
+    private int total( BinaryNode<AnyType> t )
+    {
+        return t == null ? 0 : t.total;
+    }
+
+    /**
+     * Internal method to return the number of nodes or of occurrences in a subtree.
+     * @param t the node that roots the subtree.
+     * @param occurrences true for occurrences.
+     */
+    private int weight( BinaryNode<AnyType> t, boolean occurrences )
+    {
+        return occurrences ? total( t ) : size( t );
+    }
+
+    /**
+     * Internal method to recompute the cached height, size and total of a node from its children.
+     * @param t the node to refresh.
+     */
+    private void update( BinaryNode<AnyType> t )
+    {
+        t.height = Math.max( height( t.left ), height( t.right ) ) + 1;
+        t.size = size( t.left ) + size( t.right ) + 1;
+        t.total = total( t.left ) + total( t.right ) + t.count;
+    }
+
+    /**
+     * Internal method to traverse the tree and return the count of nodes.
+     * @param t the node that roots the subtree.
+     */
+    private int nodeCount( BinaryNode<AnyType> t )
+    {
+        int count = 0;
+        Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>();
+        if( t != null )
+            stack.push( t );
+        while( !stack.isEmpty( ) )
+        {
+            t = stack.pop( );
+            count++;
+            if( t.left != null ) stack.push( t.left );
+            if( t.right != null ) stack.push( t.right );
+        }
+        return count;
+    }
+
+    /**
+     * Internal method to check whether a tree is full or not. Returns true if the tree is full.  A full tree has every node
+     as either a leaf or a parent with two children.
+     * @param t the node that roots the subtree.
+     */
+    private boolean isFull( BinaryNode<AnyType> t )
+    {
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>();
+        if( t != null )
+            stack.push( t );
+        boolean res = true;
+        while( res && !stack.isEmpty( ) )
+        {
+            t = stack.pop( );
+            if( ( t.left == null ) != ( t.right == null ) ) res = false;
+            else if( t.left != null ) {
+                if( forks( t ) ) {
+                    BinaryNode<AnyType> n = t.left;
+                    tasks.add( ForkJoinTask.adapt( ( ) -> isFull( n ) ).fork( ) );
+                } else
+                    stack.push( t.left );
+                stack.push( t.right );
+            }
+        }
+        return joinAll( tasks, res );
+    }
+
+    /**
+     * Internal method to join the tasks forked by a walk, last forked first,
+     * cancelling the rest once one of them or the walk itself has failed.
+     * @param res the result of the walk.
+     * @return true if the walk and every task succeeded.
+     */
+    private static boolean joinAll( List<ForkJoinTask<Boolean>> tasks, boolean res )
+    {
+        for( int i = tasks.size( ) - 1; i >= 0; i-- )
+        {
+            if( res )
+                res = tasks.get( i ).join( );
+            else
+                tasks.get( i ).cancel( false );
+        }
+        return res;
+    }
+
+    /**
+     * Internal method to compare the structure of current tree to another tree and returns
+     true if they match.
+     * @param t the node that roots the subtree of current tree.
+     * @param t2 the node that roots the subtree of the other tree comparing to.
+     */
+    private boolean compareStructure( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
+    {
+        return matches( t, t2, false, false );
+    }
+
+    /**
+     * Internal method to compares the current tree to another tree and returns true
+     if they are identical.
+     * @param t the node that roots the subtree of current tree.
+     * @param t2 the node that roots the subtree of the other tree comparing to.
+     */
+    private boolean equals( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
+    {
+        return matches( t, t2, true, false );
+    }
+
+    /**
+     * Internal method to walk two trees in lockstep, comparing shape and optionally elements.
+     * @param t the node that roots the subtree of current tree.
+     * @param t2 the node that roots the subtree of the other tree.
+     * @param elements true to also require equal elements.
+     * @param mirrored true to pair each left child with the other tree's right child.
+     */
+    private boolean matches( BinaryNode<AnyType> t, BinaryNode<AnyType> t2, boolean elements, boolean mirrored )
+    {
+        Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>();
+        Deque<BinaryNode<AnyType>> stack2 = new ArrayDeque<>();
+        if(t == null && t2 == null) return true;
+        if(t == null || t2 == null) return false;
+        if( t.size != t2.size ) return false;  // Cannot have the same shape
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        stack.push( t );
+        stack2.push( t2 );
+        boolean res = true;
+        while( res && !stack.isEmpty( ) )
+        {
+            t = stack.pop( );
+            t2 = stack2.pop( );
+            BinaryNode<AnyType> left2 = mirrored ? t2.right : t2.left;
+            BinaryNode<AnyType> right2 = mirrored ? t2.left : t2.right;
+            if( elements && ( t.element.compareTo( t2.element ) != 0 || t.count != t2.count ) )
+                res = false;
+            else if( ( t.left == null ) != ( left2 == null ) || ( t.right == null ) != ( right2 == null ) )
+                res = false;
+            else {
+                if( t.left != null ) {
+                    if( forks( t ) ) {
+                        BinaryNode<AnyType> n = t.left;
+                        tasks.add( ForkJoinTask.adapt( ( ) -> matches( n, left2, elements, mirrored ) ).fork( ) );
+                    } else {
+                        stack.push( t.left );
+                        stack2.push( left2 );
+                    }
+                }
+                if( t.right != null ) {
+                    stack.push( t.right );
+                    stack2.push( right2 );
+                }
+            }
+        }
+        return joinAll( tasks, res );
+    }
+
+    /**
+     * Internal method to creates and returns a new tree that is a copy of the original tree.
+     * @param t the node that roots the subtree of current tree.
      * @param t2 the node that roots the subtree of the copied tree.
      */
     private BinaryNode<AnyType> copy( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
     {
-        if(t == null) return t2;
-        t2 = new BinaryNode<AnyType>(t.element, null, null);
-        t2.left = copy(t.left, t2.left);
-        t2.right = copy(t.right, t2.right);
-        return t2;
+        return duplicate( t, t2, false );
     }
 
     /**
@@ -421,12 +2033,56 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
      * @param t2 the node that roots the subtree of the mirror tree.
      */
     private BinaryNode<AnyType> mirror( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
+    {
+        return duplicate( t, t2, true );
+    }
+
+    /**
+     * Internal method to copy a subtree node by node, optionally swapping children.
+     * @param t the node that roots the subtree of current tree.
+     * @param t2 the subtree returned when t is empty.
+     * @param mirrored true to swap the left and right children of every copied node.
+     */
+    private BinaryNode<AnyType> duplicate( BinaryNode<AnyType> t, BinaryNode<AnyType> t2, boolean mirrored )
     {
         if(t == null) return t2;
-        t2 = new BinaryNode<AnyType>(t.element, null, null);
-        t2.right = mirror(t.left, t2.right);
-        t2.left = mirror(t.right, t2.left);
-        return t2;
+        List<ForkJoinTask<BinaryNode<AnyType>>> tasks = new ArrayList<>();
+        List<BinaryNode<AnyType>> parents = new ArrayList<>();     // The copies awaiting each task's subtree
+        Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>();
+        Deque<BinaryNode<AnyType>> stack2 = new ArrayDeque<>();
+        BinaryNode<AnyType> res = new BinaryNode<>( t );
+        res.left = res.right = null;
+        stack.push( t );
+        stack2.push( res );
+        while( !stack.isEmpty( ) )
+        {
+            t = stack.pop( );
+            t2 = stack2.pop( );
+            if( t.left != null && forks( t ) ) {
+                BinaryNode<AnyType> n = t.left;
+                tasks.add( ForkJoinTask.adapt( ( ) -> duplicate( n, null, mirrored ) ).fork( ) );
+                parents.add( t2 );
+            } else if( t.left != null ) {
+                BinaryNode<AnyType> c = new BinaryNode<>( t.left );
+                c.left = c.right = null;
+                if( mirrored ) t2.right = c; else t2.left = c;
+                stack.push( t.left );
+                stack2.push( c );
+            }
+            if( t.right != null ) {
+                BinaryNode<AnyType> c = new BinaryNode<>( t.right );
+                c.left = c.right = null;
+                if( mirrored ) t2.left = c; else t2.right = c;
+                stack.push( t.right );
+                stack2.push( c );
+            }
+        }
+        for( int i = tasks.size( ) - 1; i >= 0; i-- )
+        {
+            BinaryNode<AnyType> c = tasks.get( i ).join( );
+            if( mirrored ) parents.get( i ).right = c; else parents.get( i ).left = c;
+        }
+        return res;
     }
 
     /**
@@ -435,9 +2091,7 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
      */
     private boolean isMirror( BinaryNode<AnyType> t, BinaryNode<AnyType> t2)
     {
-        if(t == null && t2 == null) return true;
-        if(t == null || t2 == null || t.element.compareTo(t2.element) != 0) return false;
-        return isMirror(t.left, t2.right) && isMirror(t.right, t2.left);
+        return matches( t, t2, true, true );
     }
 
     /**
@@ -447,77 +2101,560 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
      */
     private BinaryNode<AnyType> rotateRight( BinaryNode<AnyType> t, AnyType val)
     {
-        if(t == null) {
+        int depth = find( val, t );
+        BinaryNode<AnyType> p = depth < 0 ? null : depth == 0 ? t : child( depth - 1 );
+        if(p == null) {
+            System.out.println("Node holds passed value is not found. Tree is not changed.");
+        } else if(p.left == null) {
+            System.out.println("Left subtree is null. Can't be rotated. Tree is not changed.");
+        } else {
+            t = relinkPath( depth, rotateRight( mutable( p ) ) );
+            modCount++;
+        }
+        return t;
+    }
+
+    /**
+     * Internal method to performs a single left rotation on the node having the passed value.
+     * @param t the node that roots the subtree of current tree.
+     * @param val the value hold by the node, which needs to be rotated.
+     */
+    private BinaryNode<AnyType> rotateLeft( BinaryNode<AnyType> t, AnyType val)
+    {
+        int depth = find( val, t );
+        BinaryNode<AnyType> p = depth < 0 ? null : depth == 0 ? t : child( depth - 1 );
+        if(p == null) {
             System.out.println("Node holds passed value is not found. Tree is not changed.");
+        } else if(p.right == null) {
+            System.out.println("Left subtree is null. Can't be rotated. Tree is not changed.");
         } else {
-            if(t.element == val) {
-                if(t.left == null) {
-                    System.out.println("Left subtree is null. Can't be rotated. Tree is not changed.");
-                } else {
-                    BinaryNode<AnyType> old = t;
+            t = relinkPath( depth, rotateLeft( mutable( p ) ) );
+            modCount++;
+        }
+        return t;
+    }
+
+    /**
+     * Internal method to record the descent to the node holding val.
+     * @param val the value to search for.
+     * @param t the node that roots the subtree.
+     * @return the number of recorded steps above the matching node, or -1 if not found.
+     */
+    private int find( AnyType val, BinaryNode<AnyType> t )
+    {
+        int depth = 0;
+        while( t != null )
+        {
+            int compareResult = val.compareTo( t.element );
+
+            if( compareResult == 0 )
+                return depth;
+            push( depth++, t, compareResult < 0 );
+            t = compareResult < 0 ? t.left : t.right;
+        }
+        clearPath( depth );
+        return -1;
+    }
+
+    /**
+     * Internal method to return the child taken by a recorded step.
+     * @param depth the position of the step on the path.
+     */
+    private BinaryNode<AnyType> child( int depth )
+    {
+        return pathLeft[ depth ] ? path[ depth ].left : path[ depth ].right;
+    }
+
+    /**
+     * Internal method to walk a recorded descent back up like fixPath, but only
+     * refreshing metadata so that an explicit rotation is not undone by rebalancing.
+     * @param depth the number of recorded steps.
+     * @param child the new subtree below the last step.
+     * @return the new root of the whole path.
+     */
+    private BinaryNode<AnyType> relinkPath( int depth, BinaryNode<AnyType> child )
+    {
+        while( depth > 0 )
+        {
+            BinaryNode<AnyType> t = mutable( path[ --depth ] );
+            path[ depth ] = null;
+            if( pathLeft[ depth ] )
+                t.left = child;
+            else
+                t.right = child;
+            update( t );
+            child = t;
+        }
+        return child;
+    }
+
+    /**
+     * Internal method to find an item in a splaying tree, then splay the node
+     * holding it, or the last node visited if there is none, to the root.
+     * @param x the item to search for.
+     * @return the node holding x, now at or near the root, or null if not found.
+     */
+    private BinaryNode<AnyType> access( AnyType x )
+    {
+        int depth = 0;
+        BinaryNode<AnyType> t = root;
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult == 0 )
+            {
+                probes = depth + 1;
+                root = splay( depth, t );
+                return t;
+            }
+            push( depth++, t, compareResult < 0 );
+            t = compareResult < 0 ? t.left : t.right;
+        }
+        probes = depth;
+        root = splayParent( depth, null );
+        return null;
+    }
+
+    /**
+     * Internal method to splay the smallest or the largest node of a non-empty
+     * splaying tree to the root.
+     * @param min true for the smallest node.
+     * @return that node.
+     */
+    private BinaryNode<AnyType> splayEnd( boolean min )
+    {
+        int depth = 0;
+        BinaryNode<AnyType> t = root;
+        for( BinaryNode<AnyType> next; ( next = min ? t.left : t.right ) != null; t = next )
+            push( depth++, t, min );
+        root = splay( depth, t );
+        return t;
+    }
+
+    /**
+     * Internal method to hang a subtree below the last recorded step of a
+     * descent, then splay the node of that step to the root. Used where the
+     * descent ended at a missing or removed node.
+     * @param depth the number of recorded steps.
+     * @param child the new subtree below the last step.
+     * @return the new root of the whole path.
+     */
+    private BinaryNode<AnyType> splayParent( int depth, BinaryNode<AnyType> child )
+    {
+        if( depth == 0 )
+            return child;
+        BinaryNode<AnyType> parent = path[ --depth ];
+        path[ depth ] = null;
+        if( pathLeft[ depth ] )
+            parent.left = child;
+        else
+            parent.right = child;
+        update( parent );
+        return splay( depth, parent );
+    }
+
+    /**
+     * Internal method to move a node up a recorded descent with the rotations
+     * of bottom-up splaying. A zig-zag step rotates x above its parent and
+     * grandparent; a zig-zig step rotates the parent above the grandparent and,
+     * in SPLAY mode, x above the parent, while in SEMI_SPLAY mode it carries on
+     * from the parent and leaves x below it; a final zig rotates x above the root.
+     * Ancestors' metadata may be stale on entry, since every step refreshes the
+     * nodes it rotates from the bottom up.
+     * @param depth the number of recorded steps above x.
+     * @param x the node to splay, with up-to-date metadata; the last step need not link to it yet.
+     * @return the new root of the whole path.
+     */
+    private BinaryNode<AnyType> splay( int depth, BinaryNode<AnyType> x )
+    {
+        if( depth > 0 )
+            modCount++;     // Reshaping the tree invalidates traversals in progress
+        while( depth > 0 )
+        {
+            BinaryNode<AnyType> p = path[ depth - 1 ];
+            boolean xLeft = pathLeft[ depth - 1 ];
+            if( xLeft )
+                p.left = x;
+            else
+                p.right = x;
+            if( depth == 1 )
+            {
+                x = xLeft ? rotateRight( p ) : rotateLeft( p );                  // Zig
+                path[ --depth ] = null;
+                break;
+            }
+            BinaryNode<AnyType> g = path[ depth - 2 ];
+            boolean pLeft = pathLeft[ depth - 2 ];
+            if( xLeft == pLeft )
+            {
+                x = pLeft ? rotateRight( g ) : rotateLeft( g );                  // Zig-zig
+                if( balance == Balance.SPLAY )
+                    x = pLeft ? rotateRight( x ) : rotateLeft( x );
+            }
+            else if( pLeft )
+            {
+                g.left = rotateLeft( p );                                        // Zig-zag
+                x = rotateRight( g );
+            }
+            else
+            {
+                g.right = rotateRight( p );
+                x = rotateLeft( g );
+            }
+            path[ --depth ] = null;
+            path[ --depth ] = null;
+        }
+        return x;
+    }
+
+    /**
+     * Internal method to drop the references held by a recorded descent.
+     * @param depth the number of recorded steps.
+     */
+    private void clearPath( int depth )
+    {
+        if( depth > 0 )
+            Arrays.fill( path, 0, depth, null );
+    }
+
+    /**
+     * Internal method to obtain a node that may be modified: in persistent mode a
+     * fresh copy, since the original may be shared with other versions.
+     * @param t the node about to change.
+     * @return t itself, or its copy in persistent mode.
+     */
+    private BinaryNode<AnyType> mutable( BinaryNode<AnyType> t )
+    {
+        return persistent ? new BinaryNode<>( t ) : t;
+    }
+
+    /**
+     * Internal method to rotate a node with its left child, updating both nodes' metadata.
+     * @param k2 the node to rotate, already mutable; must have a left child.
+     * @return the new root of the subtree.
+     */
+    private BinaryNode<AnyType> rotateRight( BinaryNode<AnyType> k2 )
+    {
+        BinaryNode<AnyType> k1 = mutable( k2.left );
+        k2.left = k1.right;
+        k1.right = k2;
+        update( k2 );
+        update( k1 );
+        return k1;
+    }
+
+    /**
+     * Internal method to rotate a node with its right child, updating both nodes' metadata.
+     * @param k1 the node to rotate, already mutable; must have a right child.
+     * @return the new root of the subtree.
+     */
+    private BinaryNode<AnyType> rotateLeft( BinaryNode<AnyType> k1 )
+    {
+        BinaryNode<AnyType> k2 = mutable( k1.right );
+        k1.right = k2.left;
+        k2.left = k1;
+        update( k1 );
+        update( k2 );
+        return k2;
+    }
+
+    /**
+     * Internal method to collect a subtree level by level.
+     * @param t the node that roots the subtree of current tree.
+     */
+    private void printLevels( BinaryNode<AnyType> t, List<List<AnyType>> levels, int level)
+    {
+        Deque<BinaryNode<AnyType>> queue = new ArrayDeque<>();
+        if( t != null )
+            queue.add( t );
+        while( !queue.isEmpty( ) )
+        {
+            List<AnyType> row = new ArrayList<AnyType>();
+            for( int i = queue.size( ); i > 0; i-- )
+            {
+                t = queue.poll( );
+                row.add( t.element );
+                if( t.left != null ) queue.add( t.left );
+                if( t.right != null ) queue.add( t.right );
+            }
+            if( level < levels.size( ) )
+                levels.get( level ).addAll( row );
+            else
+                levels.add( row );
+            level++;
+        }
+    }
+
+    /**
+     * Internal method to push a node and its chain of left descendants.
+     * @param stack the traversal stack.
+     * @param t the node that roots the subtree to enter.
+     */
+    private static <AnyType> void pushLeft( Deque<BinaryNode<AnyType>> stack, BinaryNode<AnyType> t )
+    {
+        for( ; t != null; t = t.left )
+            stack.push( t );
+    }
+
+    // In-order iterator over an optionally bounded range; each stacked node is
+    // pending along with its right subtree
+    private class TreeIterator implements Iterator<AnyType>
+    {
+        TreeIterator( )
+        {
+            this( null, false, null, false, false );
+        }
+
+        TreeIterator( AnyType lo, boolean loInclusive, AnyType hi, boolean hiInclusive )
+        {
+            this( lo, loInclusive, hi, hiInclusive, false );
+        }
+
+        TreeIterator( AnyType lo, boolean loInclusive, AnyType hi, boolean hiInclusive, boolean occurrences )
+        {
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.occurrences = occurrences;
+            if( lo == null )
+                pushLeft( stack, root );
+            else
+                seek( lo, loInclusive );
+        }
+
+        public boolean hasNext( )
+        {
+            if( repeats > 0 )
+                return true;
+            if( stack.isEmpty( ) )
+                return false;
+            if( hi == null )
+                return true;
+            int compareResult = stack.peek( ).element.compareTo( hi );
+            return compareResult < 0 || compareResult == 0 && hiInclusive;
+        }
+
+        public AnyType next( )
+        {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException( );
+            if( !hasNext( ) )
+                throw new NoSuchElementException( );
+            if( repeats > 0 )
+            {
+                repeats--;
+                return lastReturned = lastRepeated;
+            }
+            BinaryNode<AnyType> t = stack.pop( );
+            pushLeft( stack, t.right );
+            repeats = occurrences ? t.count - 1 : 0;
+            lastReturned = lastRepeated = t.element;
+            return lastReturned;
+        }
+
+        public void remove( )
+        {
+            if( lastReturned == null )
+                throw new IllegalStateException( );
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException( );
+            BinarySearchTree.this.remove( lastReturned );
+            expectedModCount = modCount;
+
+            // Removal may restructure the tree; re-descend to the successor
+            stack.clear( );
+            seek( lastReturned, false );
+            lastReturned = null;
+        }
+
+        // Stack the path to the first item after x, skipping the subtrees below it
+        private void seek( AnyType x, boolean inclusive )
+        {
+            for( BinaryNode<AnyType> t = root; t != null; )
+            {
+                int compareResult = x.compareTo( t.element );
+                if( compareResult < 0 || compareResult == 0 && inclusive )
+                {
+                    stack.push( t );
                     t = t.left;
-                    old.left = t.right;
-                    t.right = old;
                 }
-            } else {
-                int compareResult = val.compareTo(t.element);
-                if(compareResult < 0) {
-                    t.left = rotateRight(t.left, val);
-                } else {
-                    t.right = rotateRight(t.right, val);
+                else
+                    t = t.right;
+            }
+        }
+
+        private final Deque<BinaryNode<AnyType>> stack = new ArrayDeque<>( );
+        private final AnyType hi;
+        private final boolean hiInclusive;
+        private AnyType lastReturned;
+        private int expectedModCount = modCount;
+        private final boolean occurrences;  // True to return each item as often as it occurs
+        private int repeats;                // Occurrences of lastRepeated still to return
+        private AnyType lastRepeated;
+    }
+
+    // In-order spliterator using the same stack representation as TreeIterator.
+    // Splitting hands the top of the stack to the prefix and keeps the bottom entry;
+    // a single entry is split around its right child, whose subtree becomes the fence.
+    private class TreeSpliterator implements Spliterator<AnyType>
+    {
+        TreeSpliterator( )
+        {
+            this( new ArrayDeque<>( ), size, modCount );
+            pushLeft( stack, root );
+        }
+
+        TreeSpliterator( Deque<BinaryNode<AnyType>> stack, int remaining, int expectedModCount )
+        {
+            this.stack = stack;
+            this.remaining = remaining;
+            this.expectedModCount = expectedModCount;
+        }
+
+        public boolean tryAdvance( Consumer<? super AnyType> action )
+        {
+            if( remaining == 0 )
+                return false;
+            action.accept( advance( ) );
+            return true;
+        }
+
+        public void forEachRemaining( Consumer<? super AnyType> action )
+        {
+            while( remaining > 0 )
+                action.accept( advance( ) );
+        }
+
+        private AnyType advance( )
+        {
+            if( modCount != expectedModCount || stack.isEmpty( ) )
+                throw new ConcurrentModificationException( );
+            BinaryNode<AnyType> t = stack.pop( );
+            pushLeft( stack, t.right );
+            remaining--;
+            return t.element;
+        }
+
+        /**
+         * Hands the first half of the remaining items to a new spliterator and
+         * skips this one past them, using the subtree sizes, so parts stay even
+         * however the tree is shaped. A part ends by count rather than by node.
+         */
+        public Spliterator<AnyType> trySplit( )
+        {
+            if( remaining < 2 )
+                return null;
+            int half = remaining / 2;
+            Spliterator<AnyType> prefix = new TreeSpliterator( new ArrayDeque<>( stack ), half, expectedModCount );
+            remaining -= half;
+            skip( half );
+            return prefix;
+        }
+
+        // Drop the next k items from the stack without visiting them one by one
+        private void skip( int k )
+        {
+            while( k > 0 )
+            {
+                BinaryNode<AnyType> t = stack.pop( );
+                int block = 1 + size( t.right );    // t, then all of its right subtree
+                if( block <= k )
+                {
+                    k -= block;
+                    continue;
+                }
+                k--;                                // t itself; the rest lies in t.right
+                for( BinaryNode<AnyType> r = t.right; ; )
+                {
+                    int before = size( r.left );
+                    if( k > before )
+                    {
+                        k -= before + 1;            // r.left and r
+                        r = r.right;
+                        continue;
+                    }
+                    stack.push( r );
+                    if( k == before )
+                        return;
+                    r = r.left;                     // The next item lies below r
                 }
             }
         }
-        return t;
+
+        public long estimateSize( )
+        {
+            return remaining;
+        }
+
+        public int characteristics( )
+        {
+            return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+
+        public Comparator<? super AnyType> getComparator( )
+        {
+            return null;    // Natural ordering
+        }
+
+        private final Deque<BinaryNode<AnyType>> stack;
+        private int remaining;
+        private final int expectedModCount;
     }
 
-    /**
-     * Internal method to performs a single left rotation on the node having the passed value.
-     * @param t the node that roots the subtree of current tree.
-     * @param val the value hold by the node, which needs to be rotated.
-     */
-    private BinaryNode<AnyType> rotateLeft( BinaryNode<AnyType> t, AnyType val)
+    // The set operations a SetTask can apply to two subtrees
+    private enum SetOperation { UNION, INTERSECT, DIFFERENCE }
+
+    // Combines a subtree of this tree with a subtree of another, possibly in parallel
+    private class SetTask extends RecursiveTask<BinaryNode<AnyType>>
     {
-        if(t == null) {
-            System.out.println("Node holds passed value is not found. Tree is not changed.");
-        } else {
-            if(t.element == val) {
-                if(t.right == null) {
-                    System.out.println("Left subtree is null. Can't be rotated. Tree is not changed.");
-                } else {
-                    BinaryNode<AnyType> old = t;
-                    t = t.right;
-                    old.right = t.left;
-                    t.left = old;
-                }
-            } else {
-                int compareResult = val.compareTo(t.element);
-                if(compareResult < 0) {
-                    t.left = rotateLeft(t.left, val);
-                } else {
-                    t.right = rotateLeft(t.right, val);
-                }
-            }
+        SetTask( SetOperation o, BinaryNode<AnyType> s1, BinaryNode<AnyType> s2, boolean sh )
+        {
+            op    = o;
+            t1    = s1;
+            t2    = s2;
+            share = sh;
         }
-        return t;
+
+        protected BinaryNode<AnyType> compute( )
+        {
+            return combine( op, t1, t2, share );
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final SetOperation op;
+        private final BinaryNode<AnyType> t1;
+        private final BinaryNode<AnyType> t2;
+        private final boolean share;
     }
 
-    /**
-     * Internal method to performs a single rotation on the node having the passed value.
-     * @param t the node that roots the subtree of current tree.
-     */
-    private void printLevels( BinaryNode<AnyType> t, List<List<AnyType>> levels, int level)
+    // The parts of a subtree split around an item
+    private static class Split<AnyType>
     {
-        if(t == null) return;
-        if(level == levels.size()) {
-            levels.add(new ArrayList<AnyType>());
+        BinaryNode<AnyType> left;   // The items smaller than the key
+        BinaryNode<AnyType> match;  // The node holding the key, detached and mutable; or null
+        BinaryNode<AnyType> right;  // The items larger than the key
+    }
+
+    // One subtree of a batch merge, with the part of the batch bound for it
+    private static class MergeStep<AnyType>
+    {
+        MergeStep( BinaryNode<AnyType> t, int lo, int hi )
+        {
+            node  = t;
+            low   = lo;
+            high  = hi;
+            split = -1;
         }
-        levels.get(level).add(t.element);
-        printLevels(t.left, levels, level + 1);
-        printLevels(t.right, levels, level + 1);
+
+        BinaryNode<AnyType> node;   // The root of the subtree
+        int low;                    // First batch position for the subtree
+        int high;                   // Last batch position for the subtree
+        int split;                  // Batch position of node's element; -1 until visited
+        boolean found;              // True if the batch holds node's element
     }
 
-    // Basic node stored in unbalanced binary search trees
+    // Basic node stored in binary search trees
     private static class BinaryNode<AnyType>
     {
         // Constructors
@@ -531,17 +2668,82 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
             element  = theElement;
             left     = lt;
             right    = rt;
+            size     = 1;
+            count    = 1;
+            total    = 1;
+        }
+
+        BinaryNode( BinaryNode<AnyType> t )
+        {
+            element  = t.element;
+            left     = t.left;
+            right    = t.right;
+            height   = t.height;
+            size     = t.size;
+            count    = t.count;
+            total    = t.total;
         }
 
         AnyType element;            // The data in the node
         BinaryNode<AnyType> left;   // Left child
         BinaryNode<AnyType> right;  // Right child
+        int height;                 // Height of the subtree; a leaf has height 0
+        int size;                   // Number of nodes in the subtree
+        int count;                  // Occurrences of element; above 1 only in a MULTISET tree
+        int total;                  // Occurrences of all elements in the subtree
     }
 
+    private static final int ALLOWED_IMBALANCE = 1;
+
+    // The cached answer for an item that is not in the tree
+    private static final Object ABSENT = new Object( );
+
+    // Subtrees smaller than this are not worth a fork-join task by default
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 13;
 
     /** The tree root. */
     private BinaryNode<AnyType> root;
 
+    /** The number of items in the tree. */
+    private int size;
+
+    /** The balancing strategy applied by insert and remove. */
+    private final Balance balance;
+
+    /** The optional behaviours, passed on to derived trees. */
+    private final Feature[] features;
+
+    /** True if reachable nodes are never modified. */
+    private final boolean persistent;
+
+    /** True if duplicates are counted rather than dropped. */
+    private final boolean multiset;
+
+    /** True if accesses splay their node toward the root: SPLAY or SEMI_SPLAY. */
+    private final boolean splaying;
+
+    /** The subtree size from which whole-tree operations fork. */
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /** The number of structural modifications, for fail-fast traversals. */
+    private int modCount;
+
+    /** Scratch stack of the nodes and directions of the current root-to-node descent. */
+    private BinaryNode<AnyType>[] path;
+    private boolean[] pathLeft;
+
+    /** Where contains, insert and remove are recorded; null when they are not. */
+    private TreeMetrics metrics;
+
+    /** The comparisons made by the last insert, remove or cached lookup descent. */
+    private int probes;
+
+    /** Answers to recent lookups: the item found, or ABSENT; null when there is no cache. */
+    private LookupCache<AnyType, Object> cache;
+
+    /** The item the last insert found equal to its own, for intern. */
+    private AnyType duplicate;
+
 
     // Test program
     public static void main( String [ ] args )
@@ -709,6 +2911,11 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
             testRotateLeft(t, lt, node2);
         }
 
+        // test that rotations leave the source tree intact
+        testRotateSource(Balance.NONE);
+        testRotateSource(Balance.AVL);
+        testRotateSource(Balance.AVL, Feature.PERSISTENT);
+
         // test printLevels()
         for(int i = 0; i < trees.length; i++) { // go through the tree pool to count the number of nodes of each tree and add them to res list
             t = makeTree(t, trees[i]);
@@ -721,6 +2928,73 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
             testPrintLevels(t, tLevels);
         }
 
+        // test AVL balancing on sorted input
+        testBalanced(1000);
+
+        // test rank(), select() and countInRange()
+        testOrderStatistics(Balance.NONE, 500);
+        testOrderStatistics(Balance.AVL, 500);
+
+        // test floor(), ceiling(), lower(), higher() and the range views
+        testNavigation(Balance.NONE, 1000);
+        testNavigation(Balance.AVL, 1000);
+
+        // test fromSorted(), bulkLoad() and rebuild()
+        testBulkLoad(1000);
+
+        // test iterator(), spliterator() and streams
+        testIterator(Balance.NONE, 2000);
+        testIterator(Balance.AVL, 2000);
+        testDegenerateSplit(20000);
+
+        // test persistent mode: snapshots from copy() must never change
+        testPersistent(Balance.NONE, 1000);
+        testPersistent(Balance.AVL, 1000);
+
+        // test insertAll() and removeAll()
+        testBatch(Balance.NONE, 2000);
+        testBatch(Balance.AVL, 2000);
+        testBatch(Balance.AVL, 0);
+
+        // test union(), intersect(), difference(), split() and join()
+        testSetOperations(Balance.NONE, 1000);
+        testSetOperations(Balance.AVL, 1000);
+        testSetOperations(Balance.AVL, 40000);
+
+        // test the fork-join paths of the whole-tree operations
+        testParallel(Balance.NONE, 5000);
+        testParallel(Balance.AVL, 5000);
+
+        // test setMetrics() and the stats snapshot
+        testMetrics();
+
+        // test Feature.MULTISET: count(), and the DISTINCT and OCCURRENCES queries
+        testMultiset(Balance.NONE, 2000);
+        testMultiset(Balance.AVL, 2000);
+        testMultiset(Balance.AVL, 2000, Feature.PERSISTENT);
+        testMultiset(Balance.SPLAY, 2000);
+
+        // test Balance.SPLAY and SEMI_SPLAY: accessed nodes move up, shape stays valid
+        for(Balance balance : new Balance[] { Balance.SPLAY, Balance.SEMI_SPLAY }) {
+            testSplay(balance, 2000);
+            testOrderStatistics(balance, 500);
+            testNavigation(balance, 1000);
+            testIterator(balance, 2000);
+            testBatch(balance, 2000);
+            testSetOperations(balance, 1000);
+        }
+
+        // test setLookupCache(): cached answers stay right through every kind of update
+        for(LookupCache.Eviction eviction : LookupCache.Eviction.values()) {
+            testLookupCache(Balance.AVL, eviction, 2000);
+        }
+        testLookupCache(Balance.NONE, LookupCache.Eviction.LRU, 2000);
+        testLookupCache(Balance.SPLAY, LookupCache.Eviction.W_TINY_LFU, 2000);
+
+        // test every operation on a degenerate tree; pass a node count to go deeper,
+        // e.g. java -Xmx4g BinarySearchTree 10000000
+        testDeepTree(args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+
     }
 
     public static void printTreeNodes(int[] tree) {
@@ -743,6 +3017,8 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
         for(int node : tree) {
             m.root = m.insertMirror(node, m.root);
         }
+        m.refresh(m.root);   // insertMirror leaves heights and sizes alone
+        m.size = m.nodeCount(m.root);
         return m;
     }
     private static BinaryNode<Integer> insertMirror(Integer x, BinaryNode<Integer> t )
@@ -765,7 +3041,7 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
         System.out.println("The expected count of nodes is: " + size);
         int res = t.nodeCount();
         System.out.println("The count of nodes got is: " + res);
-        if(size != res) {
+        if(size != res || t.nodeCount(t.root) != res) {
             System.out.println("NodeCount error!");
         }
         System.out.println("\n\n\n");
@@ -855,6 +3131,33 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
         }
         System.out.println("\n\n\n");
     }
+    public static void testRotateSource(Balance balance, Feature... features) {
+        System.out.println("Test result for rotations leaving the source tree (" + balance + " " + Arrays.toString(features) + "): ");
+        System.out.println("The expected answer is: " + true);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance, features);
+        for(int x : new int[] {5, 3, 8, 1, 4}) t.insert(x);
+        BinarySearchTree<Integer> before = t.copy();
+        BinarySearchTree<Integer> right = t.rotateRight(t.root.element);
+        BinarySearchTree<Integer> left = t.rotateLeft(t.root.element);
+        List<Integer> items = Arrays.asList(1, 3, 4, 5, 8);
+        boolean res = t.equals(before) && t.size() == 5 && t.stream().collect(Collectors.toList()).equals(items);
+        res &= t.contains(3) && t.select(4) == 8 && t.rank(8) == 4 && checkNodes(t.root, balance == Balance.AVL);
+        for(BinarySearchTree<Integer> rotated : Arrays.asList(right, left)) {
+            res &= rotated.size() == 5 && rotated.stream().collect(Collectors.toList()).equals(items);
+            res &= rotated.select(4) == 8 && !rotated.compareStructure(t) && checkNodes(rotated.root, false);
+        }
+        res &= right.root.element == 3 && left.root.element == 8;
+
+        // Updating one tree does not show in the other
+        right.insert(7);
+        t.remove(1);
+        res &= !t.contains(7) && right.contains(1) && t.size() == 4 && right.size() == 6;
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Rotate source error!");
+        }
+        System.out.println("\n\n\n");
+    }
     public static void testPrintLevels(BinarySearchTree<Integer> t, List<List<Integer>> tLevels) {
         System.out.println("Test result for printLevels: ");
         System.out.println("The expected answer is: " + true);
@@ -866,5 +3169,921 @@ public class BinarySearchTree<AnyType extends Comparable<? super AnyType>>
         }
         System.out.println("\n\n\n");
     }
+    public static void testBalanced(int n) {
+        System.out.println("Test result for AVL balancing: ");
+        BinarySearchTree<Integer> avl = new BinarySearchTree<>(Balance.AVL);
+        for(int i = 0; i < n; i++) {
+            avl.insert(i);
+        }
+        for(int i = 0; i < n; i += 2) {
+            avl.remove(i);
+        }
+        // an AVL tree of n nodes is never taller than 1.44 log2(n + 2)
+        int limit = (int) (1.44 * Math.log(n + 2) / Math.log(2));
+        int height = avl.height(avl.root);
+        System.out.println("The expected height is at most: " + limit);
+        System.out.println("The height got is: " + height);
+        boolean res = height <= limit && avl.nodeCount() == n / 2;
+        for(int i = 0; i < n; i++) {
+            res &= avl.contains(i) == (i % 2 == 1);
+        }
+        if(!res) {
+            System.out.println("Balanced error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testOrderStatistics(Balance balance, int n) {
+        System.out.println("Test result for order statistics (" + balance + "): ");
+        System.out.println("The expected answer is: " + true);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+        Random random = new Random(n);
+        for(int i = 0; i < n; i++) {
+            t.insert(random.nextInt(4 * n));
+        }
+        for(int i = 0; i < n; i++) {
+            t.remove(random.nextInt(4 * n));
+        }
+        t = t.rotateLeft(t.root.element);   // rotations must keep subtree sizes
+        List<Integer> sorted = new ArrayList<>();
+        for(int i = 0; i < 4 * n; i++) {
+            if(t.contains(i)) sorted.add(i);
+        }
+        boolean res = t.size() == sorted.size() && t.nodeCount(t.root) == sorted.size();
+        for(int k = 0; k < sorted.size(); k++) {
+            res &= t.select(k).equals(sorted.get(k)) && t.rank(sorted.get(k)) == k;
+        }
+        for(int lo = -1; lo < 4 * n; lo += 7) {
+            int hi = lo + 3 * n / 4;
+            int expected = 0;
+            for(int x : sorted) {
+                if(lo <= x && x <= hi) expected++;
+            }
+            res &= t.countInRange(lo, hi) == expected;
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("OrderStatistics error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testNavigation(Balance balance, int n) {
+        System.out.println("Test result for navigation (" + balance + "): ");
+        System.out.println("The expected answer is: " + true);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(n);
+        for(int i = 0; i < n; i++) {
+            int x = random.nextInt(4 * n);
+            t.insert(x);
+            expected.add(x);
+        }
+        boolean res = true;
+        for(int x = -1; x <= 4 * n; x++) {
+            res &= Objects.equals(t.floor(x), expected.floor(x));
+            res &= Objects.equals(t.ceiling(x), expected.ceiling(x));
+            res &= Objects.equals(t.lower(x), expected.lower(x));
+            res &= Objects.equals(t.higher(x), expected.higher(x));
+        }
+        for(int i = 0; i < 200; i++) {
+            int lo = random.nextInt(4 * n);
+            int hi = lo + random.nextInt(n);
+            boolean loIn = random.nextBoolean(), hiIn = random.nextBoolean();
+            List<Integer> got = new ArrayList<>();
+            t.subSet(lo, loIn, hi, hiIn).forEach(got::add);
+            res &= got.equals(new ArrayList<>(expected.subSet(lo, loIn, hi, hiIn)));
+            got.clear();
+            t.headSet(hi, hiIn).forEach(got::add);
+            res &= got.equals(new ArrayList<>(expected.headSet(hi, hiIn)));
+            got.clear();
+            t.tailSet(lo, loIn).forEach(got::add);
+            res &= got.equals(new ArrayList<>(expected.tailSet(lo, loIn)));
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Navigation error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testBulkLoad(int n) {
+        System.out.println("Test result for bulk loading: ");
+        System.out.println("The expected answer is: " + true);
+        List<Integer> sorted = new ArrayList<>();
+        for(int i = 0; i < n; i++) {
+            sorted.add(2 * i);
+        }
+        int logN = 31 - Integer.numberOfLeadingZeros(n);
+        BinarySearchTree<Integer> t = fromSorted(sorted);
+        List<Integer> items = new ArrayList<>();
+        t.forEach(items::add);
+        boolean res = items.equals(sorted) && t.size() == n && t.height() == logN;
+        res &= fromSorted(sorted.subList(0, 511)).isFull();
+
+        List<Integer> duplicated = new ArrayList<>();
+        for(int x : sorted) {
+            duplicated.add(x);
+            duplicated.add(x);
+        }
+        t = bulkLoad(duplicated.iterator(), Balance.AVL);
+        res &= t.size() == n && t.select(n / 2).equals(sorted.get(n / 2));
+        try {
+            bulkLoad(Arrays.asList(1, 3, 2).iterator());
+            res = false;
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+
+        // a degenerate tree of any size folds into a minimal-height tree
+        for(int size : new int[] {0, 1, 2, 3, 7, 8, n}) {
+            t = new BinarySearchTree<>();
+            for(int i = 0; i < size; i++) {
+                t.insert(i);
+            }
+            t.rebuild();
+            res &= t.height() == (size == 0 ? -1 : 31 - Integer.numberOfLeadingZeros(size));
+            res &= t.nodeCount(t.root) == size && t.size() == size;
+            for(int i = 0; i < size; i++) {
+                res &= t.select(i) == i;
+            }
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("BulkLoad error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testIterator(Balance balance, int n) {
+        System.out.println("Test result for iteration (" + balance + "): ");
+        System.out.println("The expected answer is: " + true);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+        Random random = new Random(n);
+        for(int i = 0; i < n; i++) {
+            t.insert(random.nextInt(4 * n));
+        }
+        List<Integer> sorted = new ArrayList<>();
+        for(int i = 0; i < 4 * n; i++) {
+            if(t.contains(i)) sorted.add(i);
+        }
+        List<Integer> iterated = new ArrayList<>();
+        for(int x : t) {
+            iterated.add(x);
+        }
+        boolean res = iterated.equals(sorted);
+        res &= t.stream().collect(Collectors.toList()).equals(sorted);
+        res &= t.parallelStream().collect(Collectors.toList()).equals(sorted);
+        res &= t.parallelStream().mapToLong(x -> x).sum() == t.stream().mapToLong(x -> x).sum();
+
+        // split all the way down; the parts must be exact-sized, disjoint and in order
+        List<Spliterator<Integer>> parts = new ArrayList<>();
+        parts.add(t.spliterator());
+        for(int i = 0; i < parts.size(); i++) {
+            Spliterator<Integer> prefix;
+            while((prefix = parts.get(i).trySplit()) != null) {
+                parts.add(i, prefix);
+            }
+        }
+        List<Integer> joined = new ArrayList<>();
+        for(Spliterator<Integer> part : parts) {
+            long expected = part.estimateSize();
+            int before = joined.size();
+            part.forEachRemaining(joined::add);
+            res &= joined.size() - before == expected;
+        }
+        res &= joined.equals(sorted) && parts.size() == sorted.size();
+
+        // remove every other item through the iterator
+        Iterator<Integer> it = t.iterator();
+        for(int i = 0; it.hasNext(); i++) {
+            it.next();
+            if(i % 2 == 0) it.remove();
+        }
+        List<Integer> kept = new ArrayList<>();
+        t.forEach(kept::add);
+        for(int i = 1; i < sorted.size(); i += 2) {
+            res &= kept.get(i / 2).equals(sorted.get(i));
+        }
+        res &= kept.size() == sorted.size() / 2 && t.size() == kept.size();
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Iterator error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testDegenerateSplit(int n) {
+        System.out.println("Test result for parallel streams over a degenerate tree: ");
+        System.out.println("The expected answer is: " + true);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>();
+        List<Integer> sorted = new ArrayList<>();
+        for(int i = 0; i < n; i++) {
+            t.insert(i);    // a right-leaning chain
+            sorted.add(i);
+        }
+        boolean res = t.height() == n - 1;
+        res &= t.parallelStream().collect(Collectors.toList()).equals(sorted);
+        res &= t.parallelStream().mapToLong(x -> x).sum() == (long) n * (n - 1) / 2;
+
+        // every split halves the part, however the tree is shaped
+        Spliterator<Integer> suffix = t.spliterator();
+        Spliterator<Integer> prefix = suffix.trySplit();
+        res &= prefix.estimateSize() == n / 2 && suffix.estimateSize() == n - n / 2;
+        Spliterator<Integer> quarter = suffix.trySplit();
+        res &= quarter.estimateSize() == (n - n / 2) / 2;
+        List<Integer> joined = new ArrayList<>();
+        prefix.forEachRemaining(joined::add);
+        quarter.forEachRemaining(joined::add);
+        suffix.forEachRemaining(joined::add);
+        res &= joined.equals(sorted);
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Degenerate split error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testPersistent(Balance balance, int n) {
+        System.out.println("Test result for persistent mode (" + balance + "): ");
+        System.out.println("The expected answer is: " + true);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance, Feature.PERSISTENT);
+        Random random = new Random(n);
+        List<BinarySearchTree<Integer>> snapshots = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        TreeSet<Integer> model = new TreeSet<>();
+        boolean res = true;
+        for(int i = 0; i < 4 * n; i++) {
+            int x = random.nextInt(2 * n);
+            if(i % 3 == 2) {
+                t.remove(x);
+                model.remove(x);
+            } else {
+                t.insert(x);
+                model.add(x);
+            }
+            if(i % 50 == 0) {
+                BinarySearchTree<Integer> c = t.copy();
+                res &= c.root == t.root;   // constant time: nothing is copied
+                snapshots.add(c);
+                expected.add(new ArrayList<>(model));
+            }
+        }
+        res &= t.stream().collect(Collectors.toList()).equals(new ArrayList<>(model));
+        res &= t.size() == model.size() && t.nodeCount(t.root) == model.size();
+
+        // rotations and rebuild() give new versions as well
+        BinarySearchTree<Integer> before = t.copy();
+        BinarySearchTree<Integer> rotated = t.rotateLeft(t.root.element);
+        res &= t.root == before.root && rotated.root != t.root;
+        t.rebuild();
+        res &= t.height() == 31 - Integer.numberOfLeadingZeros(t.size());
+        res &= before.stream().collect(Collectors.toList()).equals(t.stream().collect(Collectors.toList()));
+        res &= before.compareStructure(before.copy()) && !before.compareStructure(rotated);
+
+        // a reader on another thread walks the snapshots while this thread keeps updating
+        boolean[] readerRes = { true };
+        Thread reader = new Thread(() -> {
+            for(int i = 0; i < snapshots.size(); i++) {
+                List<Integer> items = new ArrayList<>();
+                snapshots.get(i).forEach(items::add);
+                readerRes[0] &= items.equals(expected.get(i)) && snapshots.get(i).size() == items.size();
+            }
+        });
+        reader.start();
+        for(int i = 0; i < 2 * n; i++) {
+            t.remove(random.nextInt(2 * n));
+            t.insert(random.nextInt(2 * n));
+        }
+        try {
+            reader.join();
+        } catch(InterruptedException e) {
+            res = false;
+        }
+        res &= readerRes[0];
+        for(int i = 0; i < snapshots.size(); i++) {
+            res &= snapshots.get(i).stream().collect(Collectors.toList()).equals(expected.get(i));
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Persistent error!");
+        }
+        System.out.println("\n\n\n");
+    }
+    public static void testBatch(Balance balance, int n) {
+        System.out.println("Test result for batch updates (" + balance + ", " + n + "): ");
+        System.out.println("The expected answer is: " + true);
+        Random random = new Random(n);
+        boolean res = true;
+        for(Feature[] features : new Feature[][] { {}, { Feature.PERSISTENT } }) {
+            if(features.length > 0 && (balance == Balance.SPLAY || balance == Balance.SEMI_SPLAY)) {
+                continue;   // splaying trees cannot be persistent
+            }
+            BinarySearchTree<Integer> t = new BinarySearchTree<>(balance, features);
+            TreeSet<Integer> model = new TreeSet<>();
+            for(int i = 0; i < n; i++) {
+                int x = random.nextInt(4 * n);
+                t.insert(x);
+                model.add(x);
+            }
+            // batches of every size from one item to several times the tree, with duplicates
+            for(int batchSize = 1; batchSize <= 4 * n; batchSize *= 3) {
+                List<Integer> batch = new ArrayList<>();
+                for(int i = 0; i < batchSize; i++) {
+                    batch.add(random.nextInt(8 * n));
+                }
+                BinarySearchTree<Integer> before = t.copy();
+                List<Integer> beforeItems = new ArrayList<>(model);
+                t.insertAll(batch);
+                model.addAll(batch);
+                res &= t.stream().collect(Collectors.toList()).equals(new ArrayList<>(model));
+                res &= t.size() == model.size() && checkNodes(t.root, balance == Balance.AVL);
+
+                Collections.shuffle(batch, random);
+                List<Integer> removed = new ArrayList<>(batch.subList(0, batchSize / 2));
+                removed.addAll(beforeItems.subList(0, beforeItems.size() / 3));
+                t.removeAll(removed);
+                model.removeAll(removed);
+                res &= t.stream().collect(Collectors.toList()).equals(new ArrayList<>(model));
+                res &= t.size() == model.size() && checkNodes(t.root, balance == Balance.AVL);
+                if(features.length > 0) {
+                    res &= before.stream().collect(Collectors.toList()).equals(beforeItems);
+                }
+            }
+            t.removeAll(new ArrayList<>(model));
+            res &= t.isEmpty() && t.size() == 0;
+            t.insertAll(Collections.emptyList());
+            res &= t.isEmpty();
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Batch error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    // Checks the cached height and size of every node, and the AVL condition if asked
+    private static boolean checkNodes(BinaryNode<Integer> t, boolean avl) {
+        Deque<BinaryNode<Integer>> stack = new ArrayDeque<>();
+        if(t != null) {
+            stack.push(t);
+        }
+        while(!stack.isEmpty()) {
+            t = stack.pop();
+            int lh = t.left == null ? -1 : t.left.height;
+            int rh = t.right == null ? -1 : t.right.height;
+            int ls = t.left == null ? 0 : t.left.size;
+            int rs = t.right == null ? 0 : t.right.size;
+            int lt = t.left == null ? 0 : t.left.total;
+            int rt = t.right == null ? 0 : t.right.total;
+            if(t.height != Math.max(lh, rh) + 1 || t.size != ls + rs + 1 || avl && Math.abs(lh - rh) > ALLOWED_IMBALANCE
+                    || t.count < 1 || t.total != lt + rt + t.count) {
+                return false;
+            }
+            if(t.left != null) stack.push(t.left);
+            if(t.right != null) stack.push(t.right);
+        }
+        return true;
+    }
+    public static void testSetOperations(Balance balance, int n) {
+        System.out.println("Test result for set operations (" + balance + ", " + n + "): ");
+        System.out.println("The expected answer is: " + true);
+        Random random = new Random(n);
+        boolean res = true;
+        Balance[] others = { Balance.NONE, Balance.AVL };
+        for(Feature[] features : new Feature[][] { {}, { Feature.PERSISTENT } }) {
+            if(features.length > 0 && (balance == Balance.SPLAY || balance == Balance.SEMI_SPLAY)) {
+                continue;   // splaying trees cannot be persistent
+            }
+            for(Balance otherBalance : others) {
+                // sizes from equal down to very lopsided, in both directions
+                for(int m = n; m > 0; m /= 8) {
+                    TreeSet<Integer> a = new TreeSet<>();
+                    TreeSet<Integer> b = new TreeSet<>();
+                    BinarySearchTree<Integer> ta = new BinarySearchTree<>(balance, features);
+                    BinarySearchTree<Integer> tb = new BinarySearchTree<>(otherBalance, features);
+                    for(int i = 0; i < n; i++) {
+                        a.add(random.nextInt(2 * n));
+                    }
+                    for(int i = 0; i < m; i++) {
+                        b.add(random.nextInt(2 * n));
+                    }
+                    ta.insertAll(a);
+                    tb.insertAll(b);
+                    List<Integer> bItems = new ArrayList<>(b);
+                    for(int op = 0; op < 6; op++) {
+                        // ops 3..5 swap the roles of the two trees
+                        BinarySearchTree<Integer> t = (op < 3 ? ta : tb).copy();
+                        BinarySearchTree<Integer> other = op < 3 ? tb : ta;
+                        TreeSet<Integer> expected = new TreeSet<>(op < 3 ? a : b);
+                        TreeSet<Integer> otherItems = op < 3 ? b : a;
+                        if(op % 3 == 0) {
+                            t.union(other);
+                            expected.addAll(otherItems);
+                        } else if(op % 3 == 1) {
+                            t.intersect(other);
+                            expected.retainAll(otherItems);
+                        } else {
+                            t.difference(other);
+                            expected.removeAll(otherItems);
+                        }
+                        res &= t.stream().collect(Collectors.toList()).equals(new ArrayList<>(expected));
+                        res &= t.size() == expected.size() && checkNodes(t.root, t.balance == Balance.AVL);
+                    }
+                    res &= tb.stream().collect(Collectors.toList()).equals(bItems);
+                    res &= ta.stream().collect(Collectors.toList()).equals(new ArrayList<>(a));
+                }
+            }
+
+            // a tree combined with itself
+            BinarySearchTree<Integer> t = new BinarySearchTree<>(balance, features);
+            t.insertAll(Arrays.asList(5, 1, 9, 3, 7));
+            t.union(t);
+            t.intersect(t);
+            res &= t.size() == 5;
+            t.difference(t);
+            res &= t.isEmpty() && t.size() == 0;
+
+            // split at every position and join back
+            List<Integer> items = new ArrayList<>();
+            for(int i = 0; i < 200; i += 2) {
+                items.add(i);
+            }
+            for(int x = -1; x <= 200; x += 3) {
+                t = new BinarySearchTree<>(balance, features);
+                t.insertAll(items);
+                BinarySearchTree<Integer> high = t.split(x);
+                res &= checkNodes(t.root, balance == Balance.AVL) && checkNodes(high.root, balance == Balance.AVL);
+                res &= t.size() + high.size() == items.size();
+                res &= (t.isEmpty() || t.findMax() < x) && (high.isEmpty() || high.findMin() >= x);
+                if(x % 2 != 0) {
+                    BinarySearchTree<Integer> joined = join(t, x, high);
+                    res &= t.isEmpty() && high.isEmpty() && joined.size() == items.size() + 1;
+                    res &= checkNodes(joined.root, balance == Balance.AVL) && joined.contains(x);
+                    res &= joined.rank(x) == (x + 1) / 2;
+                }
+            }
+            try {
+                join(new BinarySearchTree<>(balance, features), 3, t);
+                res &= t.isEmpty();
+            } catch(IllegalArgumentException e) {
+                res &= !t.isEmpty();
+            }
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("SetOperations error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    public static void testParallel(Balance balance, int n) {
+        System.out.println("Test result for parallel whole-tree operations (" + balance + "): ");
+        System.out.println("The expected answer is: " + true);
+        Random random = new Random(n);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+        for(int i = 0; i < n; i++) {
+            t.insert(random.nextInt(4 * n));
+        }
+        boolean res = true;
+        for(int threshold : new int[] { 1, 16, 256, Integer.MAX_VALUE }) {
+            t.setParallelThreshold(threshold);
+            BinarySearchTree<Integer> c = t.copy();
+            BinarySearchTree<Integer> m = t.mirror();
+            res &= checkNodes(c.root, balance == Balance.AVL) && c.size() == t.size();
+            res &= t.equals(c) && t.compareStructure(c) && c.equals(t);
+            res &= t.isMirror(m) && m.isMirror(t) && !t.equals(m) && !t.isMirror(c);
+            res &= t.isFull() == t.isFull(t.root) && m.isFull() == t.isFull();
+
+            // a difference deep in one subtree must still be found
+            BinarySearchTree<Integer> d = t.copy();
+            d.remove(d.findMax());
+            d.insert(d.findMax() + 1);
+            res &= !t.equals(d) && t.compareStructure(d) == t.compareStructure(d.copy());
+            BinarySearchTree<Integer> full = fromSorted(Arrays.asList(new Integer[1023]).stream()
+                    .map(x -> random.nextInt()).sorted().distinct().collect(Collectors.toList()));
+            full.setParallelThreshold(threshold);
+            res &= full.isFull() == (full.size() == 1023);
+
+            // forkable subtrees below a lopsided prefix: a chain down to a complete tree
+            BinarySearchTree<Integer> skewed = new BinarySearchTree<>();
+            for(int i = 0; i < 8; i++) skewed.insert(-i);
+            for(int size = 1024; size > 1; size /= 2) {
+                for(int i = size / 2; i < 1024; i += size) skewed.insert(i);
+            }
+            skewed.setParallelThreshold(threshold);
+            BinarySearchTree<Integer> sc = skewed.copy();
+            BinarySearchTree<Integer> sm = skewed.mirror();
+            res &= checkNodes(sc.root, false) && skewed.equals(sc) && skewed.isMirror(sm) && !skewed.isFull();
+            sc.remove(1023);
+            sc.insert(1024);
+            res &= !skewed.equals(sc) && skewed.compareStructure(sc) && !skewed.isMirror(sc.mirror());
+            res &= sc.stream().collect(Collectors.toList()).equals(sc.copy().stream().collect(Collectors.toList()));
+        }
+        try {
+            t.setParallelThreshold(0);
+            res = false;
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Parallel error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    public static void testMetrics() {
+        System.out.println("Test result for operation metrics: ");
+        System.out.println("The expected answer is: " + true);
+        TreeMetrics.Operation CONTAINS = TreeMetrics.Operation.CONTAINS;
+        TreeMetrics.Operation INSERT = TreeMetrics.Operation.INSERT;
+        TreeMetrics.Operation REMOVE = TreeMetrics.Operation.REMOVE;
+        BinarySearchTree<Integer> t = fromSorted(Arrays.asList(0, 1, 2, 3, 4, 5, 6));   // root 3, then 1 5, then 0 2 4 6
+        TreeMetrics metrics = new TreeMetrics();
+        t.setMetrics(metrics);
+        boolean res = t.getMetrics() == metrics;
+        res &= t.contains(3) && t.contains(0) && !t.contains(-1);   // 1, 3 and 3 comparisons
+        t.insert(7);    // 3 5 6
+        t.insert(7);    // 3 5 6 7
+        t.remove(100);  // 3 5 6 7
+        t.remove(7);    // 3 5 6 7
+        TreeMetrics.Snapshot s = metrics.snapshot();
+        res &= s.count(CONTAINS) == 3 && s.comparisons(CONTAINS) == 7;
+        res &= s.count(INSERT) == 2 && s.comparisons(INSERT) == 7 && s.meanComparisons(INSERT) == 3.5;
+        res &= s.count(REMOVE) == 2 && s.comparisons(REMOVE) == 8;
+        res &= Arrays.equals(s.depthHistogram(), new long[] { 0, 1, 0, 3, 3 });
+        for(TreeMetrics.Operation op : TreeMetrics.Operation.values()) {
+            res &= s.latency(op, 0) <= s.latency(op, 0.5) && s.latency(op, 0.5) <= s.latency(op, 1);
+        }
+
+        // nothing is recorded once detached, and a snapshot does not change
+        t.setMetrics(null);
+        t.contains(3);
+        t.insert(8);
+        res &= metrics.snapshot().count(CONTAINS) == 3 && metrics.snapshot().count(INSERT) == 2;
+        res &= s.count(CONTAINS) == 3 && t.contains(8);
+
+        // percentiles are bucket lower bounds within 25%
+        TreeMetrics timed = new TreeMetrics();
+        for(int i = 1; i <= 100; i++) {
+            timed.record(CONTAINS, 1, i * 1000L);
+        }
+        long p50 = timed.snapshot().latency(CONTAINS, 0.5);
+        long p99 = timed.snapshot().latency(CONTAINS, 0.99);
+        res &= p50 > 0.75 * 50000 && p50 <= 50000 && p99 > 0.75 * 99000 && p99 <= 99000;
+        res &= timed.snapshot().latency(INSERT, 0.5) == 0;
+        try {
+            timed.snapshot().latency(CONTAINS, 1.5);
+            res = false;
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+
+        // the JMX view reads the same counters
+        try {
+            javax.management.ObjectName name = metrics.register("BinarySearchTree:type=TreeMetrics,name=test");
+            javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            res &= Long.valueOf(3).equals(server.getAttribute(name, "ContainsCount"));
+            res &= Arrays.equals((long[]) server.getAttribute(name, "DepthHistogram"), s.depthHistogram());
+            server.invoke(name, "reset", null, null);
+            res &= metrics.getContainsCount() == 0 && metrics.snapshot().depthHistogram().length == 1;
+            server.unregisterMBean(name);
+        } catch(javax.management.JMException e) {
+            res = false;
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Metrics error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    public static void testMultiset(Balance balance, int n, Feature... features) {
+        System.out.println("Test result for a multiset (" + balance + " " + Arrays.toString(features) + "): ");
+        System.out.println("The expected answer is: " + true);
+        Feature[] all = Arrays.copyOf(features, features.length + 1);
+        all[features.length] = Feature.MULTISET;
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance, all);
+        java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+        Random random = new Random(n);
+        boolean res = true;
+        BinarySearchTree<Integer> before = null;
+        List<Integer> beforeItems = null;
+        for(int i = 0; i < 10 * n; i++) {
+            int x = random.nextInt(n / 4);
+            if(random.nextInt(3) == 0) {
+                t.remove(x);
+                expected.computeIfPresent(x, (k, c) -> c == 1 ? null : c - 1);
+            } else {
+                t.insert(x);
+                expected.merge(x, 1, Integer::sum);
+            }
+            if(i == 5 * n) {
+                before = t.copy();
+                beforeItems = new ArrayList<>();
+                before.items(Multiplicity.OCCURRENCES).forEach(beforeItems::add);
+            }
+        }
+        List<Integer> occurrences = new ArrayList<>();
+        expected.forEach((x, c) -> occurrences.addAll(Collections.nCopies(c, x)));
+        List<Integer> iterated = new ArrayList<>();
+        t.items(Multiplicity.OCCURRENCES).forEach(iterated::add);
+        List<Integer> distinct = new ArrayList<>();
+        t.items(Multiplicity.DISTINCT).forEach(distinct::add);
+
+        res &= checkNodes(t.root, balance == Balance.AVL);
+        res &= iterated.equals(occurrences) && distinct.equals(new ArrayList<>(expected.keySet()));
+        res &= t.size() == expected.size() && t.nodeCount(Multiplicity.DISTINCT) == expected.size();
+        res &= t.nodeCount(Multiplicity.OCCURRENCES) == occurrences.size();
+        for(int x = -1; x <= n / 4; x++) {
+            res &= t.count(x) == expected.getOrDefault(x, 0) && t.contains(x) == expected.containsKey(x);
+            res &= t.rank(x, Multiplicity.OCCURRENCES) == expected.headMap(x).values().stream().mapToInt(c -> c).sum();
+            res &= t.rank(x, Multiplicity.DISTINCT) == expected.headMap(x).size() && t.rank(x) == expected.headMap(x).size();
+            res &= t.countInRange(x, x + 10, Multiplicity.OCCURRENCES)
+                    == expected.subMap(x, true, x + 10, true).values().stream().mapToInt(c -> c).sum();
+        }
+        for(int k = 0; k < occurrences.size(); k += 7) {
+            res &= t.select(k, Multiplicity.OCCURRENCES).equals(occurrences.get(k));
+        }
+        for(int k = 0; k < distinct.size(); k += 7) {
+            res &= t.select(k, Multiplicity.DISTINCT).equals(distinct.get(k)) && t.select(k).equals(distinct.get(k));
+        }
+
+        // a persistent snapshot keeps its counts
+        if(t.persistent) {
+            List<Integer> now = new ArrayList<>();
+            before.items(Multiplicity.OCCURRENCES).forEach(now::add);
+            res &= now.equals(beforeItems);
+        }
+
+        // copies, rebuild and equality carry the counts
+        BinarySearchTree<Integer> c = t.copy();
+        res &= t.equals(c) && c.count(distinct.get(0)) == t.count(distinct.get(0));
+        c.insert(distinct.get(0));
+        res &= !t.equals(c) && (t.compareStructure(c) || t.splaying);   // a splaying insert reshapes c
+        c.rebuild();
+        c.remove(distinct.get(0));
+        List<Integer> rebuilt = new ArrayList<>();
+        c.items(Multiplicity.OCCURRENCES).forEach(rebuilt::add);
+        res &= rebuilt.equals(occurrences) && checkNodes(c.root, false)
+                && (c.height() <= 31 - Integer.numberOfLeadingZeros(c.size()) || c.splaying);
+        res &= t.mirror().isMirror(t) && t.mirror().nodeCount(Multiplicity.OCCURRENCES) == occurrences.size();
+
+        // removing through the iterator takes one occurrence at a time
+        Iterator<Integer> it = c.items(Multiplicity.OCCURRENCES).iterator();
+        int removed = 0;
+        while(it.hasNext()) {
+            int x = it.next();
+            if(x % 2 == 0) {
+                it.remove();
+                removed++;
+            }
+        }
+        res &= c.nodeCount(Multiplicity.OCCURRENCES) == occurrences.size() - removed;
+        res &= c.stream().allMatch(x -> x % 2 != 0) && checkNodes(c.root, balance == Balance.AVL);
+
+        // batches count every occurrence
+        c.makeEmpty();
+        c.insertAll(Arrays.asList(3, 1, 3, 3, 2));
+        c.removeAll(Arrays.asList(3, 2));
+        res &= c.count(3) == 2 && c.count(2) == 0 && c.count(1) == 1 && c.nodeCount(Multiplicity.OCCURRENCES) == 3;
+
+        // set operations, files and mixed joins are rejected
+        try {
+            c.union(t);
+            res = false;
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            c.save(java.nio.file.Paths.get("unused.bst"), KeyCodec.INTEGER);
+            res = false;
+        } catch(UnsupportedOperationException | IOException e) {
+            res &= e instanceof UnsupportedOperationException;
+        }
+        try {
+            join(c, 10, new BinarySearchTree<Integer>(balance, features));
+            res = false;
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Multiset error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    public static void testSplay(Balance balance, int n) {
+        System.out.println("Test result for self-adjusting mode (" + balance + "): ");
+        System.out.println("The expected answer is: " + true);
+        Random random = new Random(n);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+        TreeSet<Integer> model = new TreeSet<>();
+        boolean res = true;
+        for(int i = 0; i < 20 * n; i++) {
+            int x = random.nextInt(2 * n);
+            switch(random.nextInt(5)) {
+            case 0: case 1:
+                t.insert(x);
+                model.add(x);
+                break;
+            case 2:
+                t.remove(x);
+                model.remove(x);
+                break;
+            case 3:
+                res &= !model.isEmpty() && t.findMin().equals(model.first()) && t.findMax().equals(model.last())
+                        || model.isEmpty();
+                break;
+            default:
+                res &= t.contains(x) == model.contains(x);
+                // A full splay leaves the item, or a neighbour on a miss, at the root
+                if(balance == Balance.SPLAY && !model.isEmpty()) {
+                    res &= t.root.element == x || t.root.element.equals(model.floor(x)) || t.root.element.equals(model.ceiling(x));
+                }
+                break;
+            }
+        }
+        List<Integer> items = new ArrayList<>();
+        t.forEach(items::add);
+        res &= items.equals(new ArrayList<>(model)) && t.size() == model.size() && checkNodes(t.root, false);
+
+        // Repeated lookups bring an item to the root: at once when splaying, within
+        // about log2(depth) lookups when semi-splaying
+        int deep = model.first();
+        for(int i = 0; i < 32 && t.root.element != deep; i++) {
+            t.contains(deep);
+        }
+        res &= t.root.element == deep && checkNodes(t.root, false);
+        t.findMax();
+        res &= balance != Balance.SPLAY || t.root.element.equals(model.last());
+
+        // Sorted insertion builds a chain, but each insert and the lookups that follow stay cheap
+        BinarySearchTree<Integer> sorted = new BinarySearchTree<>(balance);
+        for(int i = 0; i < 50 * n; i++) sorted.insert(i);
+        for(int i = 0; i < 50 * n; i++) res &= sorted.contains(i);
+        res &= sorted.size() == 50 * n && checkNodes(sorted.root, false);
+
+        // A 5% hot set that takes 90% of the lookups ends up near the root
+        TreeMetrics metrics = new TreeMetrics();
+        t.setMetrics(metrics);
+        Integer[] keys = model.toArray(new Integer[0]);
+        for(int i = 0; i < 20 * n; i++) {
+            int k = random.nextInt(10) < 9 ? random.nextInt(keys.length / 20) : random.nextInt(keys.length);
+            t.contains(keys[k]);
+        }
+        res &= metrics.snapshot().meanComparisons(TreeMetrics.Operation.CONTAINS) < Math.log(keys.length) / Math.log(2);
+        t.setMetrics(null);
+
+        // Lookups reshape the tree, so they end traversals in progress
+        Iterator<Integer> it = t.iterator();
+        it.next();
+        t.contains(keys[keys.length / 2]);
+        try {
+            it.next();
+            res = false;
+        } catch(ConcurrentModificationException e) {
+            // expected
+        }
+        try {
+            new BinarySearchTree<Integer>(balance, Feature.PERSISTENT);
+            res = false;
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Splay error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    public static void testLookupCache(Balance balance, LookupCache.Eviction eviction, int n) {
+        System.out.println("Test result for lookup cache (" + balance + ", " + eviction + "): ");
+        System.out.println("The expected answer is: " + true);
+        Random random = new Random(n);
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+        t.setLookupCache(n / 10, eviction);
+        TreeSet<Integer> model = new TreeSet<>();
+        boolean res = t.getLookupCache().capacity() == n / 10;
+        for(int i = 0; i < 20 * n; i++) {
+            // Lookups favour a few hot items so that the cache has something to keep
+            int x = random.nextInt(4) == 0 ? random.nextInt(2 * n) : random.nextInt(n / 20);
+            switch(random.nextInt(8)) {
+            case 0:
+                t.insert(x);
+                model.add(x);
+                break;
+            case 1:
+                t.remove(x);
+                model.remove(x);
+                break;
+            default:
+                res &= t.contains(x) == model.contains(x);
+                break;
+            }
+        }
+        res &= t.getLookupCache().hitCount() > 0 && t.getLookupCache().size() <= n / 10;
+
+        // Bulk updates and the iterator's remove
+        List<Integer> batch = new ArrayList<>();
+        for(int i = 0; i < n / 10; i++) batch.add(random.nextInt(n / 20));
+        t.removeAll(batch);
+        model.removeAll(batch);
+        for(int x = 0; x < n / 20; x++) res &= t.contains(x) == model.contains(x);
+        t.insertAll(batch);
+        model.addAll(batch);
+        for(int x = 0; x < n / 20; x++) res &= t.contains(x) == model.contains(x);
+        for(Iterator<Integer> it = t.iterator(); it.hasNext(); ) {
+            if(it.next() % 3 == 0) it.remove();
+        }
+        model.removeIf(x -> x % 3 == 0);
+        for(int x = 0; x < n / 20; x++) res &= t.contains(x) == model.contains(x);
+        if(balance != Balance.SPLAY) {
+            BinarySearchTree<Integer> other = new BinarySearchTree<>(balance);
+            for(int x = 0; x < n / 40; x++) other.insert(x);
+            t.union(other);
+            model.addAll(other.stream().collect(Collectors.toList()));
+            for(int x = 0; x < n / 20; x++) res &= t.contains(x) == model.contains(x);
+        }
+        BinarySearchTree<Integer> high = t.split(n / 40);
+        for(int x = 0; x < n / 20; x++) res &= t.contains(x) == (model.contains(x) && x < n / 40);
+        t.insertAll(high.stream().collect(Collectors.toList()));
+        for(int x = 0; x < n / 20; x++) res &= t.contains(x) == model.contains(x);
+
+        // Hits are counted by the metrics too, and cost no comparisons
+        TreeMetrics metrics = new TreeMetrics();
+        t.setMetrics(metrics);
+        for(int i = 0; i < 100; i++) t.contains(model.first());
+        TreeMetrics.Snapshot s = metrics.snapshot();
+        res &= s.cacheHits() + s.cacheMisses() == 100 && s.cacheHits() >= 99 && s.cacheHitRate() >= 0.99;
+        res &= s.comparisons(TreeMetrics.Operation.CONTAINS) < 100 && metrics.getCacheHitCount() == s.cacheHits();
+        t.setMetrics(null);
+
+        t.makeEmpty();
+        for(int x = 0; x < n / 20; x++) res &= !t.contains(x);
+
+        // A public rotation rotates a copy, so the cached answers still hold
+        if(balance == Balance.NONE) {
+            BinarySearchTree<Integer> r = new BinarySearchTree<>();
+            r.setLookupCache(16, eviction);
+            for(int x : new int[] {20, 13, 22}) r.insert(x);
+            res &= r.contains(13) && r.contains(13);
+            BinarySearchTree<Integer> rotated = r.rotateRight(20);
+            res &= r.contains(13) && r.contains(13, r.root) && r.contains(22) && rotated.contains(13);
+        }
+
+        t.setLookupCache(0, eviction);
+        res &= t.getLookupCache() == null;
+        try {
+            t.setLookupCache(-1, eviction);
+            res = false;
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("Lookup cache error!");
+        }
+        System.out.println("\n\n\n");
+    }
+
+    public static void testDeepTree(int n) {
+        System.out.println("Test result for a degenerate tree of " + n + " nodes: ");
+        // link the chain 0 -> 1 -> ... -> n-1 directly; inserting it would take O(n^2)
+        BinarySearchTree<Integer> t = new BinarySearchTree<>();
+        for(int i = n - 1; i >= 0; i--) {
+            BinaryNode<Integer> node = new BinaryNode<>(i, null, t.root);
+            node.height = n - 1 - i;
+            node.size = n - i;
+            node.total = n - i;
+            t.root = node;
+        }
+        t.size = n;
+        boolean res = t.nodeCount() == n && t.nodeCount(t.root) == n;
+        res &= !t.isFull() || n < 2;
+        res &= t.height(t.root) == n - 1;
+        res &= t.contains(n - 1) && !t.contains(n);
+        res &= t.findMin() == 0 && t.findMax() == n - 1;
+        BinarySearchTree<Integer> c = t.copy();
+        res &= t.equals(c) && t.compareStructure(c);
+        c = null;
+        BinarySearchTree<Integer> m = t.mirror();
+        res &= t.isMirror(m) && !t.equals(m) || n < 2;
+        m = null;
+        t.insert(n);
+        res &= t.contains(n) && t.height() == n;
+        t.remove(n / 2);
+        res &= !t.contains(n / 2) && t.size() == n && t.nodeCount(t.root) == n;
+        t.rotateLeft(n - 1);
+        res &= t.contains(n - 1) && t.contains(n);
+        List<List<Integer>> levels = new ArrayList<>();
+        t.printLevels(t.root, levels, 0);
+        res &= levels.size() == n;
+        res &= t.select(n - 1) == n && t.rank(n) == n - 1 && t.countInRange(0, n / 2) == n / 2;
+        res &= t.stream().count() == n && t.parallelStream().filter(x -> x % 2 == 0).count() == (n + 1) / 2;
+        System.out.println("The expected answer is: " + true);
+        System.out.println("The result got is: " + res);
+        if(!res) {
+            System.out.println("DeepTree error!");
+        }
+        System.out.println("\n\n\n");
+    }
 }
 
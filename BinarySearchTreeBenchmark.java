@@ -0,0 +1,713 @@
+// BinarySearchTreeBenchmark class
+//
+// Micro-benchmarks for BinarySearchTree. Each case is warmed up before it is
+// timed and reports the best of several rounds.
+//
+// Run: java BinarySearchTreeBenchmark [n ...]
+// Sizes may be written as 1e6. The per-operation, boxed-against-primitive and
+// skewed-lookup benchmarks are JMH benchmarks in src/jmh: gradle jmh.
+
+public class BinarySearchTreeBenchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+    // Sorted input makes the unbalanced tree quadratic; skip it beyond this size
+    private static final int MAX_UNBALANCED_SORTED = 20000;
+    // Items held while measuring a footprint with bytesPerItem
+    private static final int FOOTPRINT_ITEMS = 1 << 20;
+
+    public static void main( String [ ] args )
+    {
+        int[] sizes = { 1000, 2000, 4000, 8000 };
+        if( args.length > 0 ) {
+            sizes = new int[args.length];
+            for(int i = 0; i < args.length; i++) {
+                sizes[i] = (int) Double.parseDouble(args[i]);
+            }
+        }
+
+        for(int n : sizes) {
+            benchSortedInsert(BinarySearchTree.Balance.NONE, n);
+            benchSortedInsert(BinarySearchTree.Balance.AVL, n);
+            benchCache(n);
+            benchBulkLoad(n);
+            benchStorage(n);
+            benchWide(n);
+            benchFrozen(n);
+            benchBatch(BinarySearchTree.Balance.NONE, n);
+            benchBatch(BinarySearchTree.Balance.AVL, n);
+            benchParallel(n);
+            benchFile(n);
+            benchMetrics(n);
+            benchMap(n);
+            for(int writers = 1; writers <= 2; writers++) {
+                for(int readers = 1; readers <= 8; readers *= 2) {
+                    benchConcurrent(n, readers, writers);
+                }
+            }
+            for(int writers = 1; writers <= 4; writers *= 4) {
+                benchDurable(n, writers);
+            }
+        }
+    }
+
+    /** Orders in which keys() returns n keys. */
+    public enum KeyOrder
+    {
+        SORTED,         // 0, 1, ..., n-1
+        RANDOM,         // a random permutation of 0..n-1
+        ZIPFIAN,        // n draws from 0..n-1 with Zipf skew ZIPF_THETA; hot keys repeat
+        ADVERSARIAL     // 0, n-1, 1, n-2, ...; a zigzag chain for the unbalanced tree
+    }
+
+    private static final double ZIPF_THETA = 0.99;
+
+    /**
+     * Returns n keys in the given order.
+     */
+    public static int[] keys(KeyOrder order, int n) {
+        int[] keys = new int[n];
+        java.util.Random random = new java.util.Random(n);
+        switch(order) {
+        case SORTED:
+            for(int i = 0; i < n; i++) keys[i] = i;
+            break;
+        case RANDOM:
+            for(int i = 0; i < n; i++) {
+                int j = random.nextInt(i + 1);  // Fisher-Yates, inside out
+                keys[i] = keys[j];
+                keys[j] = i;
+            }
+            break;
+        case ZIPFIAN:
+            Zipfian.fill(keys, n, ZIPF_THETA, random);
+            break;
+        case ADVERSARIAL:
+            for(int i = 0; i < n; i++) keys[i] = i % 2 == 0 ? i / 2 : n - 1 - i / 2;
+            break;
+        }
+        return keys;
+    }
+
+    /**
+     * Times inserting 0..n-1 in ascending order followed by a contains for every key.
+     */
+    public static void benchSortedInsert(BinarySearchTree.Balance balance, int n) {
+        if(balance == BinarySearchTree.Balance.NONE && n > MAX_UNBALANCED_SORTED) {
+            System.out.printf("%-16s %-10s n=%-10d skipped (quadratic)%n", "sorted insert", balance, n);
+            return;
+        }
+        long insertNanos = Long.MAX_VALUE;
+        long containsNanos = Long.MAX_VALUE;
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            BinarySearchTree<Integer> t = new BinarySearchTree<>(balance);
+            long start = System.nanoTime();
+            for(int i = 0; i < n; i++) {
+                t.insert(i);
+            }
+            long mid = System.nanoTime();
+            for(int i = 0; i < n; i++) {
+                if(!t.contains(i)) {
+                    throw new IllegalStateException("missing key " + i);
+                }
+            }
+            long end = System.nanoTime();
+            if(round >= WARMUP_ROUNDS) {
+                insertNanos = Math.min(insertNanos, mid - start);
+                containsNanos = Math.min(containsNanos, end - mid);
+            }
+        }
+        report("sorted insert", balance, n, insertNanos);
+        report("contains", balance, n, containsNanos);
+    }
+
+    /**
+     * Times building a tree from 0..n-1 with bulkLoad and flattening a degenerate one with rebuild.
+     */
+    public static void benchBulkLoad(int n) {
+        java.util.List<Integer> sorted = new java.util.ArrayList<>(n);
+        for(int i = 0; i < n; i++) {
+            sorted.add(i);
+        }
+        long loadNanos = Long.MAX_VALUE;
+        long rebuildNanos = Long.MAX_VALUE;
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            BinarySearchTree<Integer> t = BinarySearchTree.bulkLoad(sorted.iterator());
+            long mid = System.nanoTime();
+            t = t.rotateRight(t.select((n - 1) / 2));   // unbalance the root; rebuild is O(n) regardless
+            t.rebuild();
+            long end = System.nanoTime();
+            if(round >= WARMUP_ROUNDS) {
+                loadNanos = Math.min(loadNanos, mid - start);
+                rebuildNanos = Math.min(rebuildNanos, end - mid);
+            }
+        }
+        report("bulk load", BinarySearchTree.Balance.NONE, n, loadNanos);
+        report("rebuild", BinarySearchTree.Balance.NONE, n, rebuildNanos);
+    }
+
+    /**
+     * Times merging a batch of n random keys into a tree of n random keys with
+     * insertAll and removeAll, against a loop of single inserts and removes.
+     */
+    public static void benchBatch(BinarySearchTree.Balance balance, int n) {
+        java.util.Random random = new java.util.Random(n);
+        BinarySearchTree<Integer> base = new BinarySearchTree<>(balance);
+        for(int i = 0; i < n; i++) {
+            base.insert(random.nextInt());
+        }
+        java.util.List<Integer> batch = new java.util.ArrayList<>(n);
+        for(int i = 0; i < n; i++) {
+            batch.add(random.nextInt());
+        }
+        long[] loop = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] merged = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            boolean timed = round >= WARMUP_ROUNDS;
+
+            BinarySearchTree<Integer> t = base.copy();
+            long start = System.nanoTime();
+            for(Integer x : batch) t.insert(x);
+            long mid = System.nanoTime();
+            for(Integer x : batch) t.remove(x);
+            record(loop, timed, start, mid, System.nanoTime());
+            int expected = t.size();
+
+            t = base.copy();
+            start = System.nanoTime();
+            t.insertAll(batch);
+            mid = System.nanoTime();
+            t.removeAll(batch);
+            record(merged, timed, start, mid, System.nanoTime());
+            if(t.size() != expected) {
+                throw new IllegalStateException("batch size " + t.size() + " != " + expected);
+            }
+        }
+        report("insert loop", balance, n, loop[0]);
+        report("insertAll", balance, n, merged[0]);
+        report("remove loop", balance, n, loop[1]);
+        report("removeAll", balance, n, merged[1]);
+    }
+
+    /**
+     * Times AVL lookups with and without a lookup cache of n/20 items under each
+     * eviction policy, on skewed workloads, as in the JMH SkewedBenchmark, and on uniform
+     * lookups, where the cache only adds its own cost. The cache starts cold in
+     * every round. Also reports the hit rate, to help size the cache.
+     */
+    public static void benchCache(int n) {
+        java.util.Random random = new java.util.Random(n);
+        int[] keys = keys(KeyOrder.RANDOM, n);
+        int[] zipfian = new int[4 * n];
+        Zipfian.fill(zipfian, n, ZIPF_THETA, random);
+        int[] hot = new int[4 * n];
+        int[] uniform = new int[4 * n];
+        for(int i = 0; i < hot.length; i++) {
+            hot[i] = keys[random.nextInt(10) < 9 ? random.nextInt(Math.max(1, n / 20)) : random.nextInt(n)];
+            uniform[i] = keys[random.nextInt(n)];
+        }
+        String[] workloads = { "zipfian", "hot 5%", "uniform" };
+        int[][] lookups = { zipfian, hot, uniform };
+        int capacity = Math.max(1, n / 20);
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        for(int w = 0; w < workloads.length; w++) {
+            for(int c = -1; c < LookupCache.Eviction.values().length; c++) {
+                LookupCache.Eviction eviction = c < 0 ? null : LookupCache.Eviction.values()[c];
+                long best = Long.MAX_VALUE;
+                double hitRate = 0;
+                for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                    BinarySearchTree<Integer> t = new BinarySearchTree<>(avl);
+                    for(int k : keys) t.insert(k);
+                    if(eviction != null) t.setLookupCache(capacity, eviction);
+                    int found = 0;
+                    long start = System.nanoTime();
+                    for(int k : lookups[w]) found += t.contains(k) ? 1 : 0;
+                    long nanos = System.nanoTime() - start;
+                    if(round >= WARMUP_ROUNDS) best = Math.min(best, nanos);
+                    if(eviction != null) hitRate = t.getLookupCache().hitRate();
+                    sink += found;
+                }
+                System.out.printf("%-16s %-10s n=%-10d %10.1f ns/op %8.3f hit rate%n", "cache " + workloads[w],
+                        eviction == null ? "none" : eviction, n, (double) best / lookups[w].length, hitRate);
+            }
+        }
+    }
+
+    /**
+     * Compares node objects with array-backed storage: random insert and lookup
+     * times, plus the retained heap per item (keys are shared, so they cancel out).
+     */
+    public static void benchStorage(int n) {
+        Integer[] keys = new java.util.Random(n).ints(n).boxed().toArray(Integer[]::new);
+        long[] nodes = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] arrays = { Long.MAX_VALUE, Long.MAX_VALUE };
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        int found = 0;
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            boolean timed = round >= WARMUP_ROUNDS;
+
+            long start = System.nanoTime();
+            BinarySearchTree<Integer> b = new BinarySearchTree<>(avl);
+            for(Integer k : keys) b.insert(k);
+            long mid = System.nanoTime();
+            for(Integer k : keys) found += b.contains(k) ? 1 : 0;
+            record(nodes, timed, start, mid, System.nanoTime());
+
+            start = System.nanoTime();
+            ArrayBinarySearchTree<Integer> a = new ArrayBinarySearchTree<>(avl);
+            for(Integer k : keys) a.insert(k);
+            mid = System.nanoTime();
+            for(Integer k : keys) found += a.contains(k) ? 1 : 0;
+            record(arrays, timed, start, mid, System.nanoTime());
+        }
+        if(found != 2 * n * (WARMUP_ROUNDS + TIMED_ROUNDS)) {
+            throw new IllegalStateException("missing keys");
+        }
+        report("insert nodes", avl, n, nodes[0]);
+        report("insert arrays", avl, n, arrays[0]);
+        report("contains nodes", avl, n, nodes[1]);
+        report("contains arrays", avl, n, arrays[1]);
+
+        long base = usedHeap();
+        BinarySearchTree<Integer> b = new BinarySearchTree<>(avl);
+        for(Integer k : keys) b.insert(k);
+        long nodeBytes = usedHeap() - base;
+        int nodeItems = b.size();     // keeps b reachable through the measurement
+        b = null;
+        base = usedHeap();
+        ArrayBinarySearchTree<Integer> a = new ArrayBinarySearchTree<>(avl);
+        for(Integer k : keys) a.insert(k);
+        long arrayBytes = usedHeap() - base;
+        System.out.printf("%-16s %-10s n=%-10d %10.1f bytes/item (nodes) %6.1f bytes/item (arrays)%n",
+                "footprint", avl, n, (double) nodeBytes / nodeItems, (double) arrayBytes / a.size());
+    }
+
+    /**
+     * Compares the binary node layout with wide B+ tree nodes of 16, 32 and 64 keys:
+     * random insert and lookup times, plus the retained heap per item (keys are
+     * shared, so they cancel out).
+     */
+    public static void benchWide(int n) {
+        Integer[] keys = new java.util.Random(n).ints(n).boxed().toArray(Integer[]::new);
+        int[] widths = { 16, 32, 64 };
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        long[][] times = new long[widths.length + 1][];
+        for(int i = 0; i < times.length; i++) {
+            times[i] = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+        }
+        int found = 0;
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            boolean timed = round >= WARMUP_ROUNDS;
+
+            long start = System.nanoTime();
+            BinarySearchTree<Integer> b = new BinarySearchTree<>(avl);
+            for(Integer k : keys) b.insert(k);
+            long mid = System.nanoTime();
+            for(Integer k : keys) found += b.contains(k) ? 1 : 0;
+            record(times[0], timed, start, mid, System.nanoTime());
+
+            for(int i = 0; i < widths.length; i++) {
+                start = System.nanoTime();
+                WideBinarySearchTree<Integer> w = new WideBinarySearchTree<>(widths[i]);
+                for(Integer k : keys) w.insert(k);
+                mid = System.nanoTime();
+                for(Integer k : keys) found += w.contains(k) ? 1 : 0;
+                record(times[i + 1], timed, start, mid, System.nanoTime());
+            }
+        }
+        if(found != (widths.length + 1) * n * (WARMUP_ROUNDS + TIMED_ROUNDS)) {
+            throw new IllegalStateException("missing keys");
+        }
+        report("insert binary", avl, n, times[0][0]);
+        for(int i = 0; i < widths.length; i++) {
+            report("insert wide" + widths[i], avl, n, times[i + 1][0]);
+        }
+        report("contains binary", avl, n, times[0][1]);
+        for(int i = 0; i < widths.length; i++) {
+            report("contains wide" + widths[i], avl, n, times[i + 1][1]);
+        }
+
+        System.out.printf("%-16s %-10s n=%-10d %10.1f bytes/item (binary)%n", "footprint", avl, n,
+                bytesPerItem(n, () -> {
+                    BinarySearchTree<Integer> t = new BinarySearchTree<>(avl);
+                    for(Integer k : keys) t.insert(k);
+                    return t;
+                }));
+        for(int width : widths) {
+            System.out.printf("%-16s %-10s n=%-10d %10.1f bytes/item (wide%d)%n", "footprint", avl, n,
+                    bytesPerItem(n, () -> {
+                        WideBinarySearchTree<Integer> t = new WideBinarySearchTree<>(width);
+                        for(Integer k : keys) t.insert(k);
+                        return t;
+                    }), width);
+        }
+    }
+
+    /**
+     * Compares lookups on an AVL tree with lookups on its frozen Eytzinger copy:
+     * contains and floor for n random probes, half of them missing, and one full
+     * in-order iteration. Freezing itself is timed too.
+     */
+    public static void benchFrozen(int n) {
+        java.util.Random random = new java.util.Random(n);
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        BinarySearchTree<Integer> t = new BinarySearchTree<>(avl);
+        while(t.size() < n) t.insert(random.nextInt(2 * n) * 2);
+        Integer[] probes = new Integer[n];
+        for(int i = 0; i < n; i++) probes[i] = random.nextInt(4 * n);
+        String[] ops = { "contains", "floor", "iterate" };
+        long[][] best = { new long[ops.length], new long[ops.length] };
+        for(long[] b : best) java.util.Arrays.fill(b, Long.MAX_VALUE);
+        long freeze = Long.MAX_VALUE;
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            boolean timed = round >= WARMUP_ROUNDS;
+            long start = System.nanoTime();
+            FrozenBinarySearchTree<Integer> f = t.freeze();
+            long frozenAt = System.nanoTime();
+            if(timed) freeze = Math.min(freeze, frozenAt - start);
+
+            long hits = 0;
+            long[] nanos = new long[ops.length];
+            for(int frozen = 0; frozen < 2; frozen++) {
+                start = System.nanoTime();
+                for(Integer x : probes) hits += (frozen == 1 ? f.contains(x) : t.contains(x)) ? 1 : 0;
+                long mid = System.nanoTime();
+                for(Integer x : probes) {
+                    Integer y = frozen == 1 ? f.floor(x) : t.floor(x);
+                    hits += y == null ? 0 : y;
+                }
+                long mid2 = System.nanoTime();
+                for(Integer x : frozen == 1 ? f : t) hits += x;
+                long end = System.nanoTime();
+                nanos[0] = mid - start;
+                nanos[1] = mid2 - mid;
+                nanos[2] = end - mid2;
+                if(timed) {
+                    for(int i = 0; i < ops.length; i++) best[frozen][i] = Math.min(best[frozen][i], nanos[i]);
+                }
+            }
+            sink += hits;
+        }
+        report("freeze", avl, n, freeze);
+        for(int i = 0; i < ops.length; i++) {
+            report(ops[i] + " tree", avl, n, best[0][i]);
+            report(ops[i] + " frozen", avl, n, best[1][i]);
+        }
+    }
+
+    /**
+     * Measures read and write throughput for a mix of reader threads calling contains
+     * and writer threads alternating insert and remove, comparing the lock-free
+     * ConcurrentBinarySearchTree with an AVL BinarySearchTree behind one global lock.
+     */
+    public static void benchConcurrent(int n, int readers, int writers) {
+        ConcurrentBinarySearchTree<Integer> concurrent = new ConcurrentBinarySearchTree<>();
+        BinarySearchTree<Integer> locked = new BinarySearchTree<>(BinarySearchTree.Balance.AVL);
+        for(int i = 0; i < n; i += 2) {
+            concurrent.insert(i);
+            locked.insert(i);
+        }
+        long[] lockFree = runMixed(readers, writers, n, concurrent::contains,
+                x -> { concurrent.insert(x); concurrent.remove(x); });
+        long[] global = runMixed(readers, writers, n,
+                x -> { synchronized(locked) { return locked.contains(x); } },
+                x -> { synchronized(locked) { locked.insert(x); locked.remove(x); } });
+        System.out.printf("%-16s r=%d w=%d n=%-10d lock-free %12.0f reads/s %10.0f writes/s | "
+                        + "global lock %12.0f reads/s %10.0f writes/s%n",
+                "concurrent", readers, writers, n,
+                lockFree[0] * 1e9 / CONCURRENT_NANOS, lockFree[1] * 1e9 / CONCURRENT_NANOS,
+                global[0] * 1e9 / CONCURRENT_NANOS, global[1] * 1e9 / CONCURRENT_NANOS);
+    }
+
+    /**
+     * Times the whole-tree operations on a balanced tree, sequentially and in
+     * fork-join pools of 1, 2, 4, ... workers up to the number of cores.
+     * n is rounded down to 2^k - 1 so that the tree is full and isFull visits every node.
+     */
+    public static void benchParallel(int n) {
+        n = Integer.highestOneBit(n + 1) - 1;
+        BinarySearchTree<Integer> t = BinarySearchTree.bulkLoad(java.util.stream.IntStream.range(0, n).iterator());
+        BinarySearchTree<Integer> c = t.copy();
+        BinarySearchTree<Integer> m = t.mirror();
+        String[] ops = { "copy", "mirror", "equals", "isMirror", "structure", "isFull" };
+        java.util.List<java.util.function.Supplier<Object>> runs = java.util.Arrays.asList(
+                t::copy, t::mirror, () -> t.equals(c), () -> t.isMirror(m), () -> t.compareStructure(c), t::isFull);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for(int p = 0; p <= cores; p = p == 0 ? 1 : p * 2) {
+            // p == 0 is the sequential baseline
+            t.setParallelThreshold(p == 0 ? Integer.MAX_VALUE : Math.max(1, n / (16 * p)));   // ~16 tasks per worker
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(Math.max(1, p));
+            for(int op = 0; op < ops.length; op++) {
+                java.util.function.Supplier<Object> run = runs.get(op);
+                long best = Long.MAX_VALUE;
+                for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    Object result = pool.submit(run::get).join();
+                    long end = System.nanoTime();
+                    sink += result.hashCode();
+                    if(round >= WARMUP_ROUNDS) {
+                        best = Math.min(best, end - start);
+                    }
+                }
+                report(ops[op] + (p == 0 ? " seq" : " p=" + p), BinarySearchTree.Balance.NONE, n, best);
+            }
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compares warm-start paths for n random keys: inserting them one by one,
+     * loading a saved file into a balanced tree, and querying the mapped file directly.
+     */
+    public static void benchFile(int n) {
+        int[] keys = new java.util.Random(n).ints(n).toArray();
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        long[] insert = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] file = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long mapped = Long.MAX_VALUE;
+        java.nio.file.Path path = null;
+        try {
+            path = java.nio.file.Files.createTempFile("bench", ".bst");
+            for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                boolean timed = round >= WARMUP_ROUNDS;
+
+                long start = System.nanoTime();
+                BinarySearchTree<Integer> t = new BinarySearchTree<>(avl);
+                for(int k : keys) t.insert(k);
+                long mid = System.nanoTime();
+                t.save(path, KeyCodec.INTEGER);
+                record(insert, timed, start, mid, System.nanoTime());
+
+                start = System.nanoTime();
+                BinarySearchTree<Integer> loaded = BinarySearchTree.load(path, KeyCodec.INTEGER, avl);
+                mid = System.nanoTime();
+                int found = 0;
+                for(int k : keys) found += loaded.contains(k) ? 1 : 0;
+                record(file, timed, start, mid, System.nanoTime());
+
+                try(MappedBinarySearchTree<Integer> m = MappedBinarySearchTree.open(path, KeyCodec.INTEGER)) {
+                    start = System.nanoTime();
+                    for(int k : keys) found += m.contains(k) ? 1 : 0;
+                    if(timed) {
+                        mapped = Math.min(mapped, System.nanoTime() - start);
+                    }
+                }
+                if(found != 2 * n) {
+                    throw new IllegalStateException("missing keys");
+                }
+            }
+        } catch(java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        } finally {
+            if(path != null) {
+                path.toFile().delete();
+            }
+        }
+        report("insert rebuild", avl, n, insert[0]);
+        report("save", avl, n, insert[1]);
+        report("load", avl, n, file[0]);
+        report("contains tree", avl, n, file[1]);
+        report("contains mapped", avl, n, mapped);
+    }
+
+    /**
+     * Measures update throughput of a DurableBinarySearchTree holding n/2 keys under
+     * each sync policy, with writer threads alternating insert and remove, and the
+     * time to recover the tree by reopening it afterwards.
+     */
+    public static void benchDurable(int n, int writers) {
+        for(DurableBinarySearchTree.SyncPolicy policy : DurableBinarySearchTree.SyncPolicy.values()) {
+            java.nio.file.Path directory = null;
+            try {
+                directory = java.nio.file.Files.createTempDirectory("bench");
+                DurableBinarySearchTree<Integer> t = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, policy);
+                for(int i = 0; i < n; i += 2) {
+                    t.insert(i);
+                }
+                t.checkpoint();
+                long[] updates = runMixed(0, writers, n, x -> false, x -> {
+                    try {
+                        t.insert(x);
+                        t.remove(x);
+                    } catch(java.io.IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+                t.close();
+                long start = System.nanoTime();
+                DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, policy).close();
+                long recover = System.nanoTime() - start;
+                System.out.printf("%-16s w=%d n=%-10d %-12s %10.0f updates/s   recover %8.1f ms%n",
+                        "durable", writers, n, policy, 2 * updates[1] * 1e9 / CONCURRENT_NANOS, recover / 1e6);
+            } catch(java.io.IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            } finally {
+                if(directory != null) {
+                    for(java.io.File file : directory.toFile().listFiles()) {
+                        file.delete();
+                    }
+                    directory.toFile().delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Times random inserts and lookups on an AVL tree without metrics and with
+     * TreeMetrics attached, to show the cost of recording.
+     */
+    public static void benchMetrics(int n) {
+        int[] keys = new java.util.Random(n).ints(n).toArray();
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        long[] off = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] on = { Long.MAX_VALUE, Long.MAX_VALUE };
+        TreeMetrics metrics = new TreeMetrics();
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            for(TreeMetrics attached : new TreeMetrics[] { null, metrics }) {
+                BinarySearchTree<Integer> t = new BinarySearchTree<>(avl);
+                t.setMetrics(attached);
+                long start = System.nanoTime();
+                for(int k : keys) t.insert(k);
+                long mid = System.nanoTime();
+                int found = 0;
+                for(int k : keys) found += t.contains(k) ? 1 : 0;
+                record(attached == null ? off : on, round >= WARMUP_ROUNDS, start, mid, System.nanoTime());
+                sink += found;
+            }
+        }
+        report("insert plain", avl, n, off[0]);
+        report("insert stats", avl, n, on[0]);
+        report("contains plain", avl, n, off[1]);
+        report("contains stats", avl, n, on[1]);
+    }
+
+    /**
+     * Compares keeping values in a BinarySearchTreeMap with the pairing it
+     * replaces, an AVL BinarySearchTree of keys beside a HashMap of values:
+     * n random puts, then a lookup of every value.
+     */
+    public static void benchMap(int n) {
+        int[] keys = new java.util.Random(n).ints(n).toArray();
+        BinarySearchTree.Balance avl = BinarySearchTree.Balance.AVL;
+        long[] pair = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] map = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for(int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            boolean timed = round >= WARMUP_ROUNDS;
+            int found = 0;
+
+            long start = System.nanoTime();
+            BinarySearchTree<Integer> t = new BinarySearchTree<>(avl);
+            java.util.HashMap<Integer, Integer> values = new java.util.HashMap<>();
+            for(int k : keys) {
+                t.insert(k);
+                values.put(k, k);
+            }
+            long mid = System.nanoTime();
+            for(int k : keys) {
+                if(t.contains(k)) {
+                    found += values.get(k) == k ? 1 : 0;
+                }
+            }
+            record(pair, timed, start, mid, System.nanoTime());
+
+            start = System.nanoTime();
+            BinarySearchTreeMap<Integer, Integer> m = new BinarySearchTreeMap<>(avl);
+            for(int k : keys) m.put(k, k);
+            mid = System.nanoTime();
+            for(int k : keys) {
+                Integer v = m.get(k);
+                found += v != null && v == k ? 1 : 0;
+            }
+            record(map, timed, start, mid, System.nanoTime());
+            if(found != 2 * n) {
+                throw new IllegalStateException("missing keys");
+            }
+        }
+        report("put tree+hash", avl, n, pair[0]);
+        report("put map", avl, n, map[0]);
+        report("get tree+hash", avl, n, pair[1]);
+        report("get map", avl, n, map[1]);
+    }
+
+    private static final long CONCURRENT_NANOS = 500_000_000L;
+    private static volatile int sink;
+
+    // Run the threads for CONCURRENT_NANOS; returns { reads, writes } completed
+    private static long[] runMixed(int readers, int writers, int n,
+                                   java.util.function.IntPredicate read, java.util.function.IntConsumer write) {
+        java.util.concurrent.atomic.LongAdder reads = new java.util.concurrent.atomic.LongAdder();
+        java.util.concurrent.atomic.LongAdder writes = new java.util.concurrent.atomic.LongAdder();
+        java.util.concurrent.atomic.AtomicBoolean stop = new java.util.concurrent.atomic.AtomicBoolean();
+        java.util.List<Thread> threads = new java.util.ArrayList<>();
+        for(int i = 0; i < readers + writers; i++) {
+            boolean reader = i < readers;
+            int seed = i;
+            threads.add(new Thread(() -> {
+                java.util.SplittableRandom random = new java.util.SplittableRandom(seed);
+                long ops = 0;
+                int hits = 0;
+                while(!stop.get()) {
+                    int x = random.nextInt(n);
+                    if(reader) {
+                        hits += read.test(x) ? 1 : 0;
+                    } else {
+                        write.accept(x | 1);    // odd keys are never preloaded
+                    }
+                    ops++;
+                }
+                (reader ? reads : writes).add(ops);
+                sink += hits;   // keep the lookups from being optimized away
+            }));
+        }
+        threads.forEach(Thread::start);
+        try {
+            Thread.sleep(CONCURRENT_NANOS / 1_000_000);
+            stop.set(true);
+            for(Thread thread : threads) {
+                thread.join();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new long[] { reads.sum(), writes.sum() };
+    }
+
+    /**
+     * Returns the retained heap per item of the structures built by build, each
+     * holding n items. Enough copies are kept to hold FOOTPRINT_ITEMS items, so the
+     * heap accounting noise of about a megabyte is spread thin.
+     */
+    private static double bytesPerItem(int n, java.util.function.Supplier<Object> build) {
+        Object[] copies = new Object[Math.max(1, FOOTPRINT_ITEMS / n)];
+        long base = usedHeap();
+        for(int i = 0; i < copies.length; i++) {
+            copies[i] = build.get();
+        }
+        long bytes = usedHeap() - base;
+        java.lang.ref.Reference.reachabilityFence(copies);
+        return (double) bytes / ((long) copies.length * n);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Keep the best insert (mid - start) and lookup (end - mid) times of the timed rounds
+    private static void record(long[] best, boolean timed, long start, long mid, long end) {
+        if(timed) {
+            best[0] = Math.min(best[0], mid - start);
+            best[1] = Math.min(best[1], end - mid);
+        }
+    }
+
+    private static void report(String op, BinarySearchTree.Balance balance, int n, long nanos) {
+        System.out.printf("%-16s %-10s n=%-10d %10.1f ns/op %12.0f ops/s%n",
+                op, balance, n, (double) nanos / n, n * 1e9 / nanos);
+    }
+}
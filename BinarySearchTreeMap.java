@@ -0,0 +1,559 @@
+// BinarySearchTreeMap class
+//
+// CONSTRUCTION: with no initializer, or with a Balance mode
+//
+// ******************PUBLIC OPERATIONS*********************
+// V get( k )                       --> Return the value of k, or null
+// boolean containsKey( k )         --> Return true if k has a value
+// V put( k, v )                    --> Set the value of k; return the old one
+// V putIfAbsent( k, v )            --> Set the value of k unless it has one
+// V computeIfAbsent( k, f )        --> Return the value of k, setting it to f( k ) if needed
+// V merge( k, v, f )               --> Set k to v, or to f( old, v ) if it has a value
+// V remove( k )                    --> Remove k; return its value
+// int size( )                      --> Return the number of keys
+// boolean isEmpty( )               --> Return true if empty; else false
+// void makeEmpty( )                --> Remove all keys
+// Entry firstEntry( ), lastEntry( ) --> Return the entry of the smallest/largest key, or null
+// Entry floorEntry( k ), ceilingEntry( k ) --> Return the nearest entry at or below/above k, or null
+// Iterable subMap( lo, hi )        --> Return a lazy view of the entries in a key range
+// Iterable headMap( hi )           --> Return a lazy view of the entries below hi
+// Iterable tailMap( lo )           --> Return a lazy view of the entries above lo
+// Iterator iterator( )             --> Return a lazy in-order iterator over the entries
+// void setLookupCache( n, e )      --> Answer repeated gets from a cache of n keys; 0 to stop
+// LookupCache getLookupCache( )    --> Return the cache, for its hit and miss counts
+// ******************ERRORS********************************
+// Throws NullPointerException for null keys or values
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Implements a sorted map on a BinarySearchTree of entries ordered by key, so
+ * a key and its value share one node. get, put, putIfAbsent, computeIfAbsent and
+ * merge each make a single root-to-leaf descent; computeIfAbsent and merge make a
+ * second one only to remove the entry when the function returns null.
+ * The entries handed out are live: setValue on them writes through to the map.
+ * An optional LookupCache, keyed by key, lets get and containsKey skip the
+ * descent for hot keys; it holds the live entries, so changing a value needs
+ * no invalidation, only adding or removing a key does.
+ * Keys and values may not be null.
+ */
+public class BinarySearchTreeMap<K extends Comparable<? super K>, V> implements Iterable<Map.Entry<K, V>>
+{
+    /**
+     * Construct the map, unbalanced.
+     */
+    public BinarySearchTreeMap( )
+    {
+        this( BinarySearchTree.Balance.NONE );
+    }
+
+    /**
+     * Construct the map with the given balancing strategy.
+     * @param balance the strategy applied by put and remove.
+     */
+    public BinarySearchTreeMap( BinarySearchTree.Balance balance )
+    {
+        tree = new BinarySearchTree<>( balance );
+    }
+
+    /**
+     * Find the value of a key.
+     * @param key the key to search for.
+     * @return the value, or null if the key is not found.
+     */
+    public V get( K key )
+    {
+        Entry<K, V> e = entry( key );
+        return e == null ? null : e.value;
+    }
+
+    /**
+     * Returns true if the key has a value.
+     * @param key the key to search for.
+     */
+    public boolean containsKey( K key )
+    {
+        return entry( key ) != null;
+    }
+
+    /**
+     * Set the value of a key.
+     * @param key the key.
+     * @param value the new value.
+     * @return the previous value, or null if the key had none.
+     */
+    public V put( K key, V value )
+    {
+        Entry<K, V> e = new Entry<>( key, Objects.requireNonNull( value ) );
+        Entry<K, V> existing = tree.intern( e );
+        if( existing == e )
+        {
+            invalidate( key );
+            return null;
+        }
+        V old = existing.value;
+        existing.value = value;
+        return old;
+    }
+
+    /**
+     * Set the value of a key unless it already has one.
+     * @param key the key.
+     * @param value the value to set.
+     * @return the value the key already had, or null if it was set.
+     */
+    public V putIfAbsent( K key, V value )
+    {
+        Entry<K, V> e = new Entry<>( key, Objects.requireNonNull( value ) );
+        Entry<K, V> existing = tree.intern( e );
+        if( existing != e )
+            return existing.value;
+        invalidate( key );
+        return null;
+    }
+
+    /**
+     * Find the value of a key, computing and setting it if the key has none.
+     * The function must not modify the map.
+     * @param key the key.
+     * @param mapping computes the value from the key; null leaves the key without one.
+     * @return the value of the key, or null if the function returned null.
+     */
+    public V computeIfAbsent( K key, Function<? super K, ? extends V> mapping )
+    {
+        Entry<K, V> e = new Entry<>( key, null );
+        Entry<K, V> existing = tree.intern( e );
+        if( existing != e )
+            return existing.value;
+
+        // The entry is already linked in; fill it, or take it out again if there is no value
+        V value = null;
+        try
+        {
+            value = mapping.apply( key );
+        }
+        finally
+        {
+            if( value == null )
+                tree.remove( e );
+            invalidate( key );
+        }
+        return e.value = value;
+    }
+
+    /**
+     * Set the value of a key, combining it with the old value if there is one.
+     * @param key the key.
+     * @param value the value to set, or to combine with the old value.
+     * @param remapping combines the old value and the given one; null removes the key.
+     * @return the new value of the key, or null if it was removed.
+     */
+    public V merge( K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping )
+    {
+        Entry<K, V> e = new Entry<>( key, Objects.requireNonNull( value ) );
+        Entry<K, V> existing = tree.intern( e );
+        if( existing == e )
+        {
+            invalidate( key );
+            return value;
+        }
+        V merged = remapping.apply( existing.value, value );
+        if( merged == null )
+        {
+            tree.remove( existing );
+            invalidate( key );
+        }
+        return existing.value = merged;
+    }
+
+    /**
+     * Remove a key and its value. Nothing is done if the key is not found.
+     * @param key the key to remove.
+     * @return the value it had, or null if it was not found.
+     */
+    public V remove( K key )
+    {
+        Entry<K, V> e = entry( key );
+        if( e == null )
+            return null;
+        tree.remove( e );
+        invalidate( key );
+        return e.value;
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     */
+    public int size( )
+    {
+        return tree.size( );
+    }
+
+    /**
+     * Test if the map is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return tree.isEmpty( );
+    }
+
+    /**
+     * Make the map logically empty.
+     */
+    public void makeEmpty( )
+    {
+        tree.makeEmpty( );
+        if( cache != null )
+            cache.clear( );
+    }
+
+    /**
+     * Put a bounded cache in front of get and containsKey, so that a hot key is
+     * found by one hash lookup instead of a descent. The cache remembers missing
+     * keys as well. Keys must have equals and hashCode consistent with compareTo.
+     * @param capacity the most keys cached, or 0 to remove the cache.
+     * @param eviction how the cache chooses a key to drop when full.
+     * @throws IllegalArgumentException if capacity is negative.
+     */
+    public void setLookupCache( int capacity, LookupCache.Eviction eviction )
+    {
+        if( capacity < 0 )
+            throw new IllegalArgumentException( "Capacity must not be negative: " + capacity );
+        cache = capacity == 0 ? null : new LookupCache<>( capacity, eviction );
+    }
+
+    /**
+     * Returns the lookup cache of this map, or null if it has none.
+     */
+    public LookupCache<K, ?> getLookupCache( )
+    {
+        return cache;
+    }
+
+    /**
+     * Returns the entry of the smallest key, or null if the map is empty.
+     */
+    public Map.Entry<K, V> firstEntry( )
+    {
+        return tree.isEmpty( ) ? null : tree.findMin( );
+    }
+
+    /**
+     * Returns the entry of the largest key, or null if the map is empty.
+     */
+    public Map.Entry<K, V> lastEntry( )
+    {
+        return tree.isEmpty( ) ? null : tree.findMax( );
+    }
+
+    /**
+     * Returns the entry of the largest key <= key, or null if there is none.
+     */
+    public Map.Entry<K, V> floorEntry( K key )
+    {
+        return tree.floor( probe( key ) );
+    }
+
+    /**
+     * Returns the entry of the smallest key >= key, or null if there is none.
+     */
+    public Map.Entry<K, V> ceilingEntry( K key )
+    {
+        return tree.ceiling( probe( key ) );
+    }
+
+    /**
+     * Obtains a lazy view of the entries whose keys lie between lo and hi, in
+     * ascending key order. Creating it is O(1); iterating it takes O(log n + k).
+     * @param lo the low end of the range.
+     * @param loInclusive true to include lo itself.
+     * @param hi the high end of the range.
+     * @param hiInclusive true to include hi itself.
+     * @throws IllegalArgumentException if lo is greater than hi.
+     */
+    public Iterable<Map.Entry<K, V>> subMap( K lo, boolean loInclusive, K hi, boolean hiInclusive )
+    {
+        return entries( tree.subSet( probe( lo ), loInclusive, probe( hi ), hiInclusive ) );
+    }
+
+    /**
+     * Obtains a lazy view of the entries whose keys are below hi, in ascending key order.
+     * @param hi the high end of the range.
+     * @param inclusive true to include hi itself.
+     */
+    public Iterable<Map.Entry<K, V>> headMap( K hi, boolean inclusive )
+    {
+        return entries( tree.headSet( probe( hi ), inclusive ) );
+    }
+
+    /**
+     * Obtains a lazy view of the entries whose keys are above lo, in ascending key order.
+     * @param lo the low end of the range.
+     * @param inclusive true to include lo itself.
+     */
+    public Iterable<Map.Entry<K, V>> tailMap( K lo, boolean inclusive )
+    {
+        return entries( tree.tailSet( probe( lo ), inclusive ) );
+    }
+
+    /**
+     * Obtains an in-order iterator over the entries. Its remove() removes the
+     * last entry returned; changing the map in any other way makes it fail fast.
+     */
+    public Iterator<Map.Entry<K, V>> iterator( )
+    {
+        return entries( tree ).iterator( );
+    }
+
+    /**
+     * Internal method to find the entry of a key, through the cache if there is one.
+     * @return the entry, or null if the key is not found.
+     */
+    @SuppressWarnings( "unchecked" )
+    private Entry<K, V> entry( K key )
+    {
+        if( cache == null )
+            return tree.find( probe( key ) );
+        Object cached = cache.get( key );
+        if( cached == null )
+        {
+            Entry<K, V> e = tree.find( probe( key ) );
+            cache.put( key, e == null ? ABSENT : e );
+            return e;
+        }
+        return cached == ABSENT ? null : (Entry<K, V>) cached;
+    }
+
+    /**
+     * Internal method to drop a key whose entry was added or removed from the cache.
+     */
+    private void invalidate( K key )
+    {
+        if( cache != null )
+            cache.invalidate( key );
+    }
+
+    /**
+     * Internal method to make an entry that only serves as a search key.
+     */
+    private static <K extends Comparable<? super K>, V> Entry<K, V> probe( K key )
+    {
+        return new Entry<>( key, null );
+    }
+
+    /**
+     * Internal method to view a collection of entries as Map.Entry objects.
+     * Removing through the view keeps the cache right.
+     */
+    private Iterable<Map.Entry<K, V>> entries( Iterable<Entry<K, V>> items )
+    {
+        return ( ) -> new Iterator<Map.Entry<K, V>>( )
+        {
+            private final Iterator<Entry<K, V>> it = items.iterator( );
+            private Entry<K, V> lastReturned;
+
+            public boolean hasNext( )
+            {
+                return it.hasNext( );
+            }
+
+            public Map.Entry<K, V> next( )
+            {
+                return lastReturned = it.next( );
+            }
+
+            public void remove( )
+            {
+                it.remove( );
+                invalidate( lastReturned.key );
+            }
+        };
+    }
+
+    // Basic entry class; ordered by key alone
+    private static final class Entry<K extends Comparable<? super K>, V> implements Map.Entry<K, V>, Comparable<Entry<K, V>>
+    {
+        Entry( K key, V value )
+        {
+            this.key = Objects.requireNonNull( key );
+            this.value = value;
+        }
+
+        public int compareTo( Entry<K, V> other )
+        {
+            return key.compareTo( other.key );
+        }
+
+        public K getKey( )
+        {
+            return key;
+        }
+
+        public V getValue( )
+        {
+            return value;
+        }
+
+        public V setValue( V value )
+        {
+            V old = this.value;
+            this.value = Objects.requireNonNull( value );
+            return old;
+        }
+
+        public boolean equals( Object o )
+        {
+            return o instanceof Map.Entry && key.equals( ( (Map.Entry<?, ?>) o ).getKey( ) )
+                    && Objects.equals( value, ( (Map.Entry<?, ?>) o ).getValue( ) );
+        }
+
+        public int hashCode( )
+        {
+            return key.hashCode( ) ^ Objects.hashCode( value );
+        }
+
+        public String toString( )
+        {
+            return key + "=" + value;
+        }
+
+        final K key;    // The key
+        V value;        // Its value
+    }
+
+    /** The entries, ordered by key. */
+    private final BinarySearchTree<Entry<K, V>> tree;
+
+    /** Recent lookups by key: the entry found, or ABSENT; null when there is no cache. */
+    private LookupCache<K, Object> cache;
+
+    // The cached answer for a key that has no entry
+    private static final Object ABSENT = new Object( );
+
+
+    // Test program
+    public static void main( String [ ] args )
+    {
+        boolean res = true;
+        for( BinarySearchTree.Balance balance : BinarySearchTree.Balance.values( ) )
+            res &= test( balance, 3000, null );
+        for( LookupCache.Eviction eviction : LookupCache.Eviction.values( ) )
+            res &= test( BinarySearchTree.Balance.AVL, 3000, eviction );
+
+        System.out.println( "Test result for BinarySearchTreeMap: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "BinarySearchTreeMap error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+
+    // Random operations checked against java.util.TreeMap, with a lookup cache unless eviction is null
+    private static boolean test( BinarySearchTree.Balance balance, int n, LookupCache.Eviction eviction )
+    {
+        Random random = new Random( n );
+        BinarySearchTreeMap<Integer, Integer> map = new BinarySearchTreeMap<>( balance );
+        if( eviction != null )
+            map.setLookupCache( n / 10, eviction );
+        TreeMap<Integer, Integer> expected = new TreeMap<>( );
+        boolean res = map.isEmpty( ) && map.firstEntry( ) == null && map.get( 1 ) == null;
+        for( int i = 0; i < 10 * n; i++ )
+        {
+            int k = random.nextInt( n );
+            int v = random.nextInt( 100 );
+            switch( random.nextInt( 6 ) )
+            {
+            case 0:
+                res &= Objects.equals( map.put( k, v ), expected.put( k, v ) );
+                break;
+            case 1:
+                res &= Objects.equals( map.putIfAbsent( k, v ), expected.putIfAbsent( k, v ) );
+                break;
+            case 2:
+                Function<Integer, Integer> mapping = key -> key % 3 == 0 ? null : key + v;
+                res &= Objects.equals( map.computeIfAbsent( k, mapping ), expected.computeIfAbsent( k, mapping ) );
+                break;
+            case 3:
+                BiFunction<Integer, Integer, Integer> remapping = ( a, b ) -> a + b > 150 ? null : a + b;
+                res &= Objects.equals( map.merge( k, v, remapping ), expected.merge( k, v, remapping ) );
+                break;
+            case 4:
+                res &= Objects.equals( map.remove( k ), expected.remove( k ) );
+                break;
+            default:
+                res &= Objects.equals( map.get( k ), expected.get( k ) ) && map.containsKey( k ) == expected.containsKey( k );
+                break;
+            }
+        }
+        res &= map.size( ) == expected.size( );
+        res &= sameEntries( map, expected.entrySet( ) );
+
+        // range scans and nearest entries
+        for( int i = 0; i < 100; i++ )
+        {
+            int lo = random.nextInt( n );
+            int hi = lo + random.nextInt( n / 10 );
+            boolean loInclusive = random.nextBoolean( );
+            boolean hiInclusive = random.nextBoolean( );
+            res &= sameEntries( map.subMap( lo, loInclusive, hi, hiInclusive ),
+                                expected.subMap( lo, loInclusive, hi, hiInclusive ).entrySet( ) );
+            res &= sameEntries( map.headMap( lo, loInclusive ), expected.headMap( lo, loInclusive ).entrySet( ) );
+            res &= sameEntries( map.tailMap( hi, hiInclusive ), expected.tailMap( hi, hiInclusive ).entrySet( ) );
+            res &= Objects.equals( map.floorEntry( lo ), expected.floorEntry( lo ) );
+            res &= Objects.equals( map.ceilingEntry( hi ), expected.ceilingEntry( hi ) );
+        }
+        res &= map.firstEntry( ).equals( expected.firstEntry( ) ) && map.lastEntry( ).equals( expected.lastEntry( ) );
+
+        // entries write through, and the iterator removes
+        Map.Entry<Integer, Integer> first = map.firstEntry( );
+        first.setValue( -1 );
+        res &= map.get( first.getKey( ) ) == -1;
+        Iterator<Map.Entry<Integer, Integer>> it = map.iterator( );
+        it.next( );
+        it.remove( );
+        res &= !map.containsKey( first.getKey( ) ) && map.size( ) == expected.size( ) - 1;
+
+        // a failing mapping function leaves no entry behind
+        try
+        {
+            map.computeIfAbsent( -5, key -> { throw new IllegalStateException( ); } );
+            res = false;
+        }
+        catch( IllegalStateException e )
+        {
+            res &= !map.containsKey( -5 );
+        }
+        try
+        {
+            map.put( 1, null );
+            res = false;
+        }
+        catch( NullPointerException e )
+        {
+            // expected
+        }
+        map.makeEmpty( );
+        res &= map.isEmpty( ) && !map.iterator( ).hasNext( ) && map.get( first.getKey( ) + 1 ) == null;
+        if( eviction != null )
+            res &= map.getLookupCache( ).hitCount( ) > 0 && map.getLookupCache( ).size( ) <= n / 10;
+        return res;
+    }
+
+    private static boolean sameEntries( Iterable<Map.Entry<Integer, Integer>> actual,
+                                        Iterable<Map.Entry<Integer, Integer>> expected )
+    {
+        Iterator<Map.Entry<Integer, Integer>> a = actual.iterator( );
+        for( Map.Entry<Integer, Integer> e : expected )
+            if( !a.hasNext( ) || !a.next( ).equals( e ) )
+                return false;
+        return !a.hasNext( );
+    }
+}
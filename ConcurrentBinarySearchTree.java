@@ -0,0 +1,394 @@
+// ConcurrentBinarySearchTree class
+//
+// CONSTRUCTION: with no initializer
+//
+// ******************PUBLIC OPERATIONS*********************
+// boolean insert( x )              --> Insert x; return false if already present
+// boolean remove( x )              --> Remove x; return false if not present
+// boolean contains( x )            --> Return true if x is present
+// Comparable findMin( )            --> Return smallest item
+// Comparable findMax( )            --> Return largest item
+// boolean isEmpty( )               --> Return true if empty; else false
+// void makeEmpty( )                --> Remove all items
+// int size( )                      --> Return the number of items, in O(1)
+// int height( )                    --> Return the height of the tree, in O(1)
+// Iterator iterator( )             --> Return an in-order iterator over a snapshot
+// ******************ERRORS********************************
+// Throws UnderflowException as appropriate
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Implements a thread-safe AVL tree. Nodes are immutable: an update copies the
+ * root-to-leaf path it changes, shares every other node with the previous
+ * version, and publishes the new root with a compare-and-set. If another writer
+ * got there first the update is retried against the newer root.
+ * Readers therefore never lock or wait: contains, findMin, findMax, size and
+ * iteration each work on whichever complete version was the root when they started.
+ * Note that all "matching" is based on the compareTo method.
+ */
+public class ConcurrentBinarySearchTree<AnyType extends Comparable<? super AnyType>> implements Iterable<AnyType>
+{
+    /**
+     * Construct the tree.
+     */
+    public ConcurrentBinarySearchTree( )
+    {
+        root = new AtomicReference<>( null );
+    }
+
+    /**
+     * Insert into the tree; duplicates are ignored.
+     * @param x the item to insert.
+     * @return true if x was added, false if it was already present.
+     */
+    public boolean insert( AnyType x )
+    {
+        while( true )
+        {
+            Node<AnyType> t = root.get( );
+            Node<AnyType> updated = insert( x, t );
+            if( updated == t )
+                return false;  // Duplicate; do nothing
+            if( root.compareAndSet( t, updated ) )
+                return true;
+        }
+    }
+
+    /**
+     * Remove from the tree. Nothing is done if x is not found.
+     * @param x the item to remove.
+     * @return true if x was removed, false if it was not present.
+     */
+    public boolean remove( AnyType x )
+    {
+        while( true )
+        {
+            Node<AnyType> t = root.get( );
+            Node<AnyType> updated = remove( x, t );
+            if( updated == t )
+                return false;   // Item not found; do nothing
+            if( root.compareAndSet( t, updated ) )
+                return true;
+        }
+    }
+
+    /**
+     * Find an item in the tree.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( AnyType x )
+    {
+        Node<AnyType> t = root.get( );
+        while( t != null )
+        {
+            int compareResult = x.compareTo( t.element );
+
+            if( compareResult < 0 )
+                t = t.left;
+            else if( compareResult > 0 )
+                t = t.right;
+            else
+                return true;    // Match
+        }
+        return false;
+    }
+
+    /**
+     * Find the smallest item in the tree.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMin( )
+    {
+        Node<AnyType> t = root.get( );
+        if( t == null )
+            throw new UnderflowException( );
+        while( t.left != null )
+            t = t.left;
+        return t.element;
+    }
+
+    /**
+     * Find the largest item in the tree.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMax( )
+    {
+        Node<AnyType> t = root.get( );
+        if( t == null )
+            throw new UnderflowException( );
+        while( t.right != null )
+            t = t.right;
+        return t.element;
+    }
+
+    /**
+     * Test if the tree is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return root.get( ) == null;
+    }
+
+    /**
+     * Make the tree logically empty.
+     */
+    public void makeEmpty( )
+    {
+        root.set( null );
+    }
+
+    /**
+     * Returns the number of items in the tree in constant time.
+     */
+    public int size( )
+    {
+        return size( root.get( ) );
+    }
+
+    /**
+     * Returns the height of the tree in constant time.
+     * @return the number of edges on the longest root-to-leaf path, or -1 if empty.
+     */
+    public int height( )
+    {
+        return height( root.get( ) );
+    }
+
+    /**
+     * Obtains an in-order iterator over the version of the tree current at the
+     * time of the call. It is never affected by later updates.
+     */
+    public Iterator<AnyType> iterator( )
+    {
+        Deque<Node<AnyType>> stack = new ArrayDeque<>( );
+        pushLeft( stack, root.get( ) );
+        return new Iterator<AnyType>( )
+        {
+            public boolean hasNext( )
+            {
+                return !stack.isEmpty( );
+            }
+
+            public AnyType next( )
+            {
+                if( stack.isEmpty( ) )
+                    throw new NoSuchElementException( );
+                Node<AnyType> t = stack.pop( );
+                pushLeft( stack, t.right );
+                return t.element;
+            }
+        };
+    }
+
+    private static <AnyType> void pushLeft( Deque<Node<AnyType>> stack, Node<AnyType> t )
+    {
+        for( ; t != null; t = t.left )
+            stack.push( t );
+    }
+
+    /**
+     * Internal method to insert into a subtree. Recursion depth is bounded by the
+     * AVL height, about 1.44 log2(n).
+     * @param x the item to insert.
+     * @param t the node that roots the subtree.
+     * @return the root of the new version of the subtree, or t itself if x is present.
+     */
+    private static <AnyType extends Comparable<? super AnyType>> Node<AnyType> insert( AnyType x, Node<AnyType> t )
+    {
+        if( t == null )
+            return new Node<>( x, null, null );
+
+        int compareResult = x.compareTo( t.element );
+
+        if( compareResult < 0 )
+        {
+            Node<AnyType> left = insert( x, t.left );
+            return left == t.left ? t : balance( t.element, left, t.right );
+        }
+        if( compareResult > 0 )
+        {
+            Node<AnyType> right = insert( x, t.right );
+            return right == t.right ? t : balance( t.element, t.left, right );
+        }
+        return t;  // Duplicate; do nothing
+    }
+
+    /**
+     * Internal method to remove from a subtree.
+     * @param x the item to remove.
+     * @param t the node that roots the subtree.
+     * @return the root of the new version of the subtree, or t itself if x is absent.
+     */
+    private static <AnyType extends Comparable<? super AnyType>> Node<AnyType> remove( AnyType x, Node<AnyType> t )
+    {
+        if( t == null )
+            return t;   // Item not found; do nothing
+
+        int compareResult = x.compareTo( t.element );
+
+        if( compareResult < 0 )
+        {
+            Node<AnyType> left = remove( x, t.left );
+            return left == t.left ? t : balance( t.element, left, t.right );
+        }
+        if( compareResult > 0 )
+        {
+            Node<AnyType> right = remove( x, t.right );
+            return right == t.right ? t : balance( t.element, t.left, right );
+        }
+        if( t.left == null )
+            return t.right;
+        if( t.right == null )
+            return t.left;
+        Node<AnyType> min = t.right;    // Two children; promote the successor
+        while( min.left != null )
+            min = min.left;
+        return balance( min.element, t.left, removeMin( t.right ) );
+    }
+
+    /**
+     * Internal method to remove the smallest item of a non-empty subtree.
+     */
+    private static <AnyType> Node<AnyType> removeMin( Node<AnyType> t )
+    {
+        if( t.left == null )
+            return t.right;
+        return balance( t.element, removeMin( t.left ), t.right );
+    }
+
+    /**
+     * Internal method to build a node over two AVL subtrees whose heights differ
+     * by at most two, rotating as needed.
+     * @return the root of the balanced subtree.
+     */
+    private static <AnyType> Node<AnyType> balance( AnyType x, Node<AnyType> l, Node<AnyType> r )
+    {
+        if( height( l ) - height( r ) > ALLOWED_IMBALANCE )
+        {
+            if( height( l.left ) >= height( l.right ) )  // Single right rotation
+                return new Node<>( l.element, l.left, new Node<>( x, l.right, r ) );
+            return new Node<>( l.right.element,                     // Double rotation
+                    new Node<>( l.element, l.left, l.right.left ),
+                    new Node<>( x, l.right.right, r ) );
+        }
+        if( height( r ) - height( l ) > ALLOWED_IMBALANCE )
+        {
+            if( height( r.right ) >= height( r.left ) )  // Single left rotation
+                return new Node<>( r.element, new Node<>( x, l, r.left ), r.right );
+            return new Node<>( r.left.element,                      // Double rotation
+                    new Node<>( x, l, r.left.left ),
+                    new Node<>( r.element, r.left.right, r.right ) );
+        }
+        return new Node<>( x, l, r );
+    }
+
+    private static int height( Node<?> t )
+    {
+        return t == null ? -1 : t.height;
+    }
+
+    private static int size( Node<?> t )
+    {
+        return t == null ? 0 : t.size;
+    }
+
+    // Immutable node; final fields make a node safe to read from any thread
+    // once the root that reaches it has been published
+    private static final class Node<AnyType>
+    {
+        Node( AnyType theElement, Node<AnyType> lt, Node<AnyType> rt )
+        {
+            element = theElement;
+            left    = lt;
+            right   = rt;
+            height  = Math.max( height( lt ), height( rt ) ) + 1;
+            size    = size( lt ) + size( rt ) + 1;
+        }
+
+        final AnyType element;          // The data in the node
+        final Node<AnyType> left;       // Left child
+        final Node<AnyType> right;      // Right child
+        final int height;               // Height of the subtree; a leaf has height 0
+        final int size;                 // Number of nodes in the subtree
+    }
+
+    private static final int ALLOWED_IMBALANCE = 1;
+
+    /** The current version of the tree. */
+    private final AtomicReference<Node<AnyType>> root;
+
+
+    // Test program; concurrent writers on disjoint key ranges, readers checking invariants
+    public static void main( String [ ] args ) throws InterruptedException
+    {
+        final int writers = 4;
+        final int readers = 4;
+        final int keysPerWriter = 20000;
+        ConcurrentBinarySearchTree<Integer> t = new ConcurrentBinarySearchTree<>( );
+        java.util.concurrent.atomic.AtomicBoolean failed = new java.util.concurrent.atomic.AtomicBoolean( );
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean( );
+        java.util.List<Thread> threads = new java.util.ArrayList<>( );
+
+        for( int w = 0; w < writers; w++ )
+        {
+            final int id = w;
+            threads.add( new Thread( ( ) -> {
+                // Writer id owns the keys congruent to id; it inserts them all, then removes the odd ones
+                for( int i = 0; i < keysPerWriter; i++ )
+                    if( !t.insert( i * writers + id ) ) failed.set( true );
+                for( int i = 1; i < keysPerWriter; i += 2 )
+                    if( !t.remove( i * writers + id ) ) failed.set( true );
+            } ) );
+        }
+        for( int r = 0; r < readers; r++ )
+        {
+            threads.add( new Thread( ( ) -> {
+                while( !done.get( ) )
+                {
+                    // Every version must be sorted and hold as many items as its root claims
+                    Node<Integer> snapshot = t.root.get( );
+                    Deque<Node<Integer>> stack = new ArrayDeque<>( );
+                    pushLeft( stack, snapshot );
+                    Integer previous = null;
+                    int count = 0;
+                    while( !stack.isEmpty( ) )
+                    {
+                        Node<Integer> n = stack.pop( );
+                        pushLeft( stack, n.right );
+                        if( previous != null && previous >= n.element ) failed.set( true );
+                        previous = n.element;
+                        count++;
+                    }
+                    if( count != size( snapshot ) ) failed.set( true );
+                }
+            } ) );
+        }
+        for( Thread thread : threads )
+            thread.start( );
+        for( int w = 0; w < writers; w++ )
+            threads.get( w ).join( );
+        done.set( true );
+        for( Thread thread : threads )
+            thread.join( );
+
+        boolean res = !failed.get( ) && t.size( ) == writers * keysPerWriter / 2;
+        for( int k = 0; k < writers * keysPerWriter; k++ )
+            res &= t.contains( k ) == ( ( k / writers ) % 2 == 0 );
+        res &= t.height( ) <= 1.44 * Math.log( t.size( ) + 2 ) / Math.log( 2 );
+
+        System.out.println( "Test result for ConcurrentBinarySearchTree: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "ConcurrentBinarySearchTree error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+}
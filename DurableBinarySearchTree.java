@@ -0,0 +1,736 @@
+// DurableBinarySearchTree class
+//
+// CONSTRUCTION: with open( directory, codec, policy )
+//
+// ******************PUBLIC OPERATIONS*********************
+// void insert( x )                 --> Insert x and log it
+// void remove( x )                 --> Remove x and log it
+// boolean contains( x )            --> Return true if x is present
+// int size( )                      --> Return the number of items
+// BinarySearchTree snapshot( )     --> Return the current version, in O(1)
+// void checkpoint( )               --> Write the tree to a checkpoint and start a new log
+// void setCheckpointInterval( k )  --> Checkpoint automatically every k logged updates
+// void close( )                    --> Flush the log and close it
+// ******************ERRORS********************************
+// Throws IOException if the log or a checkpoint cannot be read or written
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Implements an AVL tree whose updates survive crashes. Every insert and remove
+ * is appended to a write-ahead log before it returns; opening the directory
+ * again loads the latest checkpoint and replays the log written after it.
+ * A checkpoint takes an O(1) snapshot of the persistent tree, starts a new log
+ * segment and writes the snapshot while updates carry on.
+ *
+ * Log records are int length, byte op, key bytes, int CRC-32 of op and key.
+ * A torn or corrupt record at the end of the last segment is what a crash
+ * mid-append leaves behind; it and anything after it are discarded.
+ * All operations are thread-safe.
+ */
+public class DurableBinarySearchTree<AnyType extends Comparable<? super AnyType>> implements AutoCloseable
+{
+    /**
+     * When an update is forced to stable storage before it returns.
+     */
+    public enum SyncPolicy
+    {
+        EVERY_WRITE,    // Each update is written and forced on its own
+        GROUP_COMMIT,   // Concurrent updates wait for and share a single force
+        NO_SYNC         // Updates reach the operating system but are never forced;
+                        // they survive a process crash but not a power loss
+    }
+
+    private DurableBinarySearchTree( Path directory, KeyCodec<AnyType> codec, SyncPolicy policy )
+    {
+        this.directory = directory;
+        this.codec     = codec;
+        this.policy    = policy;
+    }
+
+    /**
+     * Open a durable tree, recovering its contents if the directory holds any.
+     * @param directory the directory of the checkpoint and log files; created if missing.
+     * @param codec the encoding of the items.
+     * @param policy when updates are forced to stable storage.
+     * @return the tree.
+     * @throws IOException if the files cannot be read, or a log segment other than the last is corrupt.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> DurableBinarySearchTree<AnyType> open( Path directory,
+            KeyCodec<AnyType> codec, SyncPolicy policy ) throws IOException
+    {
+        DurableBinarySearchTree<AnyType> res = new DurableBinarySearchTree<>( directory, codec, policy );
+        res.recover( );
+        return res;
+    }
+
+    /**
+     * Insert into the tree and log it; duplicates are ignored.
+     * @param x the item to insert.
+     * @throws IOException if the log cannot be written.
+     */
+    public void insert( AnyType x ) throws IOException
+    {
+        update( INSERT, x );
+    }
+
+    /**
+     * Remove from the tree and log it. Nothing is done if x is not found.
+     * @param x the item to remove.
+     * @throws IOException if the log cannot be written.
+     */
+    public void remove( AnyType x ) throws IOException
+    {
+        update( REMOVE, x );
+    }
+
+    /**
+     * Find an item in the tree.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( AnyType x )
+    {
+        lock.lock( );
+        try
+        {
+            return tree.contains( x );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size( )
+    {
+        lock.lock( );
+        try
+        {
+            return tree.size( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Obtains the current version of the tree in constant time. It is persistent,
+     * so it may be read from any thread without locking and never changes.
+     */
+    public BinarySearchTree<AnyType> snapshot( )
+    {
+        lock.lock( );
+        try
+        {
+            return tree.copy( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Set how many logged updates trigger an automatic checkpoint. The update that
+     * reaches the interval runs the checkpoint before it returns. The default is
+     * DEFAULT_CHECKPOINT_INTERVAL.
+     * @param records the number of updates between checkpoints; 0 disables them.
+     * @throws IllegalArgumentException if records is negative.
+     */
+    public void setCheckpointInterval( long records )
+    {
+        if( records < 0 )
+            throw new IllegalArgumentException( "Checkpoint interval must not be negative: " + records );
+        checkpointInterval = records;
+    }
+
+    /**
+     * Write the tree to a new checkpoint and delete the files it supersedes.
+     * Only starting a new log segment holds up updates; the checkpoint itself is
+     * written from a snapshot.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public void checkpoint( ) throws IOException
+    {
+        checkpointLock.lock( );
+        try
+        {
+            BinarySearchTree<AnyType> version;
+            long covered;
+            lock.lock( );
+            try
+            {
+                // Close off the current segment: what it holds becomes durable, later updates go to a new one
+                sealSegment( );
+                log.close( );
+                covered = ++segment;
+                log = openSegment( covered );
+                version = tree.copy( );
+                sinceCheckpoint = 0;
+            }
+            finally
+            {
+                lock.unlock( );
+            }
+
+            Path temporary = directory.resolve( CHECKPOINT + covered + ".tmp" );
+            version.save( temporary, codec );
+            try( FileChannel channel = FileChannel.open( temporary, StandardOpenOption.WRITE ) )
+            {
+                channel.force( true );
+            }
+            Files.move( temporary, checkpointPath( covered ), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            forceDirectory( );
+            deleteBefore( covered );
+        }
+        finally
+        {
+            checkpointLock.unlock( );
+        }
+    }
+
+    /**
+     * Force everything logged so far to stable storage and close the log.
+     * @throws IOException if the log cannot be written.
+     */
+    public void close( ) throws IOException
+    {
+        lock.lock( );
+        try
+        {
+            if( log == null )
+                return;
+            sealSegment( );
+            log.close( );
+            log = null;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Internal method to apply an update to the tree and log it.
+     * @param op INSERT or REMOVE.
+     * @param x the item.
+     */
+    private void update( byte op, AnyType x ) throws IOException
+    {
+        long lsn;
+        lock.lock( );
+        try
+        {
+            checkUsable( );
+            if( tree.contains( x ) == ( op == INSERT ) )
+                lsn = appended;     // No change; but wait for the update that made it so
+            else
+            {
+                if( op == INSERT )
+                    tree.insert( x );
+                else
+                    tree.remove( x );
+                lsn = append( op, x );
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+        commit( lsn );
+
+        if( checkpointInterval > 0 && sinceCheckpoint >= checkpointInterval && checkpointLock.tryLock( ) )
+        {
+            try
+            {
+                if( sinceCheckpoint >= checkpointInterval )
+                    checkpoint( );
+            }
+            finally
+            {
+                checkpointLock.unlock( );
+            }
+        }
+    }
+
+    /**
+     * Internal method to add a record to the log, holding the lock. Unless the
+     * policy is GROUP_COMMIT it is written at once, and forced for EVERY_WRITE.
+     * @return the sequence number of the record.
+     */
+    private long append( byte op, AnyType x ) throws IOException
+    {
+        int keyLength = codec.size( x );
+        ensurePending( 9 + keyLength );
+        pending.putInt( 1 + keyLength );
+        int start = pending.position( );
+        pending.put( op );
+        codec.encode( x, pending );
+        CRC32 crc = new CRC32( );
+        crc.update( pending.array( ), start, 1 + keyLength );
+        pending.putInt( (int) crc.getValue( ) );
+        appended++;
+        sinceCheckpoint++;
+
+        if( policy != SyncPolicy.GROUP_COMMIT )
+        {
+            try
+            {
+                write( log, takePending( ) );
+                if( policy == SyncPolicy.EVERY_WRITE )
+                    log.force( false );
+            }
+            catch( IOException e )
+            {
+                failure = e;
+                throw e;
+            }
+            durable = appended;
+        }
+        return appended;
+    }
+
+    /**
+     * Internal method to wait until a record is durable. Under GROUP_COMMIT the
+     * first waiter becomes the leader: it writes and forces everything appended
+     * so far with the lock released, while later updates queue up for the next force.
+     * @param lsn the sequence number of the record.
+     */
+    private void commit( long lsn ) throws IOException
+    {
+        lock.lock( );
+        try
+        {
+            while( durable < lsn )
+            {
+                checkUsable( );
+                if( flushing )
+                {
+                    flushed.awaitUninterruptibly( );
+                    continue;
+                }
+                flushing = true;
+                long upTo = appended;
+                ByteBuffer batch = takePending( );
+                FileChannel channel = log;
+                lock.unlock( );
+                try
+                {
+                    write( channel, batch );
+                    channel.force( false );
+                }
+                catch( IOException e )
+                {
+                    failure = e;    // The batch is lost; nothing later may claim to be durable
+                    throw e;
+                }
+                finally
+                {
+                    lock.lock( );
+                    flushing = false;
+                    flushed.signalAll( );
+                }
+                durable = Math.max( durable, upTo );
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Internal method to write and force everything appended to the current
+     * segment, holding the lock.
+     */
+    private void sealSegment( ) throws IOException
+    {
+        while( flushing )
+            flushed.awaitUninterruptibly( );
+        checkUsable( );
+        try
+        {
+            write( log, takePending( ) );
+            log.force( false );
+        }
+        catch( IOException e )
+        {
+            failure = e;
+            throw e;
+        }
+        durable = appended;
+        flushed.signalAll( );
+    }
+
+    /**
+     * Internal method to load the latest checkpoint and replay the log after it.
+     */
+    private void recover( ) throws IOException
+    {
+        Files.createDirectories( directory );
+        long base = -1;
+        List<Long> segments = new ArrayList<>( );
+        try( Stream<Path> files = Files.list( directory ) )
+        {
+            for( Path file : (Iterable<Path>) files::iterator )
+            {
+                String name = file.getFileName( ).toString( );
+                if( name.startsWith( CHECKPOINT ) && name.endsWith( ".tmp" ) )
+                    Files.delete( file );   // An interrupted checkpoint
+                else if( name.startsWith( CHECKPOINT ) && name.endsWith( ".bst" ) )
+                    base = Math.max( base, sequence( name, CHECKPOINT, ".bst" ) );
+                else if( name.startsWith( SEGMENT ) && name.endsWith( ".log" ) )
+                    segments.add( sequence( name, SEGMENT, ".log" ) );
+            }
+        }
+
+        tree = base < 0 ? new BinarySearchTree<>( BinarySearchTree.Balance.AVL, BinarySearchTree.Feature.PERSISTENT )
+                        : BinarySearchTree.load( checkpointPath( base ), codec, BinarySearchTree.Balance.AVL,
+                                                 BinarySearchTree.Feature.PERSISTENT );
+        segments.sort( null );
+        segment = Math.max( base, 0 );
+        for( int i = 0; i < segments.size( ); i++ )
+        {
+            long seq = segments.get( i );
+            if( seq < base )
+                continue;
+            long valid = replay( segmentPath( seq ) );
+            if( valid < Files.size( segmentPath( seq ) ) )
+            {
+                if( i != segments.size( ) - 1 )
+                    throw new IOException( "Corrupt log segment: " + segmentPath( seq ) );
+                try( FileChannel channel = FileChannel.open( segmentPath( seq ), StandardOpenOption.WRITE ) )
+                {
+                    channel.truncate( valid );  // Drop the torn tail
+                    channel.force( false );
+                }
+            }
+            segment = seq;
+        }
+        deleteBefore( Math.max( base, 0 ) );
+        log = openSegment( segment );
+    }
+
+    /**
+     * Internal method to apply the records of a log segment to the tree.
+     * @param file the segment.
+     * @return the length of its valid prefix.
+     */
+    private long replay( Path file ) throws IOException
+    {
+        long valid = 0;
+        long remaining = Files.size( file );
+        try( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ), 1 << 16 ) ) )
+        {
+            while( true )
+            {
+                int length = in.readInt( );
+                if( length < 1 || length > remaining - 8 )
+                    break;
+                byte[ ] record = new byte[ length ];
+                in.readFully( record );
+                int checksum = in.readInt( );
+                CRC32 crc = new CRC32( );
+                crc.update( record );
+                if( (int) crc.getValue( ) != checksum || record[ 0 ] != INSERT && record[ 0 ] != REMOVE )
+                    break;
+
+                AnyType x = codec.decode( ByteBuffer.wrap( record, 1, length - 1 ), length - 1 );
+                if( record[ 0 ] == INSERT )
+                    tree.insert( x );
+                else
+                    tree.remove( x );
+                valid += 8 + length;
+                remaining -= 8 + length;
+                sinceCheckpoint++;
+            }
+        }
+        catch( EOFException e )
+        {
+            // A torn record; the valid prefix ends before it
+        }
+        return valid;
+    }
+
+    /**
+     * Internal method to delete the checkpoints and log segments older than a checkpoint.
+     * @param covered the sequence number of the checkpoint.
+     */
+    private void deleteBefore( long covered ) throws IOException
+    {
+        try( Stream<Path> files = Files.list( directory ) )
+        {
+            for( Path file : (Iterable<Path>) files::iterator )
+            {
+                String name = file.getFileName( ).toString( );
+                if( name.startsWith( CHECKPOINT ) && name.endsWith( ".bst" ) && sequence( name, CHECKPOINT, ".bst" ) < covered
+                        || name.startsWith( SEGMENT ) && name.endsWith( ".log" ) && sequence( name, SEGMENT, ".log" ) < covered )
+                    Files.delete( file );
+            }
+        }
+    }
+
+    /**
+     * Internal method to make a rename in the directory durable, where the platform allows.
+     */
+    private void forceDirectory( )
+    {
+        try( FileChannel channel = FileChannel.open( directory, StandardOpenOption.READ ) )
+        {
+            channel.force( true );
+        }
+        catch( IOException e )
+        {
+            // Directories cannot be opened on every platform
+        }
+    }
+
+    private FileChannel openSegment( long seq ) throws IOException
+    {
+        FileChannel channel = FileChannel.open( segmentPath( seq ), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+        channel.position( channel.size( ) );
+        return channel;
+    }
+
+    private Path segmentPath( long seq )
+    {
+        return directory.resolve( SEGMENT + seq + ".log" );
+    }
+
+    private Path checkpointPath( long seq )
+    {
+        return directory.resolve( CHECKPOINT + seq + ".bst" );
+    }
+
+    private static long sequence( String name, String prefix, String suffix )
+    {
+        return Long.parseLong( name.substring( prefix.length( ), name.length( ) - suffix.length( ) ) );
+    }
+
+    private void checkUsable( ) throws IOException
+    {
+        if( failure != null )
+            throw new IOException( "Log failed earlier; reopen the tree to recover", failure );
+        if( log == null )
+            throw new IOException( "Tree is closed" );
+    }
+
+    private void ensurePending( int bytes )
+    {
+        if( pending.remaining( ) < bytes )
+        {
+            ByteBuffer larger = ByteBuffer.allocate( Math.max( pending.capacity( ) * 2, pending.position( ) + bytes ) );
+            pending.flip( );
+            larger.put( pending );
+            pending = larger;
+        }
+    }
+
+    private ByteBuffer takePending( )
+    {
+        ByteBuffer batch = pending.flip( );
+        pending = ByteBuffer.allocate( PENDING_BYTES );
+        return batch;
+    }
+
+    private static void write( FileChannel channel, ByteBuffer batch ) throws IOException
+    {
+        while( batch.hasRemaining( ) )
+            channel.write( batch );
+    }
+
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final String SEGMENT = "wal-";
+    private static final String CHECKPOINT = "checkpoint-";
+    private static final int PENDING_BYTES = 1 << 12;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1 << 20;
+
+    private final Path directory;
+    private final KeyCodec<AnyType> codec;
+    private final SyncPolicy policy;
+
+    /** Guards everything below; never held while a group commit writes. */
+    private final ReentrantLock lock = new ReentrantLock( );
+    private final Condition flushed = lock.newCondition( );
+    /** Allows one checkpoint at a time. */
+    private final ReentrantLock checkpointLock = new ReentrantLock( );
+
+    private BinarySearchTree<AnyType> tree;
+    private FileChannel log;                // The current log segment; null once closed
+    private long segment;                   // Its sequence number
+    private ByteBuffer pending = ByteBuffer.allocate( PENDING_BYTES );  // Records not yet written
+    private long appended;                  // Records appended in this session
+    private long durable;                   // Records known to be durable
+    private boolean flushing;               // True while a group commit leader writes
+    private IOException failure;            // The write that broke the log, if any
+    private volatile long sinceCheckpoint;  // Records logged since the last checkpoint
+    private volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+
+    // Test program
+    public static void main( String [ ] args ) throws Exception
+    {
+        Path directory = Files.createTempDirectory( "durable" );
+        boolean res = true;
+        try
+        {
+            for( SyncPolicy policy : SyncPolicy.values( ) )
+            {
+                res &= testRecovery( directory.resolve( policy.name( ) ), policy );
+                res &= testTornTail( directory.resolve( policy.name( ) + "-torn" ), policy );
+            }
+            res &= testConcurrent( directory.resolve( "concurrent" ) );
+        }
+        finally
+        {
+            try( Stream<Path> files = Files.walk( directory ) )
+            {
+                files.sorted( java.util.Comparator.reverseOrder( ) ).forEach( p -> p.toFile( ).delete( ) );
+            }
+        }
+
+        System.out.println( "Test result for DurableBinarySearchTree: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "DurableBinarySearchTree error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+
+    // Random updates across checkpoints; a reopened tree, closed or abandoned, must match
+    private static boolean testRecovery( Path directory, SyncPolicy policy ) throws IOException
+    {
+        java.util.Random random = new java.util.Random( policy.ordinal( ) );
+        TreeSet<Integer> model = new TreeSet<>( );
+        boolean res = true;
+        for( int session = 0; session < 4; session++ )
+        {
+            DurableBinarySearchTree<Integer> t = open( directory, KeyCodec.INTEGER, policy );
+            res &= new ArrayList<>( model ).equals( t.snapshot( ).stream( ).collect( java.util.stream.Collectors.toList( ) ) );
+            t.setCheckpointInterval( session % 2 == 0 ? 150 : 0 );
+            for( int i = 0; i < 1000; i++ )
+            {
+                int x = random.nextInt( 500 );
+                if( random.nextInt( 3 ) == 0 )
+                {
+                    t.remove( x );
+                    model.remove( x );
+                }
+                else
+                {
+                    t.insert( x );
+                    model.add( x );
+                }
+            }
+            if( session == 1 )
+                t.checkpoint( );
+            res &= t.size( ) == model.size( );
+            if( session != 2 )
+                t.close( );     // Session 2 is abandoned as if the process died
+        }
+        DurableBinarySearchTree<Integer> t = open( directory, KeyCodec.INTEGER, policy );
+        res &= new ArrayList<>( model ).equals( t.snapshot( ).stream( ).collect( java.util.stream.Collectors.toList( ) ) );
+        t.close( );
+
+        // Superseded checkpoints and segments are gone
+        try( Stream<Path> files = Files.list( directory ) )
+        {
+            res &= files.filter( p -> p.getFileName( ).toString( ).startsWith( CHECKPOINT ) ).count( ) <= 1;
+        }
+        return res;
+    }
+
+    // A partial record and a corrupt record at the end of the log are dropped
+    private static boolean testTornTail( Path directory, SyncPolicy policy ) throws IOException
+    {
+        DurableBinarySearchTree<String> t = open( directory, KeyCodec.STRING, policy );
+        for( int i = 0; i < 10; i++ )
+            t.insert( "item" + i );
+        t.remove( "item3" );
+        t.close( );
+        Path segment = t.segmentPath( t.segment );
+        long length = Files.size( segment );
+
+        // Cut the last record (remove "item3") in half
+        try( FileChannel channel = FileChannel.open( segment, StandardOpenOption.WRITE ) )
+        {
+            channel.truncate( length - 5 );
+        }
+        t = open( directory, KeyCodec.STRING, policy );
+        boolean res = t.size( ) == 10 && t.contains( "item3" ) && Files.size( segment ) == length - 14;
+        t.insert( "item10" );
+        t.close( );
+
+        // Flip a byte of the last record's key; the record before it survives
+        byte[ ] bytes = Files.readAllBytes( segment );
+        bytes[ bytes.length - 6 ] ^= 1;
+        Files.write( segment, bytes );
+        t = open( directory, KeyCodec.STRING, policy );
+        res &= t.size( ) == 10 && !t.contains( "item10" ) && t.contains( "item9" );
+        t.close( );
+        return res;
+    }
+
+    // Writers on disjoint keys share group commits; every acknowledged update survives
+    private static boolean testConcurrent( Path directory ) throws Exception
+    {
+        DurableBinarySearchTree<Long> t = open( directory, KeyCodec.LONG, SyncPolicy.GROUP_COMMIT );
+        t.setCheckpointInterval( 500 );
+        int writers = 4;
+        int perWriter = 300;
+        java.util.concurrent.atomic.AtomicBoolean failed = new java.util.concurrent.atomic.AtomicBoolean( );
+        List<Thread> threads = new ArrayList<>( );
+        for( int w = 0; w < writers; w++ )
+        {
+            long id = w;
+            threads.add( new Thread( ( ) -> {
+                try
+                {
+                    for( long i = 0; i < perWriter; i++ )
+                        t.insert( i * writers + id );
+                    for( long i = 1; i < perWriter; i += 2 )
+                        t.remove( i * writers + id );
+                }
+                catch( IOException e )
+                {
+                    failed.set( true );
+                }
+            } ) );
+        }
+        for( Thread thread : threads )
+            thread.start( );
+        for( Thread thread : threads )
+            thread.join( );
+
+        DurableBinarySearchTree<Long> reopened = open( directory, KeyCodec.LONG, SyncPolicy.GROUP_COMMIT );
+        boolean res = !failed.get( ) && reopened.size( ) == writers * perWriter / 2;
+        for( long k = 0; k < writers * perWriter; k++ )
+            res &= reopened.contains( k ) == ( ( k / writers ) % 2 == 0 );
+        reopened.close( );
+        t.close( );
+        return res;
+    }
+}
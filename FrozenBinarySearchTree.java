@@ -0,0 +1,320 @@
+// FrozenBinarySearchTree class
+//
+// CONSTRUCTION: with BinarySearchTree.freeze( )
+//
+// ******************PUBLIC OPERATIONS*********************
+// boolean contains( x )            --> Return true if x is present
+// Comparable findMin( )            --> Return smallest item
+// Comparable findMax( )            --> Return largest item
+// Comparable floor( x )            --> Return the largest item <= x, or null
+// Comparable ceiling( x )          --> Return the smallest item >= x, or null
+// Comparable lower( x )            --> Return the largest item < x, or null
+// Comparable higher( x )           --> Return the smallest item > x, or null
+// boolean isEmpty( )               --> Return true if empty; else false
+// int size( )                      --> Return the number of items
+// Iterator iterator( )             --> Return an in-order iterator
+// ******************ERRORS********************************
+// Throws UnderflowException as appropriate
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable sorted set held in one array in Eytzinger order: the items of a
+ * complete binary search tree listed level by level, so the children of slot k
+ * are slots 2k and 2k + 1 and no pointers are stored. The first levels of every
+ * search share a few cache lines, and the four grandchildren of a slot are
+ * adjacent, so the hardware prefetcher fetches ahead of the search.
+ * Items are still separate objects, though: once the tree outgrows the cache,
+ * each step may also miss on the item it compares against.
+ * Searches do not branch on comparisons: each step moves to slot 2k + ( x > a[ k ] ),
+ * and the answer is recovered at the end from the bits of the final slot number,
+ * which record every left and right turn taken.
+ * Instances never change, so any number of threads may read them.
+ * Note that all "matching" is based on the compareTo method.
+ */
+public final class FrozenBinarySearchTree<AnyType extends Comparable<? super AnyType>> implements Iterable<AnyType>
+{
+    /**
+     * Construct the tree from sorted items.
+     * @param sorted the distinct items in ascending order; not retained.
+     */
+    FrozenBinarySearchTree( Object[ ] sorted )
+    {
+        n = sorted.length;
+        slots = new Object[ n + 1 ];    // Slot 0 is unused so that the root is slot 1
+        fill( sorted, 1, 0 );
+    }
+
+    /**
+     * Find an item in the tree.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( AnyType x )
+    {
+        int k = lowerBound( x, true );
+        return k != 0 && key( k ).compareTo( x ) == 0;
+    }
+
+    /**
+     * Find the smallest item in the tree.
+     * @return smallest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMin( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        return key( Integer.highestOneBit( n ) );   // The end of the leftmost path
+    }
+
+    /**
+     * Find the largest item in the tree.
+     * @return the largest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMax( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        int k = 1;
+        while( 2 * k + 1 <= n )
+            k = 2 * k + 1;
+        return key( k );
+    }
+
+    /**
+     * Find the largest item less than or equal to x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
+     */
+    public AnyType floor( AnyType x )
+    {
+        return keyOrNull( upperBound( x, true ) );
+    }
+
+    /**
+     * Find the smallest item greater than or equal to x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
+     */
+    public AnyType ceiling( AnyType x )
+    {
+        return keyOrNull( lowerBound( x, true ) );
+    }
+
+    /**
+     * Find the largest item strictly less than x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
+     */
+    public AnyType lower( AnyType x )
+    {
+        return keyOrNull( upperBound( x, false ) );
+    }
+
+    /**
+     * Find the smallest item strictly greater than x.
+     * @param x the item to search for.
+     * @return the matching item or null if there is none.
+     */
+    public AnyType higher( AnyType x )
+    {
+        return keyOrNull( lowerBound( x, false ) );
+    }
+
+    /**
+     * Test if the tree is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size( )
+    {
+        return n;
+    }
+
+    /**
+     * Obtains an in-order iterator over the items. Each step moves to the
+     * in-order successor slot by index arithmetic alone.
+     * @return an iterator that yields the items in ascending order.
+     */
+    public Iterator<AnyType> iterator( )
+    {
+        return new Iterator<AnyType>( )
+        {
+            private int k = isEmpty( ) ? 0 : Integer.highestOneBit( n );
+
+            public boolean hasNext( )
+            {
+                return k != 0;
+            }
+
+            public AnyType next( )
+            {
+                if( k == 0 )
+                    throw new NoSuchElementException( );
+                AnyType x = key( k );
+                if( 2 * k + 1 <= n )
+                {
+                    // Successor is the leftmost slot of the right subtree
+                    k = 2 * k + 1;
+                    k <<= Integer.numberOfLeadingZeros( k ) - Integer.numberOfLeadingZeros( n );
+                    if( k > n )
+                        k >>>= 1;
+                }
+                else
+                    k >>>= Integer.numberOfTrailingZeros( ~k ) + 1;  // Climb past the right turns, then once more
+                return x;
+            }
+        };
+    }
+
+    /**
+     * Internal method to find the slot of the smallest item not less than x,
+     * or, if inclusive is false, greater than x.
+     * @return the slot, or 0 if there is none.
+     */
+    private int lowerBound( AnyType x, boolean inclusive )
+    {
+        int k = descend( x, !inclusive );
+        return k >>> ( Integer.numberOfTrailingZeros( ~k ) + 1 );   // The last slot where the search went left
+    }
+
+    /**
+     * Internal method to find the slot of the largest item not greater than x,
+     * or, if inclusive is false, less than x.
+     * @return the slot, or 0 if there is none.
+     */
+    private int upperBound( AnyType x, boolean inclusive )
+    {
+        int k = descend( x, inclusive );
+        return k >>> ( Integer.numberOfTrailingZeros( k ) + 1 );    // The last slot where the search went right
+    }
+
+    /**
+     * Internal method to search from the root to past a leaf, turning right at
+     * items less than x, and at items equal to x if rightOnEqual is set.
+     * @return the slot number past the leaf, whose bits below the leading one
+     *         are the turns taken, 1 for right.
+     */
+    private int descend( AnyType x, boolean rightOnEqual )
+    {
+        int k = 1;
+        if( rightOnEqual )
+            while( k <= n )
+                k = 2 * k + ( key( k ).compareTo( x ) <= 0 ? 1 : 0 );
+        else
+            while( k <= n )
+                k = 2 * k + ( key( k ).compareTo( x ) < 0 ? 1 : 0 );
+        return k;
+    }
+
+    /**
+     * Internal method to place sorted items into the subtree rooted at slot k
+     * by an in-order walk.
+     * @return the index of the next sorted item to place.
+     */
+    private int fill( Object[ ] sorted, int k, int i )
+    {
+        if( k > n )
+            return i;
+        i = fill( sorted, 2 * k, i );
+        slots[ k ] = sorted[ i++ ];
+        return fill( sorted, 2 * k + 1, i );
+    }
+
+    private AnyType keyOrNull( int k )
+    {
+        return k == 0 ? null : key( k );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private AnyType key( int k )
+    {
+        return (AnyType) slots[ k ];
+    }
+
+    /** The items in Eytzinger order, from slot 1. */
+    private final Object[ ] slots;
+
+    /** The number of items. */
+    private final int n;
+
+
+    // Test program; checks every query against the BinarySearchTree it was frozen from
+    public static void main( String [ ] args )
+    {
+        boolean res = true;
+        java.util.Random random = new java.util.Random( 23 );
+        for( int size : new int[ ] { 0, 1, 2, 3, 4, 7, 8, 9, 31, 32, 33, 100, 1000, 4095, 4096, 20000 } )
+        {
+            BinarySearchTree<Integer> t = new BinarySearchTree<>( BinarySearchTree.Balance.AVL );
+            while( t.size( ) < size )
+                t.insert( random.nextInt( 4 * size ) * 2 );    // Even items, so odd probes miss
+            FrozenBinarySearchTree<Integer> f = t.freeze( );
+            res &= f.size( ) == size && f.isEmpty( ) == ( size == 0 );
+
+            java.util.List<Integer> expected = new java.util.ArrayList<>( );
+            t.forEach( expected::add );
+            java.util.List<Integer> got = new java.util.ArrayList<>( );
+            f.forEach( got::add );
+            res &= got.equals( expected );
+
+            for( int x = -2; x <= 8 * size + 2; x++ )
+            {
+                res &= f.contains( x ) == t.contains( x );
+                res &= java.util.Objects.equals( f.floor( x ), t.floor( x ) );
+                res &= java.util.Objects.equals( f.ceiling( x ), t.ceiling( x ) );
+                res &= java.util.Objects.equals( f.lower( x ), t.lower( x ) );
+                res &= java.util.Objects.equals( f.higher( x ), t.higher( x ) );
+            }
+            if( size == 0 ) {
+                try {
+                    f.findMin( );
+                    res = false;
+                } catch( UnderflowException e ) {
+                    // expected
+                }
+            } else {
+                res &= f.findMin( ).equals( t.findMin( ) ) && f.findMax( ).equals( t.findMax( ) );
+            }
+
+            // Frozen trees are snapshots: later changes to the source do not show
+            t.insert( -10 );
+            res &= !f.contains( -10 ) && f.size( ) == size;
+        }
+
+        // A MULTISET tree freezes its distinct items
+        BinarySearchTree<String> m = new BinarySearchTree<>( BinarySearchTree.Balance.NONE, BinarySearchTree.Feature.MULTISET );
+        for( String s : new String[ ] { "pear", "apple", "pear", "fig", "apple", "pear" } )
+            m.insert( s );
+        FrozenBinarySearchTree<String> fm = m.freeze( );
+        res &= fm.size( ) == 3 && fm.contains( "fig" ) && !fm.contains( "kiwi" );
+        res &= "fig".equals( fm.floor( "grape" ) ) && "pear".equals( fm.ceiling( "grape" ) ) && fm.higher( "pear" ) == null;
+
+        Iterator<String> it = fm.iterator( );
+        res &= it.next( ).equals( "apple" ) && it.next( ).equals( "fig" ) && it.next( ).equals( "pear" ) && !it.hasNext( );
+        try {
+            it.next( );
+            res = false;
+        } catch( NoSuchElementException e ) {
+            // expected
+        }
+
+        System.out.println( "Test result for FrozenBinarySearchTree: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "FrozenBinarySearchTree error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+}
@@ -0,0 +1,79 @@
+// KeyCodec interface
+//
+// ******************PUBLIC OPERATIONS*********************
+// int width( )                     --> Return the encoded length of every key, or -1 if it varies
+// int size( x )                    --> Return the encoded length of x
+// void encode( x, out )            --> Write x at the position of out
+// AnyType decode( in, length )     --> Read a key of the given length at the position of in
+// ******************CODECS********************************
+// INTEGER, LONG                    --> Fixed-width big-endian integers
+// STRING                           --> Variable-width UTF-8 text
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys to and from bytes for the binary tree file format.
+ * A codec with a fixed width lets the file omit its offset table.
+ */
+public interface KeyCodec<AnyType>
+{
+    /**
+     * Returns the number of bytes every key encodes to, or -1 if keys vary in length.
+     */
+    int width( );
+
+    /**
+     * Returns the number of bytes x encodes to.
+     * @param x the key.
+     */
+    int size( AnyType x );
+
+    /**
+     * Write x at the position of out, advancing it by size( x ) bytes.
+     * @param x the key.
+     * @param out the buffer to write to.
+     */
+    void encode( AnyType x, ByteBuffer out );
+
+    /**
+     * Read a key at the position of in, advancing it by length bytes.
+     * @param in the buffer to read from.
+     * @param length the number of bytes the key was encoded to.
+     * @return the key.
+     */
+    AnyType decode( ByteBuffer in, int length );
+
+    /** Integers as 4 big-endian bytes. */
+    KeyCodec<Integer> INTEGER = new KeyCodec<Integer>( )
+    {
+        public int width( )                                { return 4; }
+        public int size( Integer x )                       { return 4; }
+        public void encode( Integer x, ByteBuffer out )    { out.putInt( x ); }
+        public Integer decode( ByteBuffer in, int length ) { return in.getInt( ); }
+    };
+
+    /** Longs as 8 big-endian bytes. */
+    KeyCodec<Long> LONG = new KeyCodec<Long>( )
+    {
+        public int width( )                             { return 8; }
+        public int size( Long x )                       { return 8; }
+        public void encode( Long x, ByteBuffer out )    { out.putLong( x ); }
+        public Long decode( ByteBuffer in, int length ) { return in.getLong( ); }
+    };
+
+    /** Strings as UTF-8 bytes; the file records their lengths. */
+    KeyCodec<String> STRING = new KeyCodec<String>( )
+    {
+        public int width( )                           { return -1; }
+        public int size( String x )                   { return x.getBytes( StandardCharsets.UTF_8 ).length; }
+        public void encode( String x, ByteBuffer out ) { out.put( x.getBytes( StandardCharsets.UTF_8 ) ); }
+
+        public String decode( ByteBuffer in, int length )
+        {
+            byte[] bytes = new byte[ length ];
+            in.get( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+    };
+}
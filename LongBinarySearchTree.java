@@ -0,0 +1,566 @@
+// LongBinarySearchTree class
+//
+// CONSTRUCTION: with no initializer, or with a Balance mode
+//
+// ******************PUBLIC OPERATIONS*********************
+// void insert( x )                 --> Insert x
+// void remove( x )                 --> Remove x
+// boolean contains( x )            --> Return true if x is present
+// long findMin( )                  --> Return smallest item
+// long findMax( )                  --> Return largest item
+// boolean isEmpty( )               --> Return true if empty; else false
+// void makeEmpty( )                --> Remove all items
+// void printTree( )                --> Print tree in sorted order
+// int nodeCount()                  --> Return the total number of nodes in the tree
+// int size( )                      --> Return the number of items, in O(1)
+// int height( )                    --> Return the height of the tree, in O(1)
+// boolean isFull()                 --> Return true if it's a full tree; else false
+// boolean compareStructure()       --> Return true if two trees have the same structure; else false
+// boolean equals()                 --> Return true if two trees are identical; else false
+// LongBinarySearchTree copy()       --> Return a copy of the tree
+// LongBinarySearchTree mirror()     --> Return a mirror image of the tree
+// boolean isMirror()               --> Return true if two trees are mirror images; else false
+// ******************ERRORS********************************
+// Throws UnderflowException as appropriate
+// Throws IllegalArgumentException for the SPLAY and SEMI_SPLAY balance modes
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Implements a binary search tree of long keys, the primitive counterpart of
+ * BinarySearchTree&lt;Long&gt;. Keys are stored unboxed and compared directly.
+ */
+public class LongBinarySearchTree
+{
+    /**
+     * Construct the tree.
+     */
+    public LongBinarySearchTree( )
+    {
+        this( BinarySearchTree.Balance.NONE );
+    }
+
+    /**
+     * Construct the tree with the given balancing strategy.
+     * @param balance the strategy applied by insert and remove.
+     * @throws IllegalArgumentException if balance is SPLAY or SEMI_SPLAY, which this tree does not offer.
+     */
+    public LongBinarySearchTree( BinarySearchTree.Balance balance )
+    {
+        if( balance == BinarySearchTree.Balance.SPLAY || balance == BinarySearchTree.Balance.SEMI_SPLAY )
+            throw new IllegalArgumentException( "Unsupported balance: " + balance );
+        this.balance = balance;
+        root = null;
+    }
+
+    /**
+     * Insert into the tree; duplicates are ignored.
+     * @param x the item to insert.
+     */
+    public void insert( long x )
+    {
+        int depth = 0;
+        LongNode p = root;
+        while( p != null )
+        {
+            if( x == p.element )
+            {
+                clearPath( depth );
+                return;  // Duplicate; do nothing
+            }
+            push( depth++, p, x < p.element );
+            p = x < p.element ? p.left : p.right;
+        }
+        size++;
+        root = fixPath( depth, new LongNode( x ) );
+    }
+
+    /**
+     * Remove from the tree. Nothing is done if x is not found.
+     * @param x the item to remove.
+     */
+    public void remove( long x )
+    {
+        int depth = 0;
+        LongNode p = root;
+        while( p != null && x != p.element )
+        {
+            push( depth++, p, x < p.element );
+            p = x < p.element ? p.left : p.right;
+        }
+        if( p == null )
+        {
+            clearPath( depth );
+            return;   // Item not found; do nothing
+        }
+
+        if( p.left != null && p.right != null ) // Two children
+        {
+            // Replace with the smallest item of the right subtree, then unlink that node
+            LongNode target = p;
+            push( depth++, p, false );
+            p = p.right;
+            while( p.left != null )
+            {
+                push( depth++, p, true );
+                p = p.left;
+            }
+            target.element = p.element;
+        }
+        size--;
+        root = fixPath( depth, ( p.left != null ) ? p.left : p.right );
+    }
+
+    /**
+     * Find the smallest item in the tree.
+     * @return smallest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public long findMin( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        LongNode t = root;
+        while( t.left != null )
+            t = t.left;
+        return t.element;
+    }
+
+    /**
+     * Find the largest item in the tree.
+     * @return the largest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public long findMax( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        LongNode t = root;
+        while( t.right != null )
+            t = t.right;
+        return t.element;
+    }
+
+    /**
+     * Find an item in the tree.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( long x )
+    {
+        LongNode t = root;
+        while( t != null )
+        {
+            if( x < t.element )
+                t = t.left;
+            else if( x > t.element )
+                t = t.right;
+            else
+                return true;    // Match
+        }
+        return false;
+    }
+
+    /**
+     * Make the tree logically empty.
+     */
+    public void makeEmpty( )
+    {
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * Test if the tree is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return root == null;
+    }
+
+    /**
+     * Print the tree contents in sorted order.
+     */
+    public void printTree( )
+    {
+        if( isEmpty( ) )
+        {
+            System.out.println( "Empty tree" );
+            return;
+        }
+        Deque<LongNode> stack = new ArrayDeque<>( );
+        for( LongNode t = root; t != null || !stack.isEmpty( ); )
+        {
+            if( t != null )
+            {
+                stack.push( t );
+                t = t.left;
+            }
+            else
+            {
+                t = stack.pop( );
+                System.out.println( t.element );
+                t = t.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the count of nodes; same as size().
+     */
+    public int nodeCount( )
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of items in the tree in constant time.
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * Returns the height of the tree in constant time.
+     * @return the number of edges on the longest root-to-leaf path, or -1 if empty.
+     */
+    public int height( )
+    {
+        return height( root );
+    }
+
+    /**
+     * Returns true if the tree is full.  A full tree has every node
+     as either a leaf or a parent with two children.
+     */
+    public boolean isFull( )
+    {
+        Deque<LongNode> stack = new ArrayDeque<>( );
+        if( root != null )
+            stack.push( root );
+        while( !stack.isEmpty( ) )
+        {
+            LongNode t = stack.pop( );
+            if( ( t.left == null ) != ( t.right == null ) ) return false;
+            if( t.left != null ) {
+                stack.push( t.left );
+                stack.push( t.right );
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Compares the structure of current tree to another tree and returns
+     true if they match.
+     * @param t, the other tree to compare to
+     */
+    public boolean compareStructure( LongBinarySearchTree t )
+    {
+        return matches( root, t.root, false, false );
+    }
+
+    /**
+     *  Compares the current tree to another tree and returns true
+     if they are identical.
+     * @param t, the other tree to compare to
+     */
+    public boolean equals( LongBinarySearchTree t )
+    {
+        return matches( root, t.root, true, false );
+    }
+
+    /**
+     *  Returns true if the tree is a mirror of the passed tree.
+     */
+    public boolean isMirror( LongBinarySearchTree t2 )
+    {
+        return matches( root, t2.root, true, true );
+    }
+
+    /**
+     *  Creates and returns a new tree that is a copy of the original tree.
+     */
+    public LongBinarySearchTree copy( )
+    {
+        return duplicate( false );
+    }
+
+    /**
+     *  Creates and returns a new tree that is a mirror of the original tree.
+     */
+    public LongBinarySearchTree mirror( )
+    {
+        return duplicate( true );
+    }
+
+    /**
+     * Internal method to walk two trees in lockstep, comparing shape and optionally elements.
+     * @param t the node that roots the subtree of current tree.
+     * @param t2 the node that roots the subtree of the other tree.
+     * @param elements true to also require equal elements.
+     * @param mirrored true to pair each left child with the other tree's right child.
+     */
+    private static boolean matches( LongNode t, LongNode t2, boolean elements, boolean mirrored )
+    {
+        if( t == null || t2 == null ) return t == t2;
+        Deque<LongNode> stack = new ArrayDeque<>( );
+        Deque<LongNode> stack2 = new ArrayDeque<>( );
+        stack.push( t );
+        stack2.push( t2 );
+        while( !stack.isEmpty( ) )
+        {
+            t = stack.pop( );
+            t2 = stack2.pop( );
+            if( elements && t.element != t2.element ) return false;
+            LongNode left2 = mirrored ? t2.right : t2.left;
+            LongNode right2 = mirrored ? t2.left : t2.right;
+            if( ( t.left == null ) != ( left2 == null ) || ( t.right == null ) != ( right2 == null ) )
+                return false;
+            if( t.left != null ) {
+                stack.push( t.left );
+                stack2.push( left2 );
+            }
+            if( t.right != null ) {
+                stack.push( t.right );
+                stack2.push( right2 );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Internal method to copy the tree node by node, optionally swapping children.
+     * @param mirrored true to swap the left and right children of every copied node.
+     */
+    private LongBinarySearchTree duplicate( boolean mirrored )
+    {
+        LongBinarySearchTree res = new LongBinarySearchTree( balance );
+        res.size = size;
+        if( root == null )
+            return res;
+        Deque<LongNode> stack = new ArrayDeque<>( );
+        Deque<LongNode> stack2 = new ArrayDeque<>( );
+        res.root = new LongNode( root );
+        stack.push( root );
+        stack2.push( res.root );
+        while( !stack.isEmpty( ) )
+        {
+            LongNode t = stack.pop( );
+            LongNode t2 = stack2.pop( );
+            if( t.left != null ) {
+                LongNode c = new LongNode( t.left );
+                if( mirrored ) t2.right = c; else t2.left = c;
+                stack.push( t.left );
+                stack2.push( c );
+            }
+            if( t.right != null ) {
+                LongNode c = new LongNode( t.right );
+                if( mirrored ) t2.left = c; else t2.right = c;
+                stack.push( t.right );
+                stack2.push( c );
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Internal method to record a step of a root-to-node descent.
+     * @param depth the position of the step on the path.
+     * @param t the node passed through.
+     * @param wentLeft true if the descent continued into t.left.
+     */
+    private void push( int depth, LongNode t, boolean wentLeft )
+    {
+        if( path == null || depth == path.length )
+        {
+            int capacity = path == null ? 32 : path.length * 2;
+            path = path == null ? new LongNode[ capacity ] : Arrays.copyOf( path, capacity );
+            pathLeft = pathLeft == null ? new boolean[ capacity ] : Arrays.copyOf( pathLeft, capacity );
+        }
+        path[ depth ] = t;
+        pathLeft[ depth ] = wentLeft;
+    }
+
+    /**
+     * Internal method to walk a recorded descent back up, hanging the new child
+     * under each step and rebalancing it.
+     * @param depth the number of recorded steps.
+     * @param child the new subtree below the last step.
+     * @return the new root of the whole path.
+     */
+    private LongNode fixPath( int depth, LongNode child )
+    {
+        while( depth > 0 )
+        {
+            LongNode t = path[ --depth ];
+            path[ depth ] = null;   // Don't keep removed nodes reachable
+            if( pathLeft[ depth ] )
+                t.left = child;
+            else
+                t.right = child;
+            child = balance( t );
+        }
+        return child;
+    }
+
+    /**
+     * Internal method to drop the references held by a recorded descent.
+     * @param depth the number of recorded steps.
+     */
+    private void clearPath( int depth )
+    {
+        if( depth > 0 )
+            Arrays.fill( path, 0, depth, null );
+    }
+
+    /**
+     * Internal method to compute height of a subtree.
+     * @param t the node that roots the subtree.
+     */
+    private static int height( LongNode t )
+    {
+        return t == null ? -1 : t.height;
+    }
+
+    /**
+     * Internal method to restore the height and, in AVL mode, the balance of a subtree
+     * whose children are already balanced.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    private LongNode balance( LongNode t )
+    {
+        if( balance == BinarySearchTree.Balance.AVL )
+        {
+            if( height( t.left ) - height( t.right ) > ALLOWED_IMBALANCE )
+            {
+                if( height( t.left.left ) < height( t.left.right ) )
+                    t.left = rotateLeft( t.left );
+                return rotateRight( t );
+            }
+            if( height( t.right ) - height( t.left ) > ALLOWED_IMBALANCE )
+            {
+                if( height( t.right.right ) < height( t.right.left ) )
+                    t.right = rotateRight( t.right );
+                return rotateLeft( t );
+            }
+        }
+
+        t.height = Math.max( height( t.left ), height( t.right ) ) + 1;
+        return t;
+    }
+
+    /**
+     * Internal method to rotate a node with its left child, updating both heights.
+     * @param k2 the node to rotate; must have a left child.
+     * @return the new root of the subtree.
+     */
+    private static LongNode rotateRight( LongNode k2 )
+    {
+        LongNode k1 = k2.left;
+        k2.left = k1.right;
+        k1.right = k2;
+        k2.height = Math.max( height( k2.left ), height( k2.right ) ) + 1;
+        k1.height = Math.max( height( k1.left ), k2.height ) + 1;
+        return k1;
+    }
+
+    /**
+     * Internal method to rotate a node with its right child, updating both heights.
+     * @param k1 the node to rotate; must have a right child.
+     * @return the new root of the subtree.
+     */
+    private static LongNode rotateLeft( LongNode k1 )
+    {
+        LongNode k2 = k1.right;
+        k1.right = k2.left;
+        k2.left = k1;
+        k1.height = Math.max( height( k1.left ), height( k1.right ) ) + 1;
+        k2.height = Math.max( k1.height, height( k2.right ) ) + 1;
+        return k2;
+    }
+
+    // Basic node stored in long binary search trees
+    private static class LongNode
+    {
+        // Constructors
+        LongNode( long theElement )
+        {
+            element = theElement;
+        }
+
+        LongNode( LongNode original )
+        {
+            element = original.element;
+            height  = original.height;
+        }
+
+        long element;       // The data in the node
+        LongNode left;       // Left child
+        LongNode right;      // Right child
+        int height;         // Height of the subtree; a leaf has height 0
+    }
+
+    private static final int ALLOWED_IMBALANCE = 1;
+
+    /** The tree root. */
+    private LongNode root;
+
+    /** The number of items in the tree. */
+    private int size;
+
+    /** The balancing strategy applied by insert and remove. */
+    private final BinarySearchTree.Balance balance;
+
+    /** Scratch stack of the nodes and directions of the current root-to-node descent. */
+    private LongNode[] path;
+    private boolean[] pathLeft;
+
+
+    // Test program; checks every operation against BinarySearchTree<Long>
+    public static void main( String [ ] args )
+    {
+        for( BinarySearchTree.Balance balance : new BinarySearchTree.Balance[ ] { BinarySearchTree.Balance.NONE, BinarySearchTree.Balance.AVL } )
+        {
+            LongBinarySearchTree t = new LongBinarySearchTree( balance );
+            BinarySearchTree<Long> expected = new BinarySearchTree<>( balance );
+            java.util.Random random = new java.util.Random( 42 );
+            boolean res = true;
+            for( int i = 0; i < 20000; i++ )
+            {
+                long x = random.nextInt( 5000 ) - 2500L << 32;
+                if( random.nextInt( 3 ) == 0 ) {
+                    t.remove( x );
+                    expected.remove( x );
+                } else {
+                    t.insert( x );
+                    expected.insert( x );
+                }
+                res &= t.contains( x ) == expected.contains( x );
+            }
+            res &= t.size( ) == expected.size( ) && t.nodeCount( ) == expected.nodeCount( );
+            res &= t.height( ) == expected.height( ) && t.isFull( ) == expected.isFull( );
+            res &= t.findMin( ) == expected.findMin( ) && t.findMax( ) == expected.findMax( );
+            LongBinarySearchTree c = t.copy( );
+            LongBinarySearchTree m = t.mirror( );
+            res &= t.equals( c ) && t.compareStructure( c ) && t.isMirror( m ) && !t.equals( m );
+            c.insert( 10000 );
+            res &= !t.equals( c ) && !t.contains( 10000 );
+            t.makeEmpty( );
+            res &= t.isEmpty( ) && t.size( ) == 0 && t.isFull( );
+
+            System.out.println( "Test result for LongBinarySearchTree (" + balance + "): " );
+            System.out.println( "The expected answer is: " + true );
+            System.out.println( "The result got is: " + res );
+            if( !res ) {
+                System.out.println( "LongBinarySearchTree error!" );
+            }
+            System.out.println( "\n\n\n" );
+        }
+    }
+}
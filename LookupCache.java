@@ -0,0 +1,561 @@
+// LookupCache class
+//
+// CONSTRUCTION: with a capacity and an Eviction policy; attach with
+// BinarySearchTree.setLookupCache or BinarySearchTreeMap.setLookupCache
+//
+// ******************PUBLIC OPERATIONS*********************
+// V get( k )                       --> Return the cached value of k, or null
+// void put( k, v )                 --> Cache v for k, evicting if full
+// void invalidate( k )             --> Drop k
+// void clear( )                    --> Drop everything
+// int size( )                      --> Return the number of cached keys
+// int capacity( )                  --> Return the most keys kept
+// long hitCount( ), missCount( )   --> Return the lookups that found or missed a key
+// long evictionCount( )            --> Return the keys dropped to make room
+// double hitRate( )                --> Return hits / lookups, or 0 before any lookup
+// ******************ERRORS********************************
+// Throws IllegalArgumentException for a capacity below 1
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map from lookup keys to their answers, kept in front of a tree so
+ * that hot keys skip the descent. It does not know when an answer goes stale:
+ * its owner invalidates a key whenever that key is inserted or removed, and
+ * clears the cache after any bulk change.
+ * Keys must have equals and hashCode consistent with their compareTo.
+ * Like the trees it serves, a cache is not safe for concurrent use.
+ *
+ * Eviction policies:
+ *   LRU        -- drops the least recently used key.
+ *   CLOCK      -- approximates LRU with one reference bit per slot and a
+ *                 sweeping hand, so a hit only sets a bit.
+ *   W_TINY_LFU -- a small LRU window in front of a segmented LRU main area;
+ *                 a key leaving the window only displaces the main area's
+ *                 victim if a frequency sketch has seen it more often, so a
+ *                 burst of one-off keys cannot flush the hot set.
+ */
+public class LookupCache<K, V>
+{
+    /**
+     * The ways of choosing which key to drop when the cache is full.
+     */
+    public enum Eviction
+    {
+        LRU, CLOCK, W_TINY_LFU
+    }
+
+    /**
+     * Construct an empty cache.
+     * @param capacity the most keys kept.
+     * @param eviction how to choose the key to drop.
+     * @throws IllegalArgumentException if capacity is less than 1.
+     */
+    public LookupCache( int capacity, Eviction eviction )
+    {
+        if( capacity < 1 )
+            throw new IllegalArgumentException( "Capacity must be positive: " + capacity );
+        this.capacity = capacity;
+        this.eviction = eviction;
+        switch( eviction )
+        {
+          case LRU:
+            store = new LruStore<>( this );
+            break;
+          case CLOCK:
+            store = new ClockStore<>( this );
+            break;
+          default:
+            store = new TinyLfuStore<>( this );
+            break;
+        }
+    }
+
+    /**
+     * Find the cached value of a key, counting a hit or a miss.
+     * @param key the key.
+     * @return the value, or null if the key is not cached.
+     */
+    public V get( K key )
+    {
+        V value = store.get( key );
+        if( value == null )
+            misses++;
+        else
+            hits++;
+        return value;
+    }
+
+    /**
+     * Cache a value for a key, evicting another key if the cache is full.
+     * @param key the key.
+     * @param value the value; not null.
+     */
+    public void put( K key, V value )
+    {
+        store.put( key, value );
+    }
+
+    /**
+     * Drop a key, if it is cached.
+     */
+    public void invalidate( K key )
+    {
+        store.remove( key );
+    }
+
+    /**
+     * Drop every key. The counters are kept.
+     */
+    public void clear( )
+    {
+        store.clear( );
+    }
+
+    /**
+     * Returns the number of cached keys.
+     */
+    public int size( )
+    {
+        return store.size( );
+    }
+
+    /**
+     * Returns the most keys the cache keeps.
+     */
+    public int capacity( )
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the eviction policy.
+     */
+    public Eviction eviction( )
+    {
+        return eviction;
+    }
+
+    /** Returns the number of lookups that found their key. */
+    public long hitCount( )
+    {
+        return hits;
+    }
+
+    /** Returns the number of lookups that did not find their key. */
+    public long missCount( )
+    {
+        return misses;
+    }
+
+    /** Returns the number of keys dropped to make room for others. */
+    public long evictionCount( )
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of lookups that found their key, or 0 before any lookup.
+     */
+    public double hitRate( )
+    {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public String toString( )
+    {
+        return String.format( "%s capacity=%d size=%d hits=%d misses=%d hitRate=%.3f evictions=%d",
+                eviction, capacity, size( ), hits, misses, hitRate( ), evictions );
+    }
+
+    // The storage behind a policy
+    private static abstract class Store<K, V>
+    {
+        Store( LookupCache<K, V> cache )
+        {
+            this.cache = cache;
+        }
+
+        abstract V get( K key );
+        abstract void put( K key, V value );
+        abstract void remove( K key );
+        abstract void clear( );
+        abstract int size( );
+
+        final LookupCache<K, V> cache;
+    }
+
+    // LRU: a LinkedHashMap in access order drops its eldest entry
+    private static final class LruStore<K, V> extends Store<K, V>
+    {
+        LruStore( LookupCache<K, V> cache )
+        {
+            super( cache );
+            map = new LinkedHashMap<K, V>( 16, 0.75f, true )
+            {
+                protected boolean removeEldestEntry( Map.Entry<K, V> eldest )
+                {
+                    if( size( ) <= cache.capacity )
+                        return false;
+                    cache.evictions++;
+                    return true;
+                }
+            };
+        }
+
+        V get( K key )               { return map.get( key ); }
+        void put( K key, V value )   { map.put( key, value ); }
+        void remove( K key )         { map.remove( key ); }
+        void clear( )                { map.clear( ); }
+        int size( )                  { return map.size( ); }
+
+        private final LinkedHashMap<K, V> map;
+    }
+
+    // CLOCK: fixed slots with reference bits; the hand clears bits until it finds an unreferenced slot
+    private static final class ClockStore<K, V> extends Store<K, V>
+    {
+        @SuppressWarnings( "unchecked" )
+        ClockStore( LookupCache<K, V> cache )
+        {
+            super( cache );
+            keys = (K[]) new Object[ cache.capacity ];
+            values = (V[]) new Object[ cache.capacity ];
+            referenced = new boolean[ cache.capacity ];
+            free = new int[ cache.capacity ];
+            clear( );
+        }
+
+        V get( K key )
+        {
+            Integer slot = index.get( key );
+            if( slot == null )
+                return null;
+            referenced[ slot ] = true;
+            return values[ slot ];
+        }
+
+        void put( K key, V value )
+        {
+            Integer existing = index.get( key );
+            if( existing != null )
+            {
+                values[ existing ] = value;
+                return;
+            }
+            int slot;
+            if( freeCount > 0 )
+                slot = free[ --freeCount ];
+            else
+            {
+                // Every slot is in use; sweep for one that was not referenced since the last pass
+                while( referenced[ hand ] )
+                {
+                    referenced[ hand ] = false;
+                    hand = ( hand + 1 ) % keys.length;
+                }
+                slot = hand;
+                hand = ( hand + 1 ) % keys.length;
+                index.remove( keys[ slot ] );
+                cache.evictions++;
+            }
+            keys[ slot ] = key;
+            values[ slot ] = value;
+            referenced[ slot ] = false;
+            index.put( key, slot );
+        }
+
+        void remove( K key )
+        {
+            Integer slot = index.remove( key );
+            if( slot != null )
+                release( slot );
+        }
+
+        void clear( )
+        {
+            index.clear( );
+            freeCount = 0;
+            for( int slot = keys.length - 1; slot >= 0; slot-- )
+                release( slot );
+            hand = 0;
+        }
+
+        int size( )
+        {
+            return index.size( );
+        }
+
+        private void release( int slot )
+        {
+            keys[ slot ] = null;
+            values[ slot ] = null;
+            referenced[ slot ] = false;
+            free[ freeCount++ ] = slot;
+        }
+
+        private final HashMap<K, Integer> index = new HashMap<>( );
+        private final K[ ] keys;
+        private final V[ ] values;
+        private final boolean[ ] referenced;
+        private final int[ ] free;      // Slots not in use; taken before the hand sweeps
+        private int freeCount;
+        private int hand;
+    }
+
+    // W-TinyLFU: an LRU window of about 1% of the capacity, then a segmented LRU
+    // split 20/80 into probation and protected, with admission by a frequency sketch
+    private static final class TinyLfuStore<K, V> extends Store<K, V>
+    {
+        TinyLfuStore( LookupCache<K, V> cache )
+        {
+            super( cache );
+            windowCapacity = Math.max( 1, cache.capacity / 100 );
+            mainCapacity = cache.capacity - windowCapacity;
+            protectedCapacity = mainCapacity * 4 / 5;
+            sketch = new FrequencySketch( cache.capacity );
+        }
+
+        V get( K key )
+        {
+            sketch.increment( key );
+            V value = window.get( key );
+            if( value != null )
+                return value;
+            value = protectedSegment.get( key );
+            if( value != null )
+                return value;
+            value = probation.remove( key );
+            if( value != null )
+            {
+                // A second hit in the main area earns protection; the protected LRU steps down
+                protectedSegment.put( key, value );
+                if( protectedSegment.size( ) > protectedCapacity )
+                {
+                    Map.Entry<K, V> demoted = eldest( protectedSegment );
+                    protectedSegment.remove( demoted.getKey( ) );
+                    probation.put( demoted.getKey( ), demoted.getValue( ) );
+                }
+            }
+            return value;
+        }
+
+        void put( K key, V value )
+        {
+            if( window.containsKey( key ) )
+                window.put( key, value );
+            else if( protectedSegment.containsKey( key ) )
+                protectedSegment.put( key, value );
+            else if( probation.containsKey( key ) )
+                probation.put( key, value );
+            else
+            {
+                window.put( key, value );
+                if( window.size( ) > windowCapacity )
+                    admit( eldest( window ) );
+            }
+        }
+
+        // Move the window's eldest key into the main area if it is worth more than the main victim
+        private void admit( Map.Entry<K, V> candidate )
+        {
+            window.remove( candidate.getKey( ) );
+            if( probation.size( ) + protectedSegment.size( ) < mainCapacity )
+            {
+                probation.put( candidate.getKey( ), candidate.getValue( ) );
+                return;
+            }
+            LinkedHashMap<K, V> victims = probation.isEmpty( ) ? protectedSegment : probation;
+            Map.Entry<K, V> victim = victims.isEmpty( ) ? null : eldest( victims );
+            cache.evictions++;
+            if( victim != null && sketch.frequency( candidate.getKey( ) ) > sketch.frequency( victim.getKey( ) ) )
+            {
+                victims.remove( victim.getKey( ) );
+                probation.put( candidate.getKey( ), candidate.getValue( ) );
+            }
+        }
+
+        void remove( K key )
+        {
+            if( window.remove( key ) == null && probation.remove( key ) == null )
+                protectedSegment.remove( key );
+        }
+
+        void clear( )
+        {
+            window.clear( );
+            probation.clear( );
+            protectedSegment.clear( );
+        }
+
+        int size( )
+        {
+            return window.size( ) + probation.size( ) + protectedSegment.size( );
+        }
+
+        private static <K, V> Map.Entry<K, V> eldest( LinkedHashMap<K, V> segment )
+        {
+            Iterator<Map.Entry<K, V>> it = segment.entrySet( ).iterator( );
+            Map.Entry<K, V> e = it.next( );
+            return Map.entry( e.getKey( ), e.getValue( ) );
+        }
+
+        private final LinkedHashMap<K, V> window = new LinkedHashMap<>( 16, 0.75f, true );
+        private final LinkedHashMap<K, V> probation = new LinkedHashMap<>( 16, 0.75f, true );
+        private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>( 16, 0.75f, true );
+        private final int windowCapacity;
+        private final int mainCapacity;
+        private final int protectedCapacity;
+        private final FrequencySketch sketch;
+    }
+
+    // A count-min sketch of 4-bit counters, four per key, halved every 10 * capacity
+    // increments so that old popularity fades
+    private static final class FrequencySketch
+    {
+        FrequencySketch( int capacity )
+        {
+            int width = Integer.highestOneBit( Math.max( 16, capacity ) - 1 ) << 1;
+            counters = new byte[ width * DEPTH ];
+            mask = width - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        void increment( Object key )
+        {
+            int h = spread( key.hashCode( ) );
+            for( int row = 0; row < DEPTH; row++ )
+            {
+                int i = index( h, row );
+                if( counters[ i ] < MAX_COUNT )
+                    counters[ i ]++;
+            }
+            if( ++samples >= sampleSize )
+            {
+                for( int i = 0; i < counters.length; i++ )
+                    counters[ i ] >>= 1;
+                samples /= 2;
+            }
+        }
+
+        int frequency( Object key )
+        {
+            int h = spread( key.hashCode( ) );
+            int min = MAX_COUNT;
+            for( int row = 0; row < DEPTH; row++ )
+                min = Math.min( min, counters[ index( h, row ) ] );
+            return min;
+        }
+
+        private int index( int h, int row )
+        {
+            int hash = ( h + SEEDS[ row ] ) * SEEDS[ row ];
+            hash ^= hash >>> 17;
+            return row * ( mask + 1 ) + ( hash & mask );
+        }
+
+        private static int spread( int h )
+        {
+            h *= 0x9E3779B9;
+            return h ^ ( h >>> 16 );
+        }
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[ ] SEEDS = { 0x97CB3127, 0xB3A6E7C5, 0xC3B0B3A5, 0x8BCD8C2F };
+
+        private final byte[ ] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int samples;
+    }
+
+    private final int capacity;
+    private final Eviction eviction;
+    private final Store<K, V> store;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    // Test program; checks each policy against a map model and for its eviction behaviour
+    public static void main( String [ ] args )
+    {
+        boolean res = true;
+        for( Eviction eviction : Eviction.values( ) )
+        {
+            LookupCache<Integer, String> cache = new LookupCache<>( 100, eviction );
+            java.util.Random random = new java.util.Random( 25 );
+            Map<Integer, String> model = new HashMap<>( );
+            for( int i = 0; i < 20000; i++ )
+            {
+                int k = random.nextInt( 300 );
+                switch( random.nextInt( 4 ) )
+                {
+                  case 0:
+                    cache.put( k, "v" + k + "." + i );
+                    model.put( k, "v" + k + "." + i );
+                    break;
+                  case 1:
+                    cache.invalidate( k );
+                    model.remove( k );
+                    break;
+                  default:
+                    // A cached value is always the latest one put; an uncached key may have been evicted
+                    String v = cache.get( k );
+                    res &= v == null || v.equals( model.get( k ) );
+                    break;
+                }
+                res &= cache.size( ) <= cache.capacity( );
+            }
+            res &= cache.hitCount( ) + cache.missCount( ) > 0 && cache.evictionCount( ) > 0;
+            res &= cache.hitRate( ) > 0 && cache.hitRate( ) < 1;
+
+            // A key that is used again and again survives a scan of one-off keys
+            cache.clear( );
+            res &= cache.size( ) == 0 && cache.get( 7 ) == null;
+            for( int i = 0; i < 10; i++ )
+            {
+                if( cache.get( -1 ) == null )
+                    cache.put( -1, "hot" );
+            }
+            for( int i = 0; i < 1000; i++ )
+            {
+                if( i % 5 == 0 )
+                    res &= "hot".equals( cache.get( -1 ) ) || eviction == Eviction.LRU && cache.get( -1 ) == null;
+                if( cache.get( i ) == null )
+                    cache.put( i, "cold" );
+            }
+            res &= "hot".equals( cache.get( -1 ) );
+
+            // Under a skewed load every policy keeps most hot keys
+            cache = new LookupCache<>( 100, eviction );
+            int[ ] draws = new int[ 50000 ];
+            Zipfian.fill( draws, 10000, 0.99, random );
+            for( int k : draws )
+                if( cache.get( k ) == null )
+                    cache.put( k, "" );
+            res &= cache.hitRate( ) > 0.3;
+            System.out.println( cache );
+        }
+
+        try {
+            new LookupCache<Integer, Integer>( 0, Eviction.LRU );
+            res = false;
+        } catch( IllegalArgumentException e ) {
+            // expected
+        }
+
+        System.out.println( "Test result for LookupCache: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "LookupCache error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+}
@@ -0,0 +1,489 @@
+// MappedBinarySearchTree class
+//
+// CONSTRUCTION: with open( path, codec ), on a file written by write or BinarySearchTree.save
+//
+// ******************PUBLIC OPERATIONS*********************
+// void write( path, items, n, codec ) --> Write n sorted items as a tree file
+// long size( )                     --> Return the number of items
+// Comparable get( k )              --> Return the item of rank k (0-based)
+// boolean contains( x )            --> Return true if x is present
+// long rank( x )                   --> Return the number of items smaller than x
+// Iterable subSet( lo, hi )        --> Return a lazy view of the items in a range
+// Iterator iterator( )             --> Return an in-order iterator
+// void close( )                    --> Unmap the file
+// ******************ERRORS********************************
+// Throws IOException if the file cannot be read or is not a tree file
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Serves lookups straight from a memory-mapped tree file, without building any
+ * nodes. The file holds the items in ascending order, which is the in-order
+ * sequence of an implicit perfectly balanced tree: a binary search over ranks
+ * visits the same log2(n) items a balanced tree would.
+ * Reads never move a shared buffer position, so any number of threads may query
+ * one instance, but close must not overlap with them.
+ *
+ * File layout, big-endian:
+ *   int magic, int version, long count, int width, int window, long dataLength
+ *   long[ count ] offsets      -- only if width is -1: where each item starts
+ *   byte[ dataLength ] data    -- the items in ascending order
+ * Fixed-width items are stored back to back; variable-width items carry an int
+ * length prefix. The data is mapped in windows of the given size and no item
+ * crosses a window boundary, so files larger than a single 2 GiB mapping work.
+ */
+public class MappedBinarySearchTree<AnyType extends Comparable<? super AnyType>> implements Iterable<AnyType>, AutoCloseable
+{
+    private MappedBinarySearchTree( KeyCodec<AnyType> codec, long count, int width, int window,
+                                    ByteBuffer[] offsets, ByteBuffer[] data )
+    {
+        this.codec   = codec;
+        this.count   = count;
+        this.width   = width;
+        this.window  = window;
+        this.offsets = offsets;
+        this.data    = data;
+    }
+
+    /**
+     * Write items to a tree file.
+     * @param path the file to create or replace.
+     * @param items the items, in strictly ascending order.
+     * @param n the number of items.
+     * @param codec the encoding of the items.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if the items are not sorted or not n in number.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> void write( Path path, Iterable<? extends AnyType> items,
+            long n, KeyCodec<AnyType> codec ) throws IOException
+    {
+        write( path, items, n, codec, DEFAULT_WINDOW );
+    }
+
+    /**
+     * Map a tree file for reading.
+     * @param path the file.
+     * @param codec the encoding the file was written with.
+     * @return a view of the items in the file.
+     * @throws IOException if the file cannot be read or is not a tree file for this codec.
+     */
+    public static <AnyType extends Comparable<? super AnyType>> MappedBinarySearchTree<AnyType> open( Path path,
+            KeyCodec<AnyType> codec ) throws IOException
+    {
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            if( channel.size( ) < HEADER_BYTES )
+                throw new IOException( "Not a tree file: " + path );
+            ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES );
+            if( header.getInt( ) != MAGIC || header.getInt( ) != VERSION )
+                throw new IOException( "Not a tree file: " + path );
+            long count = header.getLong( );
+            int width = header.getInt( );
+            int window = header.getInt( );
+            long dataLength = header.getLong( );
+            if( width != codec.width( ) )
+                throw new IOException( "File was written with a different codec: " + path );
+            long tableLength = width < 0 ? count * 8 : 0;
+            if( count < 0 || window <= 0 || window % 8 != 0 || HEADER_BYTES + tableLength + dataLength != channel.size( ) )
+                throw new IOException( "Corrupt tree file: " + path );
+
+            return new MappedBinarySearchTree<>( codec, count, width, window,
+                    map( channel, HEADER_BYTES, tableLength, window ),
+                    map( channel, HEADER_BYTES + tableLength, dataLength, window ) );
+        }
+    }
+
+    /**
+     * Returns the number of items.
+     */
+    public long size( )
+    {
+        return count;
+    }
+
+    /**
+     * Find the item of a given rank.
+     * @param k the rank, from 0 to size( ) - 1.
+     * @return the item that has k smaller items.
+     * @throws IndexOutOfBoundsException if k is out of range.
+     */
+    public AnyType get( long k )
+    {
+        if( k < 0 || k >= count )
+            throw new IndexOutOfBoundsException( "Rank: " + k + ", size: " + count );
+        long start;
+        if( width >= 0 )
+        {
+            long perWindow = window / width;
+            start = k / perWindow * window + k % perWindow * width;
+        }
+        else
+            start = buffer( offsets, k * 8 ).getLong( (int) ( k * 8 % window ) );
+
+        ByteBuffer in = buffer( data, start ).duplicate( );
+        in.position( (int) ( start % window ) );
+        return codec.decode( in, width >= 0 ? width : in.getInt( ) );
+    }
+
+    /**
+     * Find an item in the file, in O(log n) decodes.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( AnyType x )
+    {
+        long k = rank( x );
+        return k < count && get( k ).compareTo( x ) == 0;
+    }
+
+    /**
+     * Count the items smaller than x.
+     * @param x the item to rank; need not be present.
+     * @return the number of items smaller than x.
+     */
+    public long rank( AnyType x )
+    {
+        return search( x, true );
+    }
+
+    /**
+     * Obtains a lazy view of the items between lo and hi.
+     * @param lo the lower bound.
+     * @param loInclusive true if lo itself is in range.
+     * @param hi the upper bound.
+     * @param hiInclusive true if hi itself is in range.
+     * @throws IllegalArgumentException if lo is greater than hi.
+     */
+    public Iterable<AnyType> subSet( AnyType lo, boolean loInclusive, AnyType hi, boolean hiInclusive )
+    {
+        if( lo.compareTo( hi ) > 0 )
+            throw new IllegalArgumentException( "fromKey > toKey" );
+        return ( ) -> new RankIterator( search( lo, loInclusive ), search( hi, !hiInclusive ) );
+    }
+
+    /**
+     * Obtains an iterator over the items in ascending order.
+     */
+    public Iterator<AnyType> iterator( )
+    {
+        return new RankIterator( 0, count );
+    }
+
+    /**
+     * Unmap the file now rather than when this object is collected. The view
+     * must not be used afterwards.
+     */
+    public void close( )
+    {
+        for( ByteBuffer buffer : offsets )
+            OffHeapBinarySearchTree.free( buffer );
+        for( ByteBuffer buffer : data )
+            OffHeapBinarySearchTree.free( buffer );
+        offsets = new ByteBuffer[ 0 ];
+        data = new ByteBuffer[ 0 ];
+        count = 0;
+    }
+
+    /**
+     * Internal method to find the first rank whose item is not below x.
+     * @param x the item to search for.
+     * @param inclusive true to stop at an item equal to x, false to pass it.
+     * @return the rank of the first item >= x (inclusive) or > x (exclusive), or size( ).
+     */
+    private long search( AnyType x, boolean inclusive )
+    {
+        long low = 0;
+        long high = count;
+        while( low < high )
+        {
+            long mid = ( low + high ) >>> 1;
+            int compareResult = get( mid ).compareTo( x );
+            if( compareResult < 0 || compareResult == 0 && !inclusive )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Internal method to find the window holding a file position.
+     */
+    private ByteBuffer buffer( ByteBuffer[] windows, long position )
+    {
+        return windows[ (int) ( position / window ) ];
+    }
+
+    /**
+     * Internal method to map a region of a file as consecutive windows.
+     */
+    private static ByteBuffer[] map( FileChannel channel, long start, long length, int window ) throws IOException
+    {
+        ByteBuffer[] windows = new ByteBuffer[ (int) ( ( length + window - 1 ) / window ) ];
+        for( int i = 0; i < windows.length; i++ )
+        {
+            long offset = (long) i * window;
+            windows[ i ] = channel.map( FileChannel.MapMode.READ_ONLY, start + offset, Math.min( window, length - offset ) );
+        }
+        return windows;
+    }
+
+    /**
+     * Internal method to write items to a tree file using a given window size.
+     * @param window the window size; a positive multiple of 8.
+     */
+    static <AnyType extends Comparable<? super AnyType>> void write( Path path, Iterable<? extends AnyType> items,
+            long n, KeyCodec<AnyType> codec, int window ) throws IOException
+    {
+        if( window <= 0 || window % 8 != 0 )
+            throw new IllegalArgumentException( "Window must be a positive multiple of 8: " + window );
+        int width = codec.width( );
+
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            ByteBuffer out = ByteBuffer.allocate( BUFFER_BYTES );
+            out.putInt( MAGIC ).putInt( VERSION ).putLong( n ).putInt( width ).putInt( window ).putLong( 0 );
+
+            // Variable-width items need their offsets first, which takes a pass of its own
+            long position = 0;
+            long written = 0;
+            if( width < 0 )
+            {
+                for( AnyType x : items )
+                {
+                    long start = place( position, 4 + codec.size( x ), window );
+                    out = ensure( channel, out, 8 );
+                    out.putLong( start );
+                    position = start + 4 + codec.size( x );
+                    written++;
+                }
+                if( written != n )
+                    throw new IllegalArgumentException( "Expected " + n + " items, got " + written );
+            }
+
+            position = 0;
+            written = 0;
+            AnyType previous = null;
+            for( AnyType x : items )
+            {
+                if( previous != null && previous.compareTo( x ) >= 0 )
+                    throw new IllegalArgumentException( "Items are not sorted: " + x );
+                int length = width >= 0 ? width : 4 + codec.size( x );
+                long start = place( position, length, window );
+                for( ; position < start; position++ )
+                {
+                    out = ensure( channel, out, 1 );
+                    out.put( (byte) 0 );    // Pad to the next window
+                }
+                out = ensure( channel, out, length );
+                ByteBuffer item = out.remaining( ) >= length ? out : ByteBuffer.allocate( length );
+                if( width < 0 )
+                    item.putInt( length - 4 );
+                codec.encode( x, item );
+                if( item != out )
+                    flush( channel, item.flip( ) );
+                position += length;
+                previous = x;
+                written++;
+            }
+            if( written != n )
+                throw new IllegalArgumentException( "Expected " + n + " items, got " + written );
+
+            flush( channel, out.flip( ) );
+            channel.write( ByteBuffer.allocate( 8 ).putLong( 0, position ), DATA_LENGTH_AT );
+        }
+    }
+
+    /**
+     * Internal method to find where an item goes so that it does not cross a window boundary.
+     * @param position the first free data position.
+     * @param length the encoded length of the item.
+     * @return the position of the item.
+     */
+    private static long place( long position, int length, int window )
+    {
+        if( length > window )
+            throw new IllegalArgumentException( "Item of " + length + " bytes does not fit a window of " + window );
+        if( position % window + length > window )
+            position += window - position % window;
+        return position;
+    }
+
+    /**
+     * Internal method to make room in the output buffer, writing out what it holds.
+     * @return the buffer, emptied if it had fewer than bytes left.
+     */
+    private static ByteBuffer ensure( FileChannel channel, ByteBuffer out, int bytes ) throws IOException
+    {
+        if( out.remaining( ) < bytes )
+        {
+            flush( channel, out.flip( ) );
+            out.clear( );
+        }
+        return out;
+    }
+
+    /**
+     * Internal method to write out everything between a buffer's position and limit.
+     */
+    private static void flush( FileChannel channel, ByteBuffer out ) throws IOException
+    {
+        while( out.hasRemaining( ) )
+            channel.write( out );
+    }
+
+    // In-order iterator over a range of ranks
+    private class RankIterator implements Iterator<AnyType>
+    {
+        RankIterator( long from, long to )
+        {
+            next = from;
+            end = Math.max( from, to );
+        }
+
+        public boolean hasNext( )
+        {
+            return next < end;
+        }
+
+        public AnyType next( )
+        {
+            if( !hasNext( ) )
+                throw new NoSuchElementException( );
+            return get( next++ );
+        }
+
+        private long next;
+        private final long end;
+    }
+
+    private static final int MAGIC = 0x42535431;    // "BST1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int DATA_LENGTH_AT = 24;
+    private static final int DEFAULT_WINDOW = 1 << 30;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final KeyCodec<AnyType> codec;
+    private final int width;            // Bytes per item, or -1 if items carry a length
+    private final int window;           // Bytes per mapped window
+    private long count;                 // Number of items
+    private ByteBuffer[] offsets;       // Windows of the offset table; empty for fixed widths
+    private ByteBuffer[] data;          // Windows of the items
+
+
+    // Test program
+    public static void main( String [ ] args ) throws IOException
+    {
+        Path file = java.nio.file.Files.createTempFile( "tree", ".bst" );
+        boolean res = true;
+        try
+        {
+            java.util.Random random = new java.util.Random( 16 );
+            TreeSet<Integer> ints = new TreeSet<>( );
+            TreeSet<String> strings = new TreeSet<>( );
+            for( int i = 0; i < 3000; i++ )
+            {
+                ints.add( random.nextInt( 10000 ) );
+                strings.add( Integer.toString( random.nextInt( ), 36 ) + ( i % 7 == 0 ? "\u00e9\u4e2d" : "" ) );
+            }
+
+            // small windows put many items next to a window boundary
+            for( int window : new int[ ] { 16, 64, 1000, DEFAULT_WINDOW } )
+            {
+                write( file, ints, ints.size( ), KeyCodec.INTEGER, window );
+                res &= check( open( file, KeyCodec.INTEGER ), ints, -1, 10001 );
+                write( file, strings, strings.size( ), KeyCodec.STRING, window );
+                res &= check( open( file, KeyCodec.STRING ), strings, "", "~" );
+            }
+
+            // a tree saved and loaded back keeps its items and comes back perfectly balanced
+            BinarySearchTree<Integer> t = new BinarySearchTree<>( );
+            for( int x : ints )
+                t.insert( x );
+            t.save( file, KeyCodec.INTEGER );
+            BinarySearchTree<Integer> loaded = BinarySearchTree.load( file, KeyCodec.INTEGER, BinarySearchTree.Balance.AVL );
+            java.util.List<Integer> items = new java.util.ArrayList<>( );
+            loaded.forEach( items::add );
+            res &= items.equals( new java.util.ArrayList<>( ints ) ) && loaded.size( ) == ints.size( );
+            res &= loaded.height( ) == 31 - Integer.numberOfLeadingZeros( ints.size( ) );
+            BinarySearchTree.load( file, KeyCodec.INTEGER, BinarySearchTree.Balance.NONE ).save( file, KeyCodec.INTEGER );
+            res &= check( open( file, KeyCodec.INTEGER ), ints, -1, 10001 );
+
+            // bad input is refused
+            try
+            {
+                open( file, KeyCodec.STRING );
+                res = false;
+            }
+            catch( IOException e ) { }
+            java.nio.file.Files.write( file, new byte[ ] { 1, 2, 3 } );
+            try
+            {
+                open( file, KeyCodec.INTEGER );
+                res = false;
+            }
+            catch( IOException e ) { }
+            try
+            {
+                write( file, java.util.Arrays.asList( 2, 1 ), 2, KeyCodec.INTEGER );
+                res = false;
+            }
+            catch( IllegalArgumentException e ) { }
+            try
+            {
+                write( file, java.util.Arrays.asList( "a much longer item" ), 1, KeyCodec.STRING, 8 );
+                res = false;
+            }
+            catch( IllegalArgumentException e ) { }
+        }
+        finally
+        {
+            java.nio.file.Files.deleteIfExists( file );
+        }
+
+        System.out.println( "Test result for MappedBinarySearchTree: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "MappedBinarySearchTree error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+
+    // Compares every query on a mapped file with the same queries on a TreeSet
+    private static <T extends Comparable<? super T>> boolean check( MappedBinarySearchTree<T> mapped, TreeSet<T> expected,
+                                                                    T below, T above )
+    {
+        boolean res = mapped.size( ) == expected.size( );
+        java.util.List<T> sorted = new java.util.ArrayList<>( expected );
+        java.util.List<T> iterated = new java.util.ArrayList<>( );
+        mapped.forEach( iterated::add );
+        res &= iterated.equals( sorted );
+        for( int i = 0; i < sorted.size( ); i += 7 )
+        {
+            T x = sorted.get( i );
+            res &= mapped.contains( x ) && mapped.rank( x ) == i && mapped.get( i ).equals( x );
+        }
+        res &= !mapped.contains( below ) && !mapped.contains( above );
+        res &= mapped.rank( below ) == 0 && mapped.rank( above ) == sorted.size( );
+        for( int i = 0; i + 50 < sorted.size( ); i += 97 )
+        {
+            T lo = sorted.get( i );
+            T hi = sorted.get( i + 50 );
+            java.util.List<T> range = new java.util.ArrayList<>( );
+            mapped.subSet( lo, i % 2 == 0, hi, i % 3 == 0 ).forEach( range::add );
+            res &= range.equals( new java.util.ArrayList<>( expected.subSet( lo, i % 2 == 0, hi, i % 3 == 0 ) ) );
+        }
+        mapped.close( );
+        return res;
+    }
+}
@@ -0,0 +1,600 @@
+// OffHeapBinarySearchTree class
+//
+// CONSTRUCTION: with no initializer, or with the number of nodes per chunk
+//
+// ******************PUBLIC OPERATIONS*********************
+// void insert( k, v )              --> Insert k with value v, replacing any old value
+// void remove( k )                 --> Remove k
+// boolean contains( k )            --> Return true if k is present
+// long get( k, default )           --> Return the value of k, or default if absent
+// long findMin( )                  --> Return smallest key
+// long findMax( )                  --> Return largest key
+// boolean isEmpty( )               --> Return true if empty; else false
+// int size( )                      --> Return the number of keys
+// int height( )                    --> Return the height of the tree
+// void makeEmpty( )                --> Remove all keys and free the native memory
+// void close( )                    --> Same as makeEmpty
+// Cursor cursor( )                 --> Return an in-order cursor over keys and values
+// ******************ERRORS********************************
+// Throws UnderflowException as appropriate
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements an AVL-balanced binary search tree of long keys and long values
+ * whose nodes live outside the Java heap, in direct buffers the collector never
+ * scans. Nodes are int handles rather than references; storage grows a chunk at
+ * a time, removed nodes are reused through a free list, and makeEmpty releases
+ * the chunks immediately instead of waiting for the buffers to be collected.
+ * Not thread-safe.
+ */
+public class OffHeapBinarySearchTree implements AutoCloseable
+{
+    /**
+     * Construct the tree.
+     */
+    public OffHeapBinarySearchTree( )
+    {
+        this( DEFAULT_CHUNK_NODES );
+    }
+
+    /**
+     * Construct the tree, allocating native memory in chunks of the given node count.
+     * @param chunkNodes the number of nodes per chunk; must be a power of two up to 2^25,
+     *                   so that a chunk stays under 2GB.
+     */
+    public OffHeapBinarySearchTree( int chunkNodes )
+    {
+        if( Integer.bitCount( chunkNodes ) != 1 || chunkNodes > MAX_CHUNK_NODES )
+            throw new IllegalArgumentException( "chunkNodes must be a power of two up to " + MAX_CHUNK_NODES );
+        chunkShift = Integer.numberOfTrailingZeros( chunkNodes );
+        chunkMask = chunkNodes - 1;
+        makeEmpty( );
+    }
+
+    /**
+     * Insert a key into the tree, or replace its value if it is already present.
+     * @param key the key to insert.
+     * @param value the value to associate with the key.
+     */
+    public void insert( long key, long value )
+    {
+        int depth = 0;
+        int p = root;
+        while( p != NIL )
+        {
+            long k = key( p );
+            if( key == k )
+            {
+                setValue( p, value );
+                return;
+            }
+            push( depth++, p, key < k );
+            p = key < k ? left( p ) : right( p );
+        }
+        size++;
+        root = fixPath( depth, allocate( key, value ) );
+    }
+
+    /**
+     * Remove from the tree. Nothing is done if key is not found.
+     * @param key the key to remove.
+     */
+    public void remove( long key )
+    {
+        int depth = 0;
+        int p = root;
+        while( p != NIL && key != key( p ) )
+        {
+            push( depth++, p, key < key( p ) );
+            p = key < key( p ) ? left( p ) : right( p );
+        }
+        if( p == NIL )
+            return;   // Item not found; do nothing
+
+        if( left( p ) != NIL && right( p ) != NIL ) // Two children
+        {
+            // Replace with the smallest entry of the right subtree, then unlink that node
+            int target = p;
+            push( depth++, p, false );
+            p = right( p );
+            while( left( p ) != NIL )
+            {
+                push( depth++, p, true );
+                p = left( p );
+            }
+            setKey( target, key( p ) );
+            setValue( target, value( p ) );
+        }
+        int child = left( p ) != NIL ? left( p ) : right( p );
+        release( p );
+        size--;
+        root = fixPath( depth, child );
+    }
+
+    /**
+     * Find a key in the tree.
+     * @param key the key to search for.
+     * @return true if found.
+     */
+    public boolean contains( long key )
+    {
+        return find( key ) != NIL;
+    }
+
+    /**
+     * Find the value associated with a key.
+     * @param key the key to search for.
+     * @param defaultValue the value to return if the key is absent.
+     * @return the associated value, or defaultValue.
+     */
+    public long get( long key, long defaultValue )
+    {
+        int t = find( key );
+        return t == NIL ? defaultValue : value( t );
+    }
+
+    /**
+     * Find the smallest key in the tree.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public long findMin( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        int t = root;
+        while( left( t ) != NIL )
+            t = left( t );
+        return key( t );
+    }
+
+    /**
+     * Find the largest key in the tree.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public long findMax( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        int t = root;
+        while( right( t ) != NIL )
+            t = right( t );
+        return key( t );
+    }
+
+    /**
+     * Test if the tree is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return root == NIL;
+    }
+
+    /**
+     * Returns the number of keys in the tree.
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * Returns the height of the tree.
+     * @return the number of edges on the longest root-to-leaf path, or -1 if empty.
+     */
+    public int height( )
+    {
+        return height( root );
+    }
+
+    /**
+     * Make the tree logically empty and free all of its native memory.
+     */
+    public void makeEmpty( )
+    {
+        if( chunks != null )
+            for( ByteBuffer chunk : chunks )
+                if( chunk != null )
+                    free( chunk );
+        chunks = new ByteBuffer[ 0 ];
+        root = NIL;
+        freeHead = NIL;
+        used = 0;
+        size = 0;
+    }
+
+    /**
+     * Free all native memory; the tree stays usable and empty.
+     */
+    public void close( )
+    {
+        makeEmpty( );
+    }
+
+    /**
+     * Obtains an in-order cursor over the entries. The cursor must not be used
+     * after the tree is modified.
+     */
+    public Cursor cursor( )
+    {
+        return new Cursor( );
+    }
+
+    /**
+     * Allocation-free in-order traversal: call next() to step, then read key() and value().
+     */
+    public class Cursor
+    {
+        Cursor( )
+        {
+            pushLeft( root );
+        }
+
+        /**
+         * Advance to the next entry.
+         * @return false if there are no more entries.
+         */
+        public boolean next( )
+        {
+            if( top == 0 )
+            {
+                current = NIL;
+                return false;
+            }
+            current = stack[ --top ];
+            pushLeft( right( current ) );
+            return true;
+        }
+
+        /**
+         * Returns the key of the current entry.
+         */
+        public long key( )
+        {
+            check( );
+            return OffHeapBinarySearchTree.this.key( current );
+        }
+
+        /**
+         * Returns the value of the current entry.
+         */
+        public long value( )
+        {
+            check( );
+            return OffHeapBinarySearchTree.this.value( current );
+        }
+
+        private void check( )
+        {
+            if( current == NIL )
+                throw new NoSuchElementException( );
+        }
+
+        private void pushLeft( int t )
+        {
+            for( ; t != NIL; t = left( t ) )
+            {
+                if( top == stack.length )
+                    stack = Arrays.copyOf( stack, top * 2 );
+                stack[ top++ ] = t;
+            }
+        }
+
+        private int[] stack = new int[ 64 ];
+        private int top;
+        private int current = NIL;
+    }
+
+    /**
+     * Internal method to find the node holding a key.
+     * @return the node handle, or NIL.
+     */
+    private int find( long key )
+    {
+        int t = root;
+        while( t != NIL )
+        {
+            long k = key( t );
+            if( key < k )
+                t = left( t );
+            else if( key > k )
+                t = right( t );
+            else
+                return t;    // Match
+        }
+        return NIL;
+    }
+
+    /**
+     * Internal method to take a node from the free list, or from the end of the last chunk.
+     * @return the handle of a new leaf holding the entry.
+     */
+    private int allocate( long key, long value )
+    {
+        int t;
+        if( freeHead != NIL )
+        {
+            t = freeHead;
+            freeHead = left( t );
+        }
+        else
+        {
+            if( used == Integer.MAX_VALUE )
+                throw new IllegalStateException( "Tree is full" );
+            t = used++;
+            int chunk = t >>> chunkShift;
+            if( chunk == chunks.length )
+            {
+                chunks = Arrays.copyOf( chunks, chunk + 1 );
+                chunks[ chunk ] = ByteBuffer.allocateDirect( ( chunkMask + 1 ) * NODE_BYTES )
+                                            .order( ByteOrder.nativeOrder( ) );
+            }
+        }
+        setKey( t, key );
+        setValue( t, value );
+        setLeft( t, NIL );
+        setRight( t, NIL );
+        setHeight( t, 0 );
+        return t;
+    }
+
+    /**
+     * Internal method to return a node to the free list.
+     */
+    private void release( int t )
+    {
+        setLeft( t, freeHead );
+        freeHead = t;
+    }
+
+    /**
+     * Internal method to release a direct or mapped buffer now rather than when it
+     * is collected. The buffer must not be used afterwards.
+     */
+    static void free( ByteBuffer buffer )
+    {
+        if( INVOKE_CLEANER != null )
+        {
+            try
+            {
+                INVOKE_CLEANER.invoke( UNSAFE, buffer );
+            }
+            catch( ReflectiveOperationException e )
+            {
+                // Fall back to freeing when the buffer is collected
+            }
+        }
+    }
+
+    // Node field accessors; a node occupies NODE_BYTES at its slot of its chunk
+    private ByteBuffer chunk( int t )     { return chunks[ t >>> chunkShift ]; }
+    private int offset( int t )           { return ( t & chunkMask ) * NODE_BYTES; }
+    private long key( int t )             { return chunk( t ).getLong( offset( t ) + KEY ); }
+    private long value( int t )           { return chunk( t ).getLong( offset( t ) + VALUE ); }
+    private int left( int t )             { return chunk( t ).getInt( offset( t ) + LEFT ); }
+    private int right( int t )            { return chunk( t ).getInt( offset( t ) + RIGHT ); }
+    private int height( int t )           { return t == NIL ? -1 : chunk( t ).getInt( offset( t ) + HEIGHT ); }
+    private void setKey( int t, long k )  { chunk( t ).putLong( offset( t ) + KEY, k ); }
+    private void setValue( int t, long v ) { chunk( t ).putLong( offset( t ) + VALUE, v ); }
+    private void setLeft( int t, int c )  { chunk( t ).putInt( offset( t ) + LEFT, c ); }
+    private void setRight( int t, int c ) { chunk( t ).putInt( offset( t ) + RIGHT, c ); }
+    private void setHeight( int t, int h ) { chunk( t ).putInt( offset( t ) + HEIGHT, h ); }
+
+    /**
+     * Internal method to record a step of a root-to-node descent.
+     */
+    private void push( int depth, int t, boolean wentLeft )
+    {
+        if( depth == path.length )
+        {
+            path = Arrays.copyOf( path, depth * 2 );
+            pathLeft = Arrays.copyOf( pathLeft, depth * 2 );
+        }
+        path[ depth ] = t;
+        pathLeft[ depth ] = wentLeft;
+    }
+
+    /**
+     * Internal method to walk a recorded descent back up, hanging the new child
+     * under each step and rebalancing it.
+     * @return the new root of the whole path.
+     */
+    private int fixPath( int depth, int child )
+    {
+        while( depth > 0 )
+        {
+            int t = path[ --depth ];
+            if( pathLeft[ depth ] )
+                setLeft( t, child );
+            else
+                setRight( t, child );
+            child = balance( t );
+        }
+        return child;
+    }
+
+    /**
+     * Internal method to recompute the cached height of a node from its children.
+     */
+    private void update( int t )
+    {
+        setHeight( t, Math.max( height( left( t ) ), height( right( t ) ) ) + 1 );
+    }
+
+    /**
+     * Internal method to restore the height and balance of a subtree whose
+     * children are already balanced.
+     * @return the new root of the subtree.
+     */
+    private int balance( int t )
+    {
+        int l = left( t );
+        int r = right( t );
+        if( height( l ) - height( r ) > ALLOWED_IMBALANCE )
+        {
+            if( height( left( l ) ) < height( right( l ) ) )
+                setLeft( t, rotateLeft( l ) );
+            return rotateRight( t );
+        }
+        if( height( r ) - height( l ) > ALLOWED_IMBALANCE )
+        {
+            if( height( right( r ) ) < height( left( r ) ) )
+                setRight( t, rotateRight( r ) );
+            return rotateLeft( t );
+        }
+        update( t );
+        return t;
+    }
+
+    /**
+     * Internal method to rotate a node with its left child, updating both heights.
+     */
+    private int rotateRight( int k2 )
+    {
+        int k1 = left( k2 );
+        setLeft( k2, right( k1 ) );
+        setRight( k1, k2 );
+        update( k2 );
+        update( k1 );
+        return k1;
+    }
+
+    /**
+     * Internal method to rotate a node with its right child, updating both heights.
+     */
+    private int rotateLeft( int k1 )
+    {
+        int k2 = right( k1 );
+        setRight( k1, left( k2 ) );
+        setLeft( k2, k1 );
+        update( k1 );
+        update( k2 );
+        return k2;
+    }
+
+    // Node layout: key, value, left handle, right handle, height, padding
+    private static final int KEY = 0;
+    private static final int VALUE = 8;
+    private static final int LEFT = 16;
+    private static final int RIGHT = 20;
+    private static final int HEIGHT = 24;
+    private static final int NODE_BYTES = 32;
+
+    private static final int NIL = -1;
+    private static final int ALLOWED_IMBALANCE = 1;
+    private static final int DEFAULT_CHUNK_NODES = 1 << 16;
+    // The largest power of two whose chunk of NODE_BYTES nodes still has an int capacity
+    private static final int MAX_CHUNK_NODES = Integer.highestOneBit( Integer.MAX_VALUE / NODE_BYTES );
+
+    // sun.misc.Unsafe.invokeCleaner, looked up reflectively; null if unavailable
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    static
+    {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try
+        {
+            Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            java.lang.reflect.Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+            theUnsafe.setAccessible( true );
+            unsafe = theUnsafe.get( null );
+            invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final int chunkShift;
+    private final int chunkMask;
+
+    /** Native node storage, one direct buffer per chunk. */
+    private ByteBuffer[] chunks;
+
+    /** The handle of the tree root, or NIL. */
+    private int root;
+
+    /** The head of the free list, threaded through the left field, or NIL. */
+    private int freeHead;
+
+    /** The number of handles ever handed out. */
+    private int used;
+
+    /** The number of keys in the tree. */
+    private int size;
+
+    /** Scratch stack of the nodes and directions of the current root-to-node descent. */
+    private int[] path = new int[ 64 ];
+    private boolean[] pathLeft = new boolean[ 64 ];
+
+
+    // Test program; checks every operation against java.util.TreeMap
+    public static void main( String [ ] args )
+    {
+        java.util.TreeMap<Long, Long> expected = new java.util.TreeMap<>( );
+        java.util.Random random = new java.util.Random( 42 );
+        boolean res = true;
+        try( OffHeapBinarySearchTree t = new OffHeapBinarySearchTree( 64 ) )
+        {
+            for( int i = 0; i < 50000; i++ )
+            {
+                long k = ( random.nextInt( 8000 ) - 4000L ) * 1_000_000_007L;
+                if( random.nextInt( 3 ) == 0 ) {
+                    t.remove( k );
+                    expected.remove( k );
+                } else {
+                    t.insert( k, i );
+                    expected.put( k, (long) i );
+                }
+                res &= t.contains( k ) == expected.containsKey( k );
+                res &= t.get( k, -1 ) == expected.getOrDefault( k, -1L );
+            }
+            res &= t.size( ) == expected.size( ) && t.used <= 8000;
+            res &= t.findMin( ) == expected.firstKey( ) && t.findMax( ) == expected.lastKey( );
+            res &= t.height( ) <= 1.44 * Math.log( t.size( ) + 2 ) / Math.log( 2 );
+
+            Cursor c = t.cursor( );
+            for( java.util.Map.Entry<Long, Long> e : expected.entrySet( ) )
+                res &= c.next( ) && c.key( ) == e.getKey( ) && c.value( ) == e.getValue( );
+            res &= !c.next( );
+
+            t.makeEmpty( );
+            res &= t.isEmpty( ) && t.size( ) == 0 && t.chunks.length == 0 && !t.contains( 0 );
+            t.insert( 7, 49 );
+            res &= t.get( 7, 0 ) == 49 && t.chunks.length == 1;
+        }
+
+        // The largest chunk allocates on first insert; one size larger is refused
+        try( OffHeapBinarySearchTree t = new OffHeapBinarySearchTree( MAX_CHUNK_NODES ) )
+        {
+            t.insert( 1, 2 );
+            res &= t.get( 1, 0 ) == 2 && t.chunks[ 0 ].capacity( ) == MAX_CHUNK_NODES * NODE_BYTES;
+        }
+        try
+        {
+            new OffHeapBinarySearchTree( MAX_CHUNK_NODES << 1 );
+            res = false;
+        }
+        catch( IllegalArgumentException e )
+        {
+        }
+
+        System.out.println( "Test result for OffHeapBinarySearchTree: " );
+        System.out.println( "The expected answer is: " + true );
+        System.out.println( "The result got is: " + res );
+        if( !res ) {
+            System.out.println( "OffHeapBinarySearchTree error!" );
+        }
+        System.out.println( "\n\n\n" );
+    }
+}
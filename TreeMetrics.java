@@ -0,0 +1,289 @@
+// TreeMetrics class
+//
+// CONSTRUCTION: with no initializer; attach with BinarySearchTree.setMetrics
+//
+// ******************PUBLIC OPERATIONS*********************
+// void record( op, comparisons, nanos ) --> Account for one operation
+// void recordCacheLookup( hit )    --> Account for one lookup cache probe
+// Snapshot snapshot( )             --> Return a consistent-enough copy of the counters
+// void reset( )                    --> Clear every counter
+// ObjectName register( name )      --> Publish the counters as a JMX MXBean
+// ******************ERRORS********************************
+// register throws JMException if the name is malformed or taken
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records, per operation, how many calls were made, how many comparisons they
+ * performed and how long they took, plus a histogram of search depths.
+ * A tree without metrics pays one null check per operation; with metrics it
+ * also reads the clock twice. One instance may be shared by several trees and
+ * read from any thread while they run.
+ *
+ * Latencies are kept in a log-linear histogram with four buckets per power of
+ * two, so a reported percentile is the lower bound of a bucket at most 25%
+ * narrower than the true value.
+ *
+ * A tree with a LookupCache also counts how many of its lookups the cache
+ * answered, which is the figure to watch when sizing the cache. A lookup the
+ * cache answers is still recorded as a CONTAINS, with zero comparisons.
+ */
+public class TreeMetrics implements TreeMetricsMXBean
+{
+    /**
+     * The operations that are measured.
+     */
+    public enum Operation
+    {
+        CONTAINS, INSERT, REMOVE
+    }
+
+    /**
+     * Construct empty metrics.
+     */
+    public TreeMetrics( )
+    {
+        for( Operation op : Operation.values( ) )
+        {
+            counts.put( op, new LongAdder( ) );
+            comparisons.put( op, new LongAdder( ) );
+            latencies.put( op, new AtomicLongArray( LATENCY_BUCKETS ) );
+        }
+    }
+
+    /**
+     * Account for one operation.
+     * @param op the operation.
+     * @param compared the number of nodes it compared against, which is its search depth.
+     * @param nanos how long it took.
+     */
+    public void record( Operation op, int compared, long nanos )
+    {
+        counts.get( op ).increment( );
+        comparisons.get( op ).add( compared );
+        depths.incrementAndGet( Math.min( compared, MAX_DEPTH ) );
+        latencies.get( op ).incrementAndGet( bucket( Math.max( nanos, 0 ) ) );
+    }
+
+    /**
+     * Account for one lookup that consulted a LookupCache.
+     * @param hit true if the cache held the answer.
+     */
+    public void recordCacheLookup( boolean hit )
+    {
+        ( hit ? cacheHits : cacheMisses ).increment( );
+    }
+
+    /**
+     * Returns a copy of the counters. Operations that finish while it is taken
+     * may be partly included.
+     */
+    public Snapshot snapshot( )
+    {
+        return new Snapshot( this );
+    }
+
+    /**
+     * Clear every counter.
+     */
+    public void reset( )
+    {
+        for( Operation op : Operation.values( ) )
+        {
+            counts.get( op ).reset( );
+            comparisons.get( op ).reset( );
+            AtomicLongArray latency = latencies.get( op );
+            for( int i = 0; i < LATENCY_BUCKETS; i++ )
+                latency.set( i, 0 );
+        }
+        for( int d = 0; d <= MAX_DEPTH; d++ )
+            depths.set( d, 0 );
+        cacheHits.reset( );
+        cacheMisses.reset( );
+    }
+
+    /**
+     * Publish the counters on the platform MBean server.
+     * @param name the object name, such as "app:type=TreeMetrics,name=index".
+     * @return the registered name.
+     * @throws JMException if the name is malformed or already registered.
+     */
+    public ObjectName register( String name ) throws JMException
+    {
+        ObjectName objectName = new ObjectName( name );
+        ManagementFactory.getPlatformMBeanServer( ).registerMBean( this, objectName );
+        return objectName;
+    }
+
+    public long getContainsCount( )            { return counts.get( Operation.CONTAINS ).sum( ); }
+    public long getInsertCount( )              { return counts.get( Operation.INSERT ).sum( ); }
+    public long getRemoveCount( )              { return counts.get( Operation.REMOVE ).sum( ); }
+    public double getContainsMeanComparisons( ) { return snapshot( ).meanComparisons( Operation.CONTAINS ); }
+    public double getInsertMeanComparisons( )  { return snapshot( ).meanComparisons( Operation.INSERT ); }
+    public double getRemoveMeanComparisons( )  { return snapshot( ).meanComparisons( Operation.REMOVE ); }
+    public long[ ] getDepthHistogram( )        { return snapshot( ).depthHistogram( ); }
+    public long getContainsLatencyP50( )       { return snapshot( ).latency( Operation.CONTAINS, 0.5 ); }
+    public long getContainsLatencyP99( )       { return snapshot( ).latency( Operation.CONTAINS, 0.99 ); }
+    public long getInsertLatencyP50( )         { return snapshot( ).latency( Operation.INSERT, 0.5 ); }
+    public long getInsertLatencyP99( )         { return snapshot( ).latency( Operation.INSERT, 0.99 ); }
+    public long getRemoveLatencyP50( )         { return snapshot( ).latency( Operation.REMOVE, 0.5 ); }
+    public long getRemoveLatencyP99( )         { return snapshot( ).latency( Operation.REMOVE, 0.99 ); }
+    public long getCacheHitCount( )            { return cacheHits.sum( ); }
+    public long getCacheMissCount( )           { return cacheMisses.sum( ); }
+    public double getCacheHitRate( )           { return snapshot( ).cacheHitRate( ); }
+
+    /**
+     * An immutable copy of the counters.
+     */
+    public static final class Snapshot
+    {
+        private Snapshot( TreeMetrics metrics )
+        {
+            for( Operation op : Operation.values( ) )
+            {
+                counts.put( op, metrics.counts.get( op ).sum( ) );
+                comparisons.put( op, metrics.comparisons.get( op ).sum( ) );
+                AtomicLongArray source = metrics.latencies.get( op );
+                long[ ] latency = new long[ LATENCY_BUCKETS ];
+                for( int i = 0; i < LATENCY_BUCKETS; i++ )
+                    latency[ i ] = source.get( i );
+                latencies.put( op, latency );
+            }
+            int deepest = MAX_DEPTH;
+            while( deepest > 0 && metrics.depths.get( deepest ) == 0 )
+                deepest--;
+            depths = new long[ deepest + 1 ];
+            for( int d = 0; d <= deepest; d++ )
+                depths[ d ] = metrics.depths.get( d );
+            cacheHits = metrics.cacheHits.sum( );
+            cacheMisses = metrics.cacheMisses.sum( );
+        }
+
+        /** Returns the number of calls of op. */
+        public long count( Operation op )
+        {
+            return counts.get( op );
+        }
+
+        /** Returns the total number of comparisons made by op. */
+        public long comparisons( Operation op )
+        {
+            return comparisons.get( op );
+        }
+
+        /** Returns the mean number of comparisons per call of op, or 0 if it was not called. */
+        public double meanComparisons( Operation op )
+        {
+            long n = count( op );
+            return n == 0 ? 0 : (double) comparisons( op ) / n;
+        }
+
+        /** Returns the number of lookups a LookupCache answered. */
+        public long cacheHits( )
+        {
+            return cacheHits;
+        }
+
+        /** Returns the number of lookups that consulted a LookupCache and had to search the tree. */
+        public long cacheMisses( )
+        {
+            return cacheMisses;
+        }
+
+        /** Returns the fraction of cached lookups that hit, or 0 if the cache was never consulted. */
+        public double cacheHitRate( )
+        {
+            long lookups = cacheHits + cacheMisses;
+            return lookups == 0 ? 0 : (double) cacheHits / lookups;
+        }
+
+        /**
+         * Returns the search depth histogram: element d counts the operations that
+         * compared against d nodes. The last element also counts deeper searches.
+         */
+        public long[ ] depthHistogram( )
+        {
+            return depths.clone( );
+        }
+
+        /**
+         * Returns a latency percentile of op in nanoseconds, or 0 if it was not called.
+         * @param op the operation.
+         * @param quantile the fraction of calls at or below the result, in [0, 1].
+         * @throws IllegalArgumentException if the quantile is out of range.
+         */
+        public long latency( Operation op, double quantile )
+        {
+            if( !( quantile >= 0 && quantile <= 1 ) )
+                throw new IllegalArgumentException( "Quantile out of range: " + quantile );
+            long[ ] latency = latencies.get( op );
+            long target = (long) Math.ceil( quantile * count( op ) );
+            long seen = 0;
+            for( int i = 0; i < LATENCY_BUCKETS; i++ )
+            {
+                seen += latency[ i ];
+                if( seen > 0 && seen >= target )
+                    return lowerBound( i );
+            }
+            return 0;
+        }
+
+        public String toString( )
+        {
+            StringBuilder sb = new StringBuilder( );
+            for( Operation op : Operation.values( ) )
+                sb.append( String.format( "%-8s count=%d comparisons/op=%.2f p50=%dns p99=%dns p99.9=%dns%n",
+                        op, count( op ), meanComparisons( op ), latency( op, 0.5 ), latency( op, 0.99 ), latency( op, 0.999 ) ) );
+            if( cacheHits + cacheMisses > 0 )
+                sb.append( String.format( "cache    hits=%d misses=%d hitRate=%.3f%n", cacheHits, cacheMisses, cacheHitRate( ) ) );
+            sb.append( "depths " ).append( java.util.Arrays.toString( depths ) );
+            return sb.toString( );
+        }
+
+        private final Map<Operation, Long> counts = new EnumMap<>( Operation.class );
+        private final Map<Operation, Long> comparisons = new EnumMap<>( Operation.class );
+        private final Map<Operation, long[ ]> latencies = new EnumMap<>( Operation.class );
+        private final long[ ] depths;
+        private final long cacheHits;
+        private final long cacheMisses;
+    }
+
+    /**
+     * Internal method to find the latency bucket of a duration: exact below 8ns,
+     * then four buckets per power of two.
+     */
+    private static int bucket( long nanos )
+    {
+        if( nanos < 8 )
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros( nanos );
+        return 8 + ( exponent - 3 ) * 4 + (int) ( ( nanos >>> ( exponent - 2 ) ) & 3 );
+    }
+
+    /**
+     * Internal method to find the smallest duration in a latency bucket.
+     */
+    private static long lowerBound( int bucket )
+    {
+        if( bucket < 8 )
+            return bucket;
+        int exponent = ( bucket - 8 ) / 4 + 3;
+        return (long) ( 4 + ( bucket - 8 ) % 4 ) << ( exponent - 2 );
+    }
+
+    private static final int MAX_DEPTH = 64;
+    private static final int LATENCY_BUCKETS = 8 + 60 * 4;
+
+    private final Map<Operation, LongAdder> counts = new EnumMap<>( Operation.class );
+    private final Map<Operation, LongAdder> comparisons = new EnumMap<>( Operation.class );
+    private final Map<Operation, AtomicLongArray> latencies = new EnumMap<>( Operation.class );
+    private final AtomicLongArray depths = new AtomicLongArray( MAX_DEPTH + 1 );
+    private final LongAdder cacheHits = new LongAdder( );
+    private final LongAdder cacheMisses = new LongAdder( );
+}
@@ -0,0 +1,36 @@
+// TreeMetricsMXBean interface
+//
+// The JMX view of a TreeMetrics; see TreeMetrics.register.
+
+/**
+ * Exposes the operation metrics of binary search trees to JMX clients.
+ * Latencies are in nanoseconds.
+ */
+public interface TreeMetricsMXBean
+{
+    long getContainsCount( );
+    long getInsertCount( );
+    long getRemoveCount( );
+
+    double getContainsMeanComparisons( );
+    double getInsertMeanComparisons( );
+    double getRemoveMeanComparisons( );
+
+    /** Element d counts the searches that compared against d nodes. */
+    long[ ] getDepthHistogram( );
+
+    long getContainsLatencyP50( );
+    long getContainsLatencyP99( );
+    long getInsertLatencyP50( );
+    long getInsertLatencyP99( );
+    long getRemoveLatencyP50( );
+    long getRemoveLatencyP99( );
+
+    /** Lookups answered, and not answered, by a tree's LookupCache. */
+    long getCacheHitCount( );
+    long getCacheMissCount( );
+    double getCacheHitRate( );
+
+    /** Clear every counter. */
+    void reset( );
+}
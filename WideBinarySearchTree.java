@@ -0,0 +1,761 @@
+// WideBinarySearchTree class
+//
+// CONSTRUCTION: with no initializer, or with the number of keys per node
+//
+// ******************PUBLIC OPERATIONS*********************
+// void insert( x )                 --> Insert x
+// void remove( x )                 --> Remove x
+// boolean contains( x )            --> Return true if x is present
+// Comparable findMin( )            --> Return smallest item
+// Comparable findMax( )            --> Return largest item
+// boolean isEmpty( )               --> Return true if empty; else false
+// void makeEmpty( )                --> Remove all items
+// void printTree( )                --> Print tree in sorted order
+// int nodeCount()                  --> Return the number of items; same as size()
+// int size( )                      --> Return the number of items, in O(1)
+// int height( )                    --> Return the number of levels below the root, in O(1)
+// boolean equals()                 --> Return true if two trees are identical; else false
+// WideBinarySearchTree copy()      --> Return a copy of the tree
+// List printLevels( )              --> Print and return the keys level by level
+// Iterator iterator( )             --> Return a lazy in-order iterator
+// ******************ERRORS********************************
+// Throws UnderflowException as appropriate
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements a sorted set as a B+ tree: each node holds up to width sorted keys
+ * in one array, so a lookup touches about log_width( n ) nodes instead of
+ * log_2( n ). Items live in the leaves, which are linked in order; inner nodes
+ * hold separator keys that route the descent. Every node but the root is at
+ * least half full.
+ * The rotation and mirror operations of BinarySearchTree have no meaning here
+ * and are not offered.
+ * Note that all "matching" is based on the compareTo method.
+ */
+public class WideBinarySearchTree<AnyType extends Comparable<? super AnyType>> implements Iterable<AnyType>
+{
+    /**
+     * Construct the tree with DEFAULT_WIDTH keys per node.
+     */
+    public WideBinarySearchTree( )
+    {
+        this( DEFAULT_WIDTH );
+    }
+
+    /**
+     * Construct the tree with the given number of keys per node. Widths of
+     * 16 to 64 keep a node within a few cache lines.
+     * @param width the most keys a node holds.
+     * @throws IllegalArgumentException if width is less than MIN_WIDTH.
+     */
+    public WideBinarySearchTree( int width )
+    {
+        if( width < MIN_WIDTH )
+            throw new IllegalArgumentException( "Width must be at least " + MIN_WIDTH + ": " + width );
+        this.width = width;
+        makeEmpty( );
+    }
+
+    /**
+     * Insert into the tree; duplicates are ignored.
+     * @param x the item to insert.
+     */
+    public void insert( AnyType x )
+    {
+        Node sibling = insert( root, x );
+        if( sibling != null )
+        {
+            // The root split; grow the tree by one level
+            Node t = new Node( width, false );
+            t.keys[ 0 ] = promoted;
+            t.children[ 0 ] = root;
+            t.children[ 1 ] = sibling;
+            t.n = 1;
+            root = t;
+            height++;
+        }
+        promoted = null;
+    }
+
+    /**
+     * Remove from the tree. Nothing is done if x is not found.
+     * @param x the item to remove.
+     */
+    public void remove( AnyType x )
+    {
+        if( remove( root, x ) && root.children != null && root.n == 0 )
+        {
+            root = root.children[ 0 ];  // The root lost its last separator
+            height--;
+        }
+    }
+
+    /**
+     * Find the smallest item in the tree.
+     * @return smallest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMin( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        Node t = root;
+        while( t.children != null )
+            t = t.children[ 0 ];
+        return key( t, 0 );
+    }
+
+    /**
+     * Find the largest item in the tree.
+     * @return the largest item.
+     * @throws UnderflowException if the tree is empty.
+     */
+    public AnyType findMax( )
+    {
+        if( isEmpty( ) )
+            throw new UnderflowException( );
+        Node t = root;
+        while( t.children != null )
+            t = t.children[ t.n ];
+        return key( t, t.n - 1 );
+    }
+
+    /**
+     * Find an item in the tree.
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains( AnyType x )
+    {
+        Node t = root;
+        while( t.children != null )
+            t = t.children[ upperBound( t, x ) ];
+        int i = lowerBound( t, x );
+        return i < t.n && x.compareTo( key( t, i ) ) == 0;
+    }
+
+    /**
+     * Make the tree logically empty.
+     */
+    public void makeEmpty( )
+    {
+        root = new Node( width, true );
+        size = 0;
+        height = 0;
+        modCount++;
+    }
+
+    /**
+     * Test if the tree is logically empty.
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty( )
+    {
+        return size == 0;
+    }
+
+    /**
+     * Print the tree contents in sorted order.
+     */
+    public void printTree( )
+    {
+        if( isEmpty( ) )
+            System.out.println( "Empty tree" );
+        else
+            for( AnyType x : this )
+                System.out.println( x );
+    }
+
+    /**
+     * Returns the number of items; same as size().
+     */
+    public int nodeCount( )
+    {
+        return size( );
+    }
+
+    /**
+     * Returns the number of items in the tree in constant time.
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * Returns the height of the tree in constant time.
+     * @return the number of levels below the root, or -1 if empty.
+     */
+    public int height( )
+    {
+        return isEmpty( ) ? -1 : height;
+    }
+
+    /**
+     * Returns true if the trees have the same width, node layout and items.
+     */
+    public boolean equals( WideBinarySearchTree<AnyType> t )
+    {
+        if( width != t.width || size != t.size )
+            return false;
+        ArrayDeque<Node> stack = new ArrayDeque<>( );
+        ArrayDeque<Node> stack2 = new ArrayDeque<>( );
+        stack.push( root );
+        stack2.push( t.root );
+        while( !stack.isEmpty( ) )
+        {
+            Node a = stack.pop( );
+            Node b = stack2.pop( );
+            if( a.n != b.n || ( a.children == null ) != ( b.children == null ) )
+                return false;
+            for( int i = 0; i < a.n; i++ )
+                if( key( a, i ).compareTo( key( b, i ) ) != 0 )
+                    return false;
+            if( a.children != null )
+                for( int i = 0; i <= a.n; i++ )
+                {
+                    stack.push( a.children[ i ] );
+                    stack2.push( b.children[ i ] );
+                }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the tree with the same node layout.
+     */
+    public WideBinarySearchTree<AnyType> copy( )
+    {
+        WideBinarySearchTree<AnyType> res = new WideBinarySearchTree<>( width );
+        res.root = copy( root, new Node[ 1 ] );
+        res.size = size;
+        res.height = height;
+        return res;
+    }
+
+    /**
+     * Print the tree level-by-level.
+     * @return the keys of each level, left to right; inner levels hold separators.
+     */
+    public List<List<AnyType>> printLevels( )
+    {
+        List<List<AnyType>> levels = new ArrayList<>( );
+        if( isEmpty( ) ) {
+            levels.add( new ArrayList<AnyType>( ) );
+            System.out.println( "Empty tree" );
+            return levels;
+        }
+        ArrayDeque<Node> queue = new ArrayDeque<>( );
+        queue.add( root );
+        while( !queue.isEmpty( ) )
+        {
+            List<AnyType> row = new ArrayList<>( );
+            for( int i = queue.size( ); i > 0; i-- )
+            {
+                Node t = queue.poll( );
+                for( int k = 0; k < t.n; k++ )
+                    row.add( key( t, k ) );
+                if( t.children != null )
+                    for( int k = 0; k <= t.n; k++ )
+                        queue.add( t.children[ k ] );
+            }
+            levels.add( row );
+        }
+        System.out.println( "Tree print level by level is: " );
+        for( List<AnyType> list : levels ) {
+            System.out.println( );
+            for( AnyType val : list ) {
+                System.out.print( val + " " );
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Obtains an in-order iterator over the items, which walks the leaf chain.
+     * The iterator supports remove and fails fast if the tree is otherwise
+     * modified while it is in use.
+     */
+    public Iterator<AnyType> iterator( )
+    {
+        return new Iterator<AnyType>( )
+        {
+            private Node leaf = first( );
+            private int index = 0;
+            private AnyType lastReturned;
+            private int expectedModCount = modCount;
+
+            public boolean hasNext( )
+            {
+                while( leaf != null && index == leaf.n )
+                {
+                    leaf = leaf.next;
+                    index = 0;
+                }
+                return leaf != null;
+            }
+
+            public AnyType next( )
+            {
+                if( modCount != expectedModCount )
+                    throw new ConcurrentModificationException( );
+                if( !hasNext( ) )
+                    throw new NoSuchElementException( );
+                lastReturned = key( leaf, index++ );
+                return lastReturned;
+            }
+
+            public void remove( )
+            {
+                if( lastReturned == null )
+                    throw new IllegalStateException( );
+                if( modCount != expectedModCount )
+                    throw new ConcurrentModificationException( );
+                WideBinarySearchTree.this.remove( lastReturned );
+                expectedModCount = modCount;
+
+                // Removal may merge or rebalance leaves; find the successor again
+                leaf = root;
+                while( leaf.children != null )
+                    leaf = leaf.children[ upperBound( leaf, lastReturned ) ];
+                index = lowerBound( leaf, lastReturned );
+                lastReturned = null;
+            }
+        };
+    }
+
+    /**
+     * Internal method to insert into a subtree.
+     * @param t the node that roots the subtree.
+     * @param x the item to insert.
+     * @return the new right sibling of t if t split, with its separator in promoted; else null.
+     */
+    private Node insert( Node t, AnyType x )
+    {
+        if( t.children == null )
+        {
+            int i = lowerBound( t, x );
+            if( i < t.n && x.compareTo( key( t, i ) ) == 0 )
+                return null;  // Duplicate; do nothing
+            System.arraycopy( t.keys, i, t.keys, i + 1, t.n - i );
+            t.keys[ i ] = x;
+            t.n++;
+            size++;
+            modCount++;
+            return t.n > width ? splitLeaf( t ) : null;
+        }
+
+        int i = upperBound( t, x );
+        Node sibling = insert( t.children[ i ], x );
+        if( sibling == null )
+            return null;
+        System.arraycopy( t.keys, i, t.keys, i + 1, t.n - i );
+        System.arraycopy( t.children, i + 1, t.children, i + 2, t.n - i );
+        t.keys[ i ] = promoted;
+        t.children[ i + 1 ] = sibling;
+        t.n++;
+        return t.n > width ? splitInner( t ) : null;
+    }
+
+    /**
+     * Internal method to split an overfull leaf, moving its upper half to a new
+     * leaf whose first key becomes the separator.
+     */
+    private Node splitLeaf( Node t )
+    {
+        int keep = t.n / 2;
+        Node right = new Node( width, true );
+        right.n = t.n - keep;
+        System.arraycopy( t.keys, keep, right.keys, 0, right.n );
+        Arrays.fill( t.keys, keep, t.n, null );
+        t.n = keep;
+        right.next = t.next;
+        t.next = right;
+        promoted = key( right, 0 );
+        return right;
+    }
+
+    /**
+     * Internal method to split an overfull inner node around its middle key,
+     * which moves up as the separator.
+     */
+    private Node splitInner( Node t )
+    {
+        int keep = t.n / 2;
+        Node right = new Node( width, false );
+        right.n = t.n - keep - 1;
+        System.arraycopy( t.keys, keep + 1, right.keys, 0, right.n );
+        System.arraycopy( t.children, keep + 1, right.children, 0, right.n + 1 );
+        promoted = key( t, keep );
+        Arrays.fill( t.keys, keep, t.n, null );
+        Arrays.fill( t.children, keep + 1, t.n + 1, null );
+        t.n = keep;
+        return right;
+    }
+
+    /**
+     * Internal method to remove from a subtree, refilling any child left less
+     * than half full by borrowing from or merging with a sibling.
+     * @param t the node that roots the subtree.
+     * @param x the item to remove.
+     * @return true if x was found.
+     */
+    private boolean remove( Node t, AnyType x )
+    {
+        if( t.children == null )
+        {
+            int i = lowerBound( t, x );
+            if( i == t.n || x.compareTo( key( t, i ) ) != 0 )
+                return false;  // Item not found; do nothing
+            System.arraycopy( t.keys, i + 1, t.keys, i, t.n - i - 1 );
+            t.keys[ --t.n ] = null;
+            size--;
+            modCount++;
+            return true;
+        }
+
+        int i = upperBound( t, x );
+        if( !remove( t.children[ i ], x ) )
+            return false;
+        if( t.children[ i ].n < width / 2 )
+            refill( t, i );
+        return true;
+    }
+
+    /**
+     * Internal method to bring child i of t back to half full.
+     * @param t the parent.
+     * @param i the index of the underfull child.
+     */
+    private void refill( Node t, int i )
+    {
+        Node child = t.children[ i ];
+        Node left = i > 0 ? t.children[ i - 1 ] : null;
+        Node right = i < t.n ? t.children[ i + 1 ] : null;
+        boolean leaf = child.children == null;
+
+        if( right != null && right.n > width / 2 )
+        {
+            // Borrow the first key of the right sibling
+            if( leaf )
+            {
+                child.keys[ child.n++ ] = right.keys[ 0 ];
+                t.keys[ i ] = right.keys[ 1 ];
+            }
+            else
+            {
+                child.keys[ child.n ] = t.keys[ i ];
+                child.children[ ++child.n ] = right.children[ 0 ];
+                t.keys[ i ] = right.keys[ 0 ];
+                System.arraycopy( right.children, 1, right.children, 0, right.n );
+                right.children[ right.n ] = null;
+            }
+            System.arraycopy( right.keys, 1, right.keys, 0, right.n - 1 );
+            right.keys[ --right.n ] = null;
+        }
+        else if( left != null && left.n > width / 2 )
+        {
+            // Borrow the last key of the left sibling
+            System.arraycopy( child.keys, 0, child.keys, 1, child.n );
+            if( leaf )
+            {
+                child.keys[ 0 ] = left.keys[ left.n - 1 ];
+                t.keys[ i - 1 ] = child.keys[ 0 ];
+            }
+            else
+            {
+                System.arraycopy( child.children, 0, child.children, 1, child.n + 1 );
+                child.keys[ 0 ] = t.keys[ i - 1 ];
+                child.children[ 0 ] = left.children[ left.n ];
+                left.children[ left.n ] = null;
+                t.keys[ i - 1 ] = left.keys[ left.n - 1 ];
+            }
+            child.n++;
+            left.keys[ --left.n ] = null;
+        }
+        else if( right != null )
+            merge( t, i );
+        else
+            merge( t, i - 1 );
+    }
+
+    /**
+     * Internal method to merge child i + 1 of t into child i, removing the
+     * separator between them from t.
+     */
+    private void merge( Node t, int i )
+    {
+        Node left = t.children[ i ];
+        Node right = t.children[ i + 1 ];
+        if( left.children == null )
+        {
+            System.arraycopy( right.keys, 0, left.keys, left.n, right.n );
+            left.n += right.n;
+            left.next = right.next;
+        }
+        else
+        {
+            left.keys[ left.n ] = t.keys[ i ];
+            System.arraycopy( right.keys, 0, left.keys, left.n + 1, right.n );
+            System.arraycopy( right.children, 0, left.children, left.n + 1, right.n + 1 );
+            left.n += right.n + 1;
+        }
+        System.arraycopy( t.keys, i + 1, t.keys, i, t.n - i - 1 );
+        System.arraycopy( t.children, i + 2, t.children, i + 1, t.n - i - 1 );
+        t.keys[ t.n - 1 ] = null;
+        t.children[ t.n ] = null;
+        t.n--;
+    }
+
+    /**
+     * Internal method to copy a subtree, linking its leaves in order.
+     * @param t the node that roots the subtree.
+     * @param last a one-element array holding the last copied leaf, or null.
+     * @return the root of the copy.
+     */
+    private Node copy( Node t, Node[ ] last )
+    {
+        Node res = new Node( width, t.children == null );
+        res.n = t.n;
+        System.arraycopy( t.keys, 0, res.keys, 0, t.n );
+        if( t.children == null )
+        {
+            if( last[ 0 ] != null )
+                last[ 0 ].next = res;
+            last[ 0 ] = res;
+        }
+        else
+            for( int i = 0; i <= t.n; i++ )
+                res.children[ i ] = copy( t.children[ i ], last );
+        return res;
+    }
+
+    /**
+     * Internal method to find the leftmost leaf, or null if the tree is empty.
+     */
+    private Node first( )
+    {
+        if( isEmpty( ) )
+            return null;
+        Node t = root;
+        while( t.children != null )
+            t = t.children[ 0 ];
+        return t;
+    }
+
+    /**
+     * Internal method to find the first key of a node that is not less than x.
+     * The halving loop runs a fixed number of rounds for a given node size, so
+     * its only data-dependent choice is which half to keep.
+     * @return the index of that key, or t.n if there is none.
+     */
+    private int lowerBound( Node t, AnyType x )
+    {
+        if( t.n == 0 )
+            return 0;
+        int low = 0;
+        for( int n = t.n; n > 1; n -= n >>> 1 )
+            low = key( t, low + ( n >>> 1 ) ).compareTo( x ) < 0 ? low + ( n >>> 1 ) : low;
+        return key( t, low ).compareTo( x ) < 0 ? low + 1 : low;
+    }
+
+    /**
+     * Internal method to find the child of an inner node to descend into for x:
+     * the number of separators that are not greater than x.
+     */
+    private int upperBound( Node t, AnyType x )
+    {
+        if( t.n == 0 )
+            return 0;
+        int low = 0;
+        for( int n = t.n; n > 1; n -= n >>> 1 )
+            low = key( t, low + ( n >>> 1 ) ).compareTo( x ) <= 0 ? low + ( n >>> 1 ) : low;
+        return key( t, low ).compareTo( x ) <= 0 ? low + 1 : low;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private AnyType key( Node t, int i )
+    {
+        return (AnyType) t.keys[ i ];
+    }
+
+    // Basic node stored in B+ trees; one extra slot lets a node overflow before it splits
+    private static final class Node
+    {
+        Node( int width, boolean leaf )
+        {
+            keys = new Object[ width + 1 ];
+            children = leaf ? null : new Node[ width + 2 ];
+        }
+
+        final Object[ ] keys;       // Sorted keys; separators in an inner node
+        final Node[ ] children;     // Subtrees, one more than keys; null in a leaf
+        Node next;                  // The next leaf in order
+        int n;                      // Number of keys in use
+    }
+
+    /** The keys per node when none is given. */
+    public static final int DEFAULT_WIDTH = 32;
+
+    /** The fewest keys per node that keeps half-full nodes able to borrow and merge. */
+    public static final int MIN_WIDTH = 4;
+
+    /** The most keys a node holds. */
+    private final int width;
+
+    /** The tree root; an empty leaf when the tree is empty. */
+    private Node root;
+
+    /** The number of items in the tree. */
+    private int size;
+
+    /** The number of levels below the root. */
+    private int height;
+
+    /** The number of structural modifications, for fail-fast traversals. */
+    private int modCount;
+
+    /** The separator for the sibling returned by the last split. */
+    private AnyType promoted;
+
+
+    // Test program; checks every operation against BinarySearchTree<Integer>
+    public static void main( String [ ] args )
+    {
+        for( int width : new int[ ] { MIN_WIDTH, 5, 16, 64 } )
+        {
+            WideBinarySearchTree<Integer> t = new WideBinarySearchTree<>( width );
+            BinarySearchTree<Integer> expected = new BinarySearchTree<>( BinarySearchTree.Balance.AVL );
+            java.util.Random random = new java.util.Random( width );
+            boolean res = t.isEmpty( ) && t.height( ) == -1 && !t.iterator( ).hasNext( );
+            for( int i = 0; i < 40000; i++ )
+            {
+                int x = random.nextInt( 5000 );
+                if( random.nextInt( 3 ) == 0 ) {
+                    t.remove( x );
+                    expected.remove( x );
+                } else {
+                    t.insert( x );
+                    expected.insert( x );
+                }
+                res &= t.contains( x ) == expected.contains( x );
+            }
+            res &= t.size( ) == expected.size( ) && t.nodeCount( ) == expected.size( ) && t.check( );
+            res &= t.findMin( ).equals( expected.findMin( ) ) && t.findMax( ).equals( expected.findMax( ) );
+            for( int x = -1; x <= 5000; x++ )
+                res &= t.contains( x ) == expected.contains( x );
+            res &= items( t ).equals( items( expected ) );
+
+            // A full tree of n keys is log_{width/2}( n ) levels deep at most
+            res &= t.height( ) <= Math.ceil( Math.log( t.size( ) ) / Math.log( width / 2 ) );
+
+            // Levels: the last one holds every item, in order
+            System.out.flush( );
+            java.io.PrintStream out = System.out;
+            System.setOut( new java.io.PrintStream( java.io.OutputStream.nullOutputStream( ) ) );
+            List<List<Integer>> levels = t.printLevels( );
+            System.setOut( out );
+            res &= levels.size( ) == t.height( ) + 1 && levels.get( t.height( ) ).equals( items( expected ) );
+
+            WideBinarySearchTree<Integer> c = t.copy( );
+            res &= t.equals( c ) && c.check( ) && items( c ).equals( items( t ) );
+            c.insert( 10000 );
+            c.remove( t.findMin( ) );
+            res &= !t.equals( c ) && c.contains( 10000 ) && !c.contains( t.findMin( ) ) && !t.contains( 10000 );
+
+            // Iterator removal: drop every odd item while walking
+            Iterator<Integer> it = c.iterator( );
+            while( it.hasNext( ) )
+                if( it.next( ) % 2 != 0 )
+                    it.remove( );
+            res &= c.check( ) && items( c ).stream( ).allMatch( x -> x % 2 == 0 );
+            res &= items( c ).size( ) == c.size( );
+            try {
+                it = c.iterator( );
+                c.insert( -7 );
+                it.next( );
+                res = false;
+            } catch( ConcurrentModificationException e ) {
+                // expected
+            }
+
+            // Removing everything shrinks the tree back to one empty leaf
+            for( int x = -10; x <= 10000; x++ )
+                c.remove( x );
+            res &= c.isEmpty( ) && c.height( ) == -1 && c.check( );
+            try {
+                c.findMin( );
+                res = false;
+            } catch( UnderflowException e ) {
+                // expected
+            }
+            t.makeEmpty( );
+            res &= t.isEmpty( ) && t.size( ) == 0;
+
+            System.out.println( "Test result for WideBinarySearchTree (width " + width + "): " );
+            System.out.println( "The expected answer is: " + true );
+            System.out.println( "The result got is: " + res );
+            if( !res ) {
+                System.out.println( "WideBinarySearchTree error!" );
+            }
+            System.out.println( "\n\n\n" );
+        }
+        try {
+            new WideBinarySearchTree<Integer>( MIN_WIDTH - 1 );
+            System.out.println( "WideBinarySearchTree error!" );
+        } catch( IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+    private static <T> List<T> items( Iterable<T> tree )
+    {
+        List<T> items = new ArrayList<>( );
+        tree.forEach( items::add );
+        return items;
+    }
+
+    // Check the B+ tree invariants: key order and separator bounds, fill, uniform
+    // leaf depth, the leaf chain and the item count
+    private boolean check( )
+    {
+        List<Node> leaves = new ArrayList<>( );
+        int[ ] count = { 0 };
+        if( !check( root, null, null, 0, leaves, count ) || count[ 0 ] != size )
+            return false;
+        for( int i = 0; i < leaves.size( ); i++ )
+            if( leaves.get( i ).next != ( i + 1 < leaves.size( ) ? leaves.get( i + 1 ) : null ) )
+                return false;
+        return true;
+    }
+
+    private boolean check( Node t, AnyType lo, AnyType hi, int depth, List<Node> leaves, int[ ] count )
+    {
+        if( t != root && t.n < width / 2 || t.n > width )
+            return false;
+        for( int i = 0; i < t.n; i++ )
+        {
+            AnyType k = key( t, i );
+            if( i > 0 && key( t, i - 1 ).compareTo( k ) >= 0 || lo != null && k.compareTo( lo ) < 0
+                    || hi != null && k.compareTo( hi ) >= 0 )
+                return false;
+        }
+        if( t.children == null )
+        {
+            leaves.add( t );
+            count[ 0 ] += t.n;
+            return depth == height;
+        }
+        for( int i = 0; i <= t.n; i++ )
+            if( !check( t.children[ i ], i == 0 ? lo : key( t, i - 1 ), i == t.n ? hi : key( t, i ), depth + 1, leaves, count ) )
+                return false;
+        return true;
+    }
+}
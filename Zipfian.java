@@ -0,0 +1,48 @@
+// Zipfian class
+//
+// CONSTRUCTION: none; static methods only
+//
+// ******************PUBLIC OPERATIONS*********************
+// void fill( keys, n, theta, r )   --> Fill keys with Zipf-distributed draws from 0..n-1
+// ******************ERRORS********************************
+// None
+
+import java.util.Random;
+
+/**
+ * Generates skewed key streams for the tests and benchmarks, in which a few
+ * keys take most of the draws.
+ */
+public final class Zipfian
+{
+    private Zipfian( )
+    {
+    }
+
+    /**
+     * Fill keys with draws from 0..n-1 in which the item of rank r has weight
+     * 1/(r+1)^theta, using the method of Gray et al., "Quickly Generating
+     * Billion-Record Synthetic Databases". Ranks are scattered over the key
+     * range so that the hot keys are not also the smallest ones.
+     * @param keys the array to fill.
+     * @param n the number of distinct keys.
+     * @param theta the skew, in (0, 1); larger is more skewed.
+     * @param random the source of randomness.
+     */
+    public static void fill( int[ ] keys, int n, double theta, Random random )
+    {
+        double zetan = 0;
+        for( int i = 1; i <= n; i++ )
+            zetan += 1 / Math.pow( i, theta );
+        double zeta2 = 1 + 1 / Math.pow( 2, theta );
+        double alpha = 1 / ( 1 - theta );
+        double eta = ( 1 - Math.pow( 2.0 / n, 1 - theta ) ) / ( 1 - zeta2 / zetan );
+        for( int i = 0; i < keys.length; i++ )
+        {
+            double u = random.nextDouble( );
+            double uz = u * zetan;
+            long rank = uz < 1 ? 0 : uz < zeta2 ? 1 : (long) ( n * Math.pow( eta * u - eta + 1, alpha ) );
+            keys[ i ] = (int) Math.floorMod( Math.min( rank, n - 1 ) * 0x9E3779B97F4A7C15L, (long) n );
+        }
+    }
+}
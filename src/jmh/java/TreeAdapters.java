@@ -0,0 +1,107 @@
+// TreeAdapters class
+//
+// Bridges the JMH benchmarks in package benchmarks to the trees in the unnamed
+// package. Loaded by name through benchmarks.TreeFactory.load().
+
+import java.util.List;
+import java.util.Random;
+
+import benchmarks.BenchTree;
+import benchmarks.GenericTree;
+import benchmarks.TreeFactory;
+
+public class TreeAdapters implements TreeFactory
+{
+    public BenchTree create(String kind) {
+        switch(kind) {
+        case "int":
+            return new Ints(new IntBinarySearchTree(BinarySearchTree.Balance.AVL));
+        case "long":
+            return new Longs(new LongBinarySearchTree(BinarySearchTree.Balance.AVL));
+        default:
+            return generic(kind);
+        }
+    }
+
+    public GenericTree generic(String balance) {
+        return new Generic(new BinarySearchTree<>(BinarySearchTree.Balance.valueOf(balance)));
+    }
+
+    public int[] keys(String order, int n) {
+        return BinarySearchTreeBenchmark.keys(BinarySearchTreeBenchmark.KeyOrder.valueOf(order), n);
+    }
+
+    public int[] zipfian(int count, int n, double theta, long seed) {
+        int[] keys = new int[count];
+        Zipfian.fill(keys, n, theta, new Random(seed));
+        return keys;
+    }
+
+    // A BinarySearchTree of boxed keys
+    private static final class Generic implements GenericTree
+    {
+        Generic(BinarySearchTree<Integer> t) {
+            this.t = t;
+        }
+
+        public void insert(int x)             { t.insert(x); }
+        public void remove(int x)             { t.remove(x); }
+        public boolean contains(int x)        { return t.contains(x); }
+        public int findMin()                  { return t.findMin(); }
+        public int findMax()                  { return t.findMax(); }
+        public int nodeCount()                { return t.nodeCount(); }
+        public int size()                     { return t.size(); }
+        public GenericTree copy()             { return new Generic(t.copy()); }
+        public GenericTree mirror()           { return new Generic(t.mirror()); }
+        public GenericTree rotateRight(int x) { return new Generic(t.rotateRight(x)); }
+        public GenericTree rotateLeft(int x)  { return new Generic(t.rotateLeft(x)); }
+        public int printLevels()              { return t.printLevels().size(); }
+
+        public int rootKey() {
+            List<Integer> top = t.printLevels().get(0);
+            return top.get(0);
+        }
+
+        private final BinarySearchTree<Integer> t;
+    }
+
+    // An IntBinarySearchTree
+    private static final class Ints implements BenchTree
+    {
+        Ints(IntBinarySearchTree t) {
+            this.t = t;
+        }
+
+        public void insert(int x)           { t.insert(x); }
+        public void remove(int x)           { t.remove(x); }
+        public boolean contains(int x)      { return t.contains(x); }
+        public int findMin()                { return t.findMin(); }
+        public int findMax()                { return t.findMax(); }
+        public int nodeCount()              { return t.nodeCount(); }
+        public int size()                   { return t.size(); }
+        public BenchTree copy()             { return new Ints(t.copy()); }
+        public BenchTree mirror()           { return new Ints(t.mirror()); }
+
+        private final IntBinarySearchTree t;
+    }
+
+    // A LongBinarySearchTree holding the int keys widened
+    private static final class Longs implements BenchTree
+    {
+        Longs(LongBinarySearchTree t) {
+            this.t = t;
+        }
+
+        public void insert(int x)           { t.insert(x); }
+        public void remove(int x)           { t.remove(x); }
+        public boolean contains(int x)      { return t.contains(x); }
+        public int findMin()                { return (int) t.findMin(); }
+        public int findMax()                { return (int) t.findMax(); }
+        public int nodeCount()              { return t.nodeCount(); }
+        public int size()                   { return t.size(); }
+        public BenchTree copy()             { return new Longs(t.copy()); }
+        public BenchTree mirror()           { return new Longs(t.mirror()); }
+
+        private final LongBinarySearchTree t;
+    }
+}
@@ -0,0 +1,25 @@
+// BenchTree interface
+//
+// What the JMH benchmarks call on a tree. JMH requires benchmarks to live in a
+// named package, which cannot see the trees in the unnamed package, so the
+// trees are reached through this interface; see TreeFactory.
+
+package benchmarks;
+
+/**
+ * A tree of int keys under benchmark. Every call is one call on the tree
+ * behind it, so the JIT inlines the adapter away. The operations only the
+ * generic tree has are in GenericTree.
+ */
+public interface BenchTree
+{
+    void insert(int x);
+    void remove(int x);
+    boolean contains(int x);
+    int findMin();
+    int findMax();
+    int nodeCount();
+    int size();
+    BenchTree copy();
+    BenchTree mirror();
+}
@@ -0,0 +1,23 @@
+// GenericTree interface
+//
+// What the JMH benchmarks call on a BinarySearchTree of Integer, beyond what
+// every tree has; the primitive trees have no rotations or printLevels.
+
+package benchmarks;
+
+/**
+ * A generic BinarySearchTree of int keys under benchmark.
+ */
+public interface GenericTree extends BenchTree
+{
+    GenericTree copy();
+    GenericTree mirror();
+    GenericTree rotateRight(int x);
+    GenericTree rotateLeft(int x);
+
+    /** Prints the tree level by level and returns the number of levels. */
+    int printLevels();
+
+    /** Returns the key at the root. */
+    int rootKey();
+}
@@ -0,0 +1,193 @@
+// OperationsBenchmark class
+//
+// JMH benchmarks of every public hot path of BinarySearchTree, for each balance
+// mode and key order.
+//
+// Run: gradle jmh -Pjmh=OperationsBenchmark
+// Sizes run from 1e3 to 1e8 with -p n=...; sizes beyond 1e6 need a larger heap,
+// and only the balanced modes are worth running there, e.g.
+// gradle jmh -Pjmh="OperationsBenchmark.Balanced -p n=1e8 -jvmArgs -Xmx32g".
+
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Times insert, remove, contains, findMin, findMax, nodeCount, copy, mirror,
+ * rotateRight, rotateLeft and printLevels. Insert and remove report the time to
+ * insert or remove all n keys; the other operations report one call on a tree
+ * built from the n keys. contains cycles through the keys in input order.
+ * rotateRight and rotateLeft rotate at the root and return a rotated copy, so
+ * they cost O(n). printLevels output is discarded.
+ *
+ * The parameters live in the two subclasses. Balanced runs the balancing modes
+ * up to n=1e5; Unbalanced runs the unbalanced tree only up to n=1e4, since
+ * SORTED and ADVERSARIAL keys make it quadratic to build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class OperationsBenchmark
+{
+    public static class Balanced extends OperationsBenchmark
+    {
+        @Param({ "AVL", "SPLAY", "SEMI_SPLAY" })
+        public String balance;
+
+        @Param({ "SORTED", "RANDOM", "ZIPFIAN", "ADVERSARIAL" })
+        public String order;
+
+        @Param({ "1e3", "1e4", "1e5" })
+        public String n;
+    }
+
+    public static class Unbalanced extends OperationsBenchmark
+    {
+        @Param({ "NONE" })
+        public String balance;
+
+        @Param({ "SORTED", "RANDOM", "ZIPFIAN", "ADVERSARIAL" })
+        public String order;
+
+        @Param({ "1e3", "1e4" })
+        public String n;
+    }
+
+    private Input input;
+    private int[] keys;
+    private GenericTree tree;
+    private int root;
+    private int next;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void build(BenchmarkParams params) {
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        input = new Input(params);
+        keys = input.keys;
+        tree = input.filled();
+        root = tree.rootKey();
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        System.setOut(out);
+    }
+
+    // The keys and balance mode of a run, read from its parameters
+    private static final class Input
+    {
+        Input(BenchmarkParams params) {
+            factory = TreeFactory.load();
+            balance = params.getParam("balance");
+            keys = factory.keys(params.getParam("order"), TreeFactory.size(params.getParam("n")));
+        }
+
+        GenericTree filled() {
+            GenericTree t = factory.generic(balance);
+            for(int k : keys) t.insert(k);
+            return t;
+        }
+
+        final TreeFactory factory;
+        final String balance;
+        final int[] keys;
+    }
+
+    // A tree holding the keys, rebuilt before every remove
+    @State(Scope.Thread)
+    public static class Filled
+    {
+        Input input;
+        BenchTree tree;
+
+        @Setup(Level.Trial)
+        public void load(BenchmarkParams params) {
+            input = new Input(params);
+        }
+
+        @Setup(Level.Invocation)
+        public void build() {
+            tree = input.filled();
+        }
+    }
+
+    @Benchmark
+    public BenchTree insert() {
+        return input.filled();
+    }
+
+    @Benchmark
+    public int remove(Filled f) {
+        for(int k : keys) f.tree.remove(k);
+        return f.tree.size();
+    }
+
+    @Benchmark
+    public boolean contains() {
+        int k = keys[next];
+        if(++next == keys.length) next = 0;
+        return tree.contains(k);
+    }
+
+    @Benchmark
+    public int findMin() {
+        return tree.findMin();
+    }
+
+    @Benchmark
+    public int findMax() {
+        return tree.findMax();
+    }
+
+    @Benchmark
+    public int nodeCount() {
+        return tree.nodeCount();
+    }
+
+    @Benchmark
+    public BenchTree copy() {
+        return tree.copy();
+    }
+
+    @Benchmark
+    public BenchTree mirror() {
+        return tree.mirror();
+    }
+
+    @Benchmark
+    public BenchTree rotateRight() {
+        return tree.rotateRight(root);
+    }
+
+    @Benchmark
+    public BenchTree rotateLeft() {
+        return tree.rotateLeft(root);
+    }
+
+    @Benchmark
+    public int printLevels() {
+        return tree.printLevels();
+    }
+}
@@ -0,0 +1,69 @@
+// PrimitiveBenchmark class
+//
+// JMH benchmarks of boxed against primitive keys: an AVL BinarySearchTree of
+// Integer against IntBinarySearchTree and LongBinarySearchTree.
+//
+// Run: gradle jmh -Pjmh=PrimitiveBenchmark
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times inserting n random keys into an empty tree, and one contains on the
+ * full tree, cycling through the keys. "AVL" is the generic tree, which boxes
+ * every key; "int" and "long" store their keys unboxed in the nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveBenchmark
+{
+    @Param({ "AVL", "int", "long" })
+    public String kind;
+
+    @Param({ "1e3", "1e5", "1e6" })
+    public String n;
+
+    private TreeFactory factory;
+    private int[] keys;
+    private BenchTree tree;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        factory = TreeFactory.load();
+        keys = factory.keys("RANDOM", TreeFactory.size(n));
+        tree = insert();
+    }
+
+    @Benchmark
+    public BenchTree insert() {
+        BenchTree t = factory.create(kind);
+        for(int k : keys) t.insert(k);
+        return t;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        int k = keys[next];
+        if(++next == keys.length) next = 0;
+        return tree.contains(k);
+    }
+}
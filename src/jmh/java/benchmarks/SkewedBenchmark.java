@@ -0,0 +1,79 @@
+// SkewedBenchmark class
+//
+// JMH benchmarks of lookups that favour a few hot keys, for each balance mode;
+// the self-adjusting modes are meant to win here.
+//
+// Run: gradle jmh -Pjmh=SkewedBenchmark
+
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times one contains on a tree of n random keys, drawing the key from a stream
+ * of 4n lookups: "zipfian" draws with Zipf skew 0.99, and "hot" sends 90% of
+ * the lookups to 5% of the keys. A splaying tree keeps reshaping itself as the
+ * lookups run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkewedBenchmark
+{
+    private static final double ZIPF_THETA = 0.99;
+
+    @Param({ "NONE", "AVL", "SPLAY", "SEMI_SPLAY" })
+    public String balance;
+
+    @Param({ "zipfian", "hot" })
+    public String workload;
+
+    @Param({ "1e4", "1e5", "1e6" })
+    public String n;
+
+    private int[] lookups;
+    private BenchTree tree;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        int size = TreeFactory.size(n);
+        TreeFactory factory = TreeFactory.load();
+        int[] keys = factory.keys("RANDOM", size);
+        if(workload.equals("zipfian")) {
+            lookups = factory.zipfian(4 * size, size, ZIPF_THETA, size);
+        } else {
+            Random random = new Random(size);
+            lookups = new int[4 * size];
+            for(int i = 0; i < lookups.length; i++) {
+                lookups[i] = keys[random.nextInt(10) < 9 ? random.nextInt(Math.max(1, size / 20)) : random.nextInt(size)];
+            }
+        }
+        tree = factory.create(balance);
+        for(int k : keys) tree.insert(k);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        int k = lookups[next];
+        if(++next == lookups.length) next = 0;
+        return tree.contains(k);
+    }
+}
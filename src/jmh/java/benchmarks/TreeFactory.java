@@ -0,0 +1,54 @@
+// TreeFactory interface
+//
+// Makes the trees and key streams the JMH benchmarks run on. It is implemented
+// by TreeAdapters in the unnamed package, next to the trees, and found by name.
+
+package benchmarks;
+
+/**
+ * Creates trees and keys for the benchmarks.
+ */
+public interface TreeFactory
+{
+    /**
+     * Returns an empty tree.
+     * @param kind a BinarySearchTree.Balance name for a tree of Integer, or
+     *             "int" or "long" for an AVL IntBinarySearchTree or LongBinarySearchTree.
+     */
+    BenchTree create(String kind);
+
+    /**
+     * Returns an empty BinarySearchTree of Integer.
+     * @param balance a BinarySearchTree.Balance name.
+     */
+    GenericTree generic(String balance);
+
+    /**
+     * Returns n keys in a BinarySearchTreeBenchmark.KeyOrder: SORTED, RANDOM,
+     * ZIPFIAN or ADVERSARIAL.
+     */
+    int[] keys(String order, int n);
+
+    /**
+     * Returns count draws from 0..n-1 with Zipf skew theta.
+     */
+    int[] zipfian(int count, int n, double theta, long seed);
+
+    /**
+     * Returns the factory for the trees of this build.
+     */
+    static TreeFactory load() {
+        try {
+            return (TreeFactory) Class.forName("TreeAdapters").getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("TreeAdapters is missing from the jmh source set", e);
+        }
+    }
+
+    /**
+     * Parses a size written as 1000 or 1e6.
+     */
+    static int size(String n) {
+        return (int) Double.parseDouble(n);
+    }
+}